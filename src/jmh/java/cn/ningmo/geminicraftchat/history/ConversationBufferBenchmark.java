@@ -0,0 +1,127 @@
+package cn.ningmo.geminicraftchat.history;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对话历史存储基准
+ * 对比环形缓冲区与原先的 CopyOnWriteArrayList<HashMap> 实现：已满时追加一轮对话、读取快照，
+ * 以及一个线程持续追加时其他线程读取快照的吞吐量。
+ * 运行：mvn -Pjmh verify -Djmh.args="ConversationBufferBenchmark -prof gc"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class ConversationBufferBenchmark {
+    @Param({"10", "50"})
+    int maxHistory;
+
+    private ConversationBuffer buffer;
+    private List<Map<String, String>> copyOnWrite;
+    private Turn question;
+    private Turn answer;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        buffer = new ConversationBuffer(maxHistory * 2, delta -> {
+        });
+        copyOnWrite = new CopyOnWriteArrayList<>();
+        question = Turn.user("今天的天气怎么样？适合出去挖矿吗？");
+        answer = Turn.assistant("外面正在下雨，建议先在家里整理箱子，雨停之后再带上火把去矿洞。");
+        // 先填满，测量的是已满状态下的淘汰与追加
+        for (int i = 0; i < maxHistory; i++) {
+            buffer.append(question, answer);
+            appendCopyOnWrite();
+        }
+    }
+
+    private void appendCopyOnWrite() {
+        Map<String, String> user = new HashMap<>();
+        user.put("role", "user");
+        user.put("content", "今天的天气怎么样？适合出去挖矿吗？");
+        copyOnWrite.add(user);
+        Map<String, String> assistant = new HashMap<>();
+        assistant.put("role", "assistant");
+        assistant.put("content", "外面正在下雨，建议先在家里整理箱子，雨停之后再带上火把去矿洞。");
+        copyOnWrite.add(assistant);
+        while (copyOnWrite.size() > maxHistory * 2) {
+            copyOnWrite.remove(0);
+        }
+    }
+
+    @Benchmark
+    @Group("append")
+    public int ringBufferAppend() {
+        return buffer.append(question, answer);
+    }
+
+    @Benchmark
+    @Group("appendBaseline")
+    public int copyOnWriteAppend() {
+        appendCopyOnWrite();
+        return copyOnWrite.size();
+    }
+
+    @Benchmark
+    @Group("snapshot")
+    public List<Turn> ringBufferSnapshot() {
+        return buffer.snapshot();
+    }
+
+    @Benchmark
+    @Group("snapshotBaseline")
+    public List<Map<String, String>> copyOnWriteSnapshot() {
+        return new ArrayList<>(copyOnWrite);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public List<Turn> contendedSnapshot() {
+        return buffer.snapshot();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public int contendedAppend() {
+        return buffer.append(question, answer);
+    }
+
+    @Benchmark
+    @Group("contendedBaseline")
+    @GroupThreads(3)
+    public List<Map<String, String>> contendedCopyOnWriteSnapshot() {
+        return new ArrayList<>(copyOnWrite);
+    }
+
+    @Benchmark
+    @Group("contendedBaseline")
+    @GroupThreads(1)
+    public int contendedCopyOnWriteAppend() {
+        appendCopyOnWrite();
+        return copyOnWrite.size();
+    }
+}
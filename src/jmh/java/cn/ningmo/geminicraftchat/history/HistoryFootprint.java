@@ -0,0 +1,165 @@
+package cn.ningmo.geminicraftchat.history;
+
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 对话历史堆内存占用测量
+ * 用 JOL 统计相同对话在原先的 Map<String, List<Map<String, String>>> 存储与 ConversationStore 中的实际占用，
+ * 中文与英文回复分别统计，ConversationStore 的消息已缓存令牌数，压缩阈值可通过参数传入。
+ * 运行：mvn -Pjmh verify -Djmh.main=cn.ningmo.geminicraftchat.history.HistoryFootprint -Djmh.args="0 256"
+ */
+public final class HistoryFootprint {
+    private static final int PLAYERS = 50;
+    private static final int MAX_HISTORY = 10;
+
+    private static final String[] CHINESE = {
+        "你可以先在附近找一片平坦的草地，用木头搭一个简单的小屋过夜。",
+        "铁矿通常出现在地下五到六十格的石头层里，带上石镐就能挖。",
+        "夜晚会刷出僵尸和骷髅，记得在房子周围多放几支火把。",
+        "想要附魔的话，需要先收集钻石和黑曜石来做附魔台。",
+        "书架摆在附魔台周围一格的位置，最多十五个就能解锁最高等级。",
+        "村民可以用绿宝石交易，图书管理员有时会卖经验修补的附魔书。",
+        "下界传送门需要至少十块黑曜石，用打火石点燃即可。",
+        "进入下界之前最好穿上金靴子，这样猪灵不会主动攻击你。",
+        "末影之眼可以指引要塞的方向，扔出去之后跟着它走就行。",
+        "种小麦需要先用锄头耕地，并且旁边四格之内要有水源。",
+        "如果饥饿值太低，生命值就不会自然恢复，记得随身带些面包。",
+        "红石比较器可以读取箱子里物品的数量，常用来做自动分拣机。",
+        "刷怪塔的原理是在黑暗的平台上生成怪物，再用水流把它们推到坑里。",
+        "苦力怕靠近时会发出嘶嘶声，听到之后赶紧后退或者用弓箭解决它。",
+        "钓鱼除了能钓到鱼，还有机会钓到附魔书和命名牌。",
+        "潜影盒可以把物品装起来随身携带，打掉之后里面的东西不会掉出来。",
+        "骑马之前需要先驯服它，多骑几次直到出现爱心就成功了。",
+        "地图可以和其他地图拼接，放在物品展示框里就能做成一面大地图墙。",
+        "如果迷路了，可以按下调试界面查看当前坐标，或者提前记下出生点。",
+        "信标需要放在金属块搭成的金字塔上面，层数越多效果越强。",
+        "雪傀儡会向敌对生物扔雪球，用两个雪块加一个南瓜就能做出来。",
+        "在沙漠神殿里要小心中间的压力板，下面连着一堆炸药。",
+        "海底神殿里有守卫者，进去之前最好准备好水下呼吸药水。",
+        "凋零需要用灵魂沙和凋灵骷髅头召唤，建议在地下空旷的地方打。",
+        "末影龙被击败之后会出现回城的传送门，还会留下一颗龙蛋。",
+        "鞘翅可以在末地城的船里找到，配合烟花火箭就能长距离飞行。",
+        "酿造台需要烈焰粉作为燃料，药水的基础材料是粗制的药水。",
+        "熔炉除了烧矿石，还能把沙子烧成玻璃，把圆石烧成石头。",
+        "建筑的时候可以先用羊毛打个草稿，确定好比例再换成正式的方块。",
+        "服务器里请不要破坏别人的建筑，有问题可以在聊天里找管理员。",
+        "今天天气不错，适合出去探索一下新的地形，说不定能找到村庄。",
+        "我觉得你的城堡已经很漂亮了，可以再加一些灯笼让夜景更好看。",
+        "合成表可以在背包右上角的配方书里查到，搜索物品名字就行。",
+        "如果电脑比较卡，可以把渲染距离调低一些，再关掉平滑光照。",
+        "蜜蜂会在花丛附近采蜜，用剪刀收集蜂巢之前记得在下面点个营火。",
+        "铜块放久了会慢慢氧化变绿，用斧头可以刮掉锈迹，涂蜡之后就不会再变。",
+        "紫水晶洞一般藏在地下，外面是一层平滑玄武岩，里面能挖到紫水晶碎片。",
+        "深暗之域里要尽量潜行，踩到幽匿感测体会把监守者召唤出来。",
+        "樱花树林是新版本的生物群系，粉色的树叶很适合用来做园林建筑。",
+        "考古需要用刷子清理可疑的沙子，有机会挖出陶片和嗅探兽的蛋。",
+    };
+
+    private static final String[] ENGLISH = {
+        "You can start by finding a flat patch of grass and building a small wooden hut for the night.",
+        "Iron ore usually shows up in the stone layers underground, and a stone pickaxe is enough to mine it.",
+        "Zombies and skeletons spawn at night, so place plenty of torches around your house.",
+        "To enchant items you first need diamonds and obsidian to craft an enchanting table.",
+        "Villagers trade with emeralds, and librarians sometimes sell Mending books.",
+        "A nether portal needs at least ten obsidian blocks and a flint and steel to light it.",
+        "Wear golden boots before entering the nether so piglins will not attack you on sight.",
+        "Eyes of ender point toward the stronghold, just throw one and follow where it goes.",
+        "Wheat needs tilled farmland with a water source within four blocks.",
+        "If your hunger bar is too low your health will not regenerate, so carry some bread.",
+        "A redstone comparator can read how full a chest is, which is handy for item sorters.",
+        "Creepers hiss when they get close, so back off or take them out with a bow.",
+        "Shulker boxes keep their contents when broken, which makes them great for travel.",
+        "Beacons need a pyramid of metal blocks underneath, and more layers give stronger effects.",
+        "Elytra can be found in end city ships, and fireworks let you fly long distances.",
+        "Brewing stands use blaze powder as fuel, and awkward potions are the usual base.",
+        "Please do not grief other players' builds, ask an admin in chat if something is wrong.",
+        "If the game is lagging, lower your render distance and turn off smooth lighting.",
+        "Copper slowly oxidizes over time, scrape it with an axe or wax it to keep the color.",
+        "In the deep dark, sneak as much as you can so the sculk sensors do not summon the warden.",
+    };
+
+    private HistoryFootprint() {
+    }
+
+    public static void main(String[] args) {
+        List<Integer> thresholds = new ArrayList<>();
+        for (String arg : args) {
+            thresholds.add(Integer.parseInt(arg));
+        }
+        if (thresholds.isEmpty()) {
+            thresholds.add(0);
+        }
+        measure("中文", CHINESE, thresholds);
+        measure("英文", ENGLISH, thresholds);
+    }
+
+    private static void measure(String label, String[] sentences, List<Integer> thresholds) {
+        List<String[]> rounds = generate(sentences);
+        long turns = rounds.size() * 2L;
+
+        long baseline = GraphLayout.parseInstance(baseline(rounds)).totalSize();
+        System.out.printf("%s 原先的存储: %d 字节，每条消息 %.1f 字节%n", label, baseline, (double) baseline / turns);
+        for (int threshold : thresholds) {
+            long store = GraphLayout.parseInstance(store(rounds, threshold)).totalSize();
+            System.out.printf("%s ConversationStore（压缩阈值 %d）: %d 字节，每条消息 %.1f 字节，为原先的 %.2f 倍%n",
+                label, threshold, store, (double) store / turns, (double) store / baseline);
+        }
+    }
+
+    /**
+     * 每名玩家 MAX_HISTORY 轮对话：简短的提问与 1 到 6 句不重复的回复
+     */
+    private static List<String[]> generate(String[] sentences) {
+        Random random = new Random(42);
+        List<String> pool = new ArrayList<>(List.of(sentences));
+        List<String[]> rounds = new ArrayList<>();
+        for (int i = 0; i < PLAYERS * MAX_HISTORY; i++) {
+            Collections.shuffle(pool, random);
+            String question = pool.get(0).substring(0, Math.min(pool.get(0).length(), 12 + random.nextInt(12)));
+            String answer = String.join(sentences == CHINESE ? "" : " ", pool.subList(1, 2 + random.nextInt(6)));
+            rounds.add(new String[]{question, answer});
+        }
+        return rounds;
+    }
+
+    private static Map<String, List<Map<String, String>>> baseline(List<String[]> rounds) {
+        Map<String, List<Map<String, String>>> history = new ConcurrentHashMap<>();
+        for (int i = 0; i < rounds.size(); i++) {
+            List<Map<String, String>> messages = history.computeIfAbsent("player-" + (i % PLAYERS),
+                k -> new CopyOnWriteArrayList<>());
+            messages.add(message("user", rounds.get(i)[0]));
+            messages.add(message("assistant", rounds.get(i)[1]));
+        }
+        return history;
+    }
+
+    private static Map<String, String> message(String role, String content) {
+        Map<String, String> message = new HashMap<>();
+        message.put("role", role);
+        message.put("content", content);
+        return message;
+    }
+
+    private static ConversationStore store(List<String[]> rounds, int threshold) {
+        ConversationStore store = new ConversationStore(MAX_HISTORY, 0, threshold, null);
+        for (int i = 0; i < rounds.size(); i++) {
+            store.append("player-" + (i % PLAYERS), rounds.get(i)[0], rounds.get(i)[1]);
+        }
+        // 构建提示词时会缓存每条消息的令牌数，测量时一并计入
+        for (int i = 0; i < PLAYERS; i++) {
+            for (Turn turn : store.snapshot("player-" + i)) {
+                turn.tokens(HistoryFootprint.class, String::length);
+            }
+        }
+        return store;
+    }
+}
@@ -5,9 +5,13 @@ import cn.ningmo.geminicraftchat.config.ConfigManager;
 import cn.ningmo.geminicraftchat.commands.MainCommand;
 import cn.ningmo.geminicraftchat.listeners.ChatListener;
 import cn.ningmo.geminicraftchat.chat.ChatManager;
+import cn.ningmo.geminicraftchat.history.ConversationJournal;
 import cn.ningmo.geminicraftchat.logging.LogManager;
 import cn.ningmo.geminicraftchat.metrics.MetricsManager;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.Set;
@@ -23,7 +27,10 @@ public class GeminiCraftChat extends JavaPlugin {
     private static GeminiCraftChat instance;
     private ConfigManager configManager;
     private ChatManager chatManager;
+    // 重载后仍在等待进行中请求完成的旧聊天管理器
+    private final Set<ChatManager> drainingChatManagers = ConcurrentHashMap.newKeySet();
     private LogManager logManager;
+    private ConversationJournal conversationJournal;
     private MetricsManager metricsManager;
     private Logger pluginLogger;
 
@@ -60,6 +67,13 @@ public class GeminiCraftChat extends JavaPlugin {
             return;
         }
         
+        // 初始化对话历史日志，重载插件时沿用同一个日志
+        ConversationJournal.Settings journalSettings = ConversationJournal.Settings.load(
+            configManager.getConfig().getConfigurationSection("chat.journal"));
+        if (journalSettings.enabled()) {
+            this.conversationJournal = new ConversationJournal(this, journalSettings);
+        }
+
         // 初始化聊天管理器
         try {
             this.chatManager = new ChatManager(this);
@@ -135,6 +149,15 @@ public class GeminiCraftChat extends JavaPlugin {
         if (chatManager != null) {
             chatManager.shutdown();
         }
+        for (ChatManager draining : drainingChatManagers) {
+            draining.shutdown();
+        }
+        drainingChatManagers.clear();
+
+        // 写出并关闭对话历史日志
+        if (conversationJournal != null) {
+            conversationJournal.close();
+        }
 
         // 关闭日志管理器
         if (logManager != null) {
@@ -188,6 +211,11 @@ public class GeminiCraftChat extends JavaPlugin {
         configManager.loadConfig();
         validateConfig();
 
+        // 新的回复缓存会加载快照，先保存旧缓存的快照
+        if (this.chatManager != null) {
+            this.chatManager.getResponseCache().handOverSnapshot();
+        }
+
         // 新建组件，确保新配置完整生效
         LogManager newLogManager = new LogManager(this);
         ChatManager newChatManager = new ChatManager(this);
@@ -198,8 +226,11 @@ public class GeminiCraftChat extends JavaPlugin {
         this.logManager = newLogManager;
         this.chatManager = newChatManager;
 
+        // 旧组件在后台等待进行中的请求完成后再关闭，新请求由新组件处理
         if (oldChatManager != null) {
-            oldChatManager.shutdown();
+            drainingChatManagers.add(oldChatManager);
+            oldChatManager.drain(configManager.getReloadDrainTimeout())
+                .whenComplete((ignored, throwable) -> drainingChatManagers.remove(oldChatManager));
         }
         if (oldLogManager != null) {
             oldLogManager.closeLog();
@@ -219,6 +250,10 @@ public class GeminiCraftChat extends JavaPlugin {
         return instance;
     }
 
+    public ConversationJournal getConversationJournal() {
+        return conversationJournal;
+    }
+
     public ConfigManager getConfigManager() {
         return configManager;
     }
@@ -227,6 +262,13 @@ public class GeminiCraftChat extends JavaPlugin {
         return chatManager;
     }
 
+    /**
+     * 重载后仍在排空的旧聊天管理器，玩家退出时同样需要取消其中的请求
+     */
+    public Collection<ChatManager> getDrainingChatManagers() {
+        return Collections.unmodifiableSet(drainingChatManagers);
+    }
+
     public LogManager getLogManager() {
         return logManager;
     }
@@ -0,0 +1,33 @@
+package cn.ningmo.geminicraftchat.api;
+
+import java.io.IOException;
+
+/**
+ * API返回错误响应或响应无法解析时抛出
+ * 429、408 与 5xx 视为可重试，其余 4xx 与解析失败不可重试
+ */
+public class ApiException extends IOException {
+    private final int statusCode;
+    private final boolean retryable;
+
+    public ApiException(int statusCode, String message, boolean retryable) {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryable = retryable;
+    }
+
+    /**
+     * 按HTTP状态码判断是否可重试
+     */
+    public static boolean isRetryableStatus(int statusCode) {
+        return statusCode == 408 || statusCode == 429 || statusCode >= 500;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public boolean isRetryable() {
+        return retryable;
+    }
+}
@@ -0,0 +1,426 @@
+package cn.ningmo.geminicraftchat.api;
+
+import okhttp3.Headers;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 单个模型的 API Key 池
+ * 每个 Key 分别维护每分钟请求数与令牌数两个令牌桶，并由服务商返回的 x-ratelimit-* /
+ * anthropic-ratelimit-* 与 Retry-After 响应头校准。每次请求选择剩余额度最多的 Key，
+ * 被限流（429）的 Key 暂停使用直到重置时间，全部 Key 暂不可用时在 max_wait_ms 与请求剩余时间内等待，尝试被取消时立即放弃。
+ * 启用 Key 亲和时，玩家按一致性哈希固定使用同一个 Key，使服务商的前缀缓存在连续对话中保持命中；
+ * 哈希环按 Key 本身构建，增删 Key 时只有少数玩家改用其他 Key，固定的 Key 暂不可用时才改用其他 Key。
+ */
+public class ApiKeyPool {
+    /**
+     * 限流配置，对应模型下的 rate_limit 配置节
+     * @param requestsPerMinute 每个 Key 每分钟请求数，0 表示由响应头决定
+     * @param tokensPerMinute 每个 Key 每分钟令牌数，0 表示由响应头决定
+     * @param maxWaitMillis 全部 Key 暂不可用时最多等待的时间
+     * @param defaultParkMillis 429 响应未给出重置时间时暂停 Key 的时间
+     * @param affinity 是否按玩家固定使用同一个 Key
+     */
+    public record Settings(long requestsPerMinute, long tokensPerMinute, long maxWaitMillis, long defaultParkMillis,
+                           boolean affinity) {
+        public static Settings load(ConfigurationSection config) {
+            if (config == null) {
+                return new Settings(0, 0, 10000, 20000, true);
+            }
+            return new Settings(
+                Math.max(0, config.getLong("requests_per_minute", 0)),
+                Math.max(0, config.getLong("tokens_per_minute", 0)),
+                Math.max(0, config.getLong("max_wait_ms", 10000)),
+                Math.max(1000, config.getLong("default_park_ms", 20000)),
+                config.getBoolean("affinity", true)
+            );
+        }
+    }
+
+    /**
+     * 所有 Key 均已限流且等待时间超过上限时抛出
+     */
+    public static class RateLimitedException extends IOException {
+        public RateLimitedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * 当前 Key 返回 429 并已被暂停，可换用其他 Key 重试
+     */
+    public static class KeyThrottledException extends IOException {
+        public KeyThrottledException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * 一个 Key 的状态
+     */
+    public static class KeyState {
+        private final int index;
+        private final String apiKey;
+        private final TokenBucket requests;
+        private final TokenBucket tokens;
+        private volatile long parkedUntil;
+        private volatile long throttledCount;
+        private long stickyRequests;
+        private long fallbackRequests;
+        private long completedRequests;
+        private double ewmaLatency = -1;
+        private long promptTokens;
+        private long cachedPromptTokens;
+
+        private KeyState(int index, String apiKey, Settings settings) {
+            this.index = index;
+            this.apiKey = apiKey;
+            this.requests = new TokenBucket(settings.requestsPerMinute());
+            this.tokens = new TokenBucket(settings.tokensPerMinute());
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getApiKey() {
+            return apiKey;
+        }
+
+        public boolean isParked() {
+            return parkedUntil > System.currentTimeMillis();
+        }
+
+        public long getParkedUntil() {
+            return parkedUntil;
+        }
+
+        public long getThrottledCount() {
+            return throttledCount;
+        }
+
+        public double headroom() {
+            return Math.min(requests.headroom(), tokens.headroom());
+        }
+
+        /**
+         * 记录使用该 Key 完成的请求耗时
+         */
+        public synchronized void recordLatency(long latencyMillis) {
+            completedRequests++;
+            ewmaLatency = ewmaLatency < 0 ? latencyMillis : (1 - LATENCY_ALPHA) * ewmaLatency + LATENCY_ALPHA * latencyMillis;
+        }
+
+        /**
+         * 记录服务商返回的提示词令牌用量
+         */
+        public synchronized void recordPromptUsage(long prompt, long cached) {
+            promptTokens += prompt;
+            cachedPromptTokens += cached;
+        }
+
+        /**
+         * 按亲和固定分配到该 Key 的请求数
+         */
+        public synchronized long getStickyRequests() {
+            return stickyRequests;
+        }
+
+        /**
+         * 固定的 Key 不可用而改用该 Key 的请求数
+         */
+        public synchronized long getFallbackRequests() {
+            return fallbackRequests;
+        }
+
+        public synchronized long getCompletedRequests() {
+            return completedRequests;
+        }
+
+        /**
+         * 延迟的 EWMA（毫秒），尚无样本时返回 -1
+         */
+        public synchronized double getEwmaLatency() {
+            return ewmaLatency;
+        }
+
+        /**
+         * 提示词令牌的缓存命中率（0-1），尚无用量时返回 -1
+         */
+        public synchronized double getPromptCacheHitRate() {
+            return promptTokens > 0 ? (double) cachedPromptTokens / promptTokens : -1;
+        }
+
+        private long millisUntilAvailable(long estimatedTokens, long now) {
+            long wait = Math.max(requests.millisUntil(1), tokens.millisUntil(estimatedTokens));
+            return Math.max(wait, parkedUntil - now);
+        }
+    }
+
+    private static final Pattern DURATION_PART = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|h|m|s)");
+    private static final double LATENCY_ALPHA = 0.2;
+    // 每个 Key 在哈希环上的虚拟节点数，使玩家在各 Key 间分布均匀
+    private static final int VIRTUAL_NODES = 64;
+    // 等待额度时每隔这么久检查一次尝试是否已被取消
+    private static final long CANCEL_CHECK_MILLIS = 100;
+
+    private final String modelKey;
+    private final Settings settings;
+    private final List<KeyState> keys;
+    private final TreeMap<Long, KeyState> ring;
+
+    public ApiKeyPool(String modelKey, List<String> apiKeys, Settings settings) {
+        this.modelKey = modelKey;
+        this.settings = settings;
+        this.keys = new ArrayList<>();
+        this.ring = new TreeMap<>();
+        for (String apiKey : apiKeys) {
+            KeyState key = new KeyState(keys.size(), apiKey, settings);
+            keys.add(key);
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(apiKey + "#" + i), key);
+            }
+        }
+    }
+
+    /**
+     * 选择剩余额度最多的可用 Key 并扣除本次请求的额度
+     * @param estimatedTokens 本次请求预计消耗的令牌数
+     */
+    public KeyState acquire(long estimatedTokens) throws IOException {
+        return acquire(estimatedTokens, null);
+    }
+
+    /**
+     * 优先选择亲和标识固定对应的 Key，该 Key 暂不可用时选择剩余额度最多的可用 Key
+     * @param estimatedTokens 本次请求预计消耗的令牌数
+     * @param affinity 亲和标识（如玩家名），为 null 或未启用亲和时按剩余额度选择
+     */
+    public KeyState acquire(long estimatedTokens, String affinity) throws IOException {
+        return acquire(estimatedTokens, affinity, null, 0);
+    }
+
+    /**
+     * 与 {@link #acquire(long, String)} 相同，等待额度时不超过请求的截止时间，尝试被取消时立即放弃且不扣除额度
+     * @param attempt 本次请求尝试，为 null 时不检查取消
+     * @param requestDeadline 请求的截止时间（毫秒时间戳），0 表示只受 max_wait_ms 限制
+     */
+    public KeyState acquire(long estimatedTokens, String affinity, RequestAttempt attempt,
+                            long requestDeadline) throws IOException {
+        KeyState sticky = affinity != null && settings.affinity() && keys.size() > 1 ? stickyKey(affinity) : null;
+        long deadline = System.currentTimeMillis() + settings.maxWaitMillis();
+        if (requestDeadline > 0) {
+            deadline = Math.min(deadline, requestDeadline);
+        }
+        while (true) {
+            if (attempt != null && attempt.isCancelled()) {
+                throw new InterruptedIOException("等待 API Key 额度时请求已取消");
+            }
+
+            long now = System.currentTimeMillis();
+            KeyState best = null;
+            long shortestWait = Long.MAX_VALUE;
+
+            synchronized (this) {
+                if (sticky != null && sticky.millisUntilAvailable(estimatedTokens, now) <= 0) {
+                    sticky.requests.consume(1);
+                    sticky.tokens.consume(estimatedTokens);
+                    synchronized (sticky) {
+                        sticky.stickyRequests++;
+                    }
+                    return sticky;
+                }
+                for (KeyState key : keys) {
+                    long wait = key.millisUntilAvailable(estimatedTokens, now);
+                    if (wait <= 0) {
+                        if (best == null || key.headroom() > best.headroom()) {
+                            best = key;
+                        }
+                    } else {
+                        shortestWait = Math.min(shortestWait, wait);
+                    }
+                }
+                if (best != null) {
+                    best.requests.consume(1);
+                    best.tokens.consume(estimatedTokens);
+                    if (sticky != null) {
+                        synchronized (best) {
+                            best.fallbackRequests++;
+                        }
+                    }
+                    return best;
+                }
+            }
+
+            if (shortestWait == Long.MAX_VALUE || now + shortestWait > deadline) {
+                throw new RateLimitedException("模型 " + modelKey + " 的所有 API Key 均已达到速率限制");
+            }
+
+            // 分段等待，尝试被取消后尽快退出
+            try {
+                Thread.sleep(Math.max(1, Math.min(shortestWait, CANCEL_CHECK_MILLIS)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("等待 API Key 额度时被中断");
+            }
+        }
+    }
+
+    /**
+     * 在哈希环上查找亲和标识对应的 Key
+     */
+    private KeyState stickyKey(String affinity) {
+        Map.Entry<Long, KeyState> entry = ring.ceilingEntry(hash(affinity));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * 64 位 FNV-1a 哈希，再经过 MurmurHash3 的混合步骤使分布均匀
+     */
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * 根据响应头更新 Key 的额度，429 响应会暂停该 Key
+     * @return 被暂停的毫秒数，未暂停时返回 0
+     */
+    public long update(KeyState key, int statusCode, Headers headers) {
+        long now = System.currentTimeMillis();
+        syncBucket(key.requests, headers, "requests");
+        syncBucket(key.tokens, headers, "tokens");
+
+        if (statusCode != 429) {
+            return 0;
+        }
+
+        long parkMillis = parseRetryAfter(headers.get("Retry-After"), now);
+        if (parkMillis <= 0) {
+            parkMillis = Math.max(resetMillis(headers, "requests", now), resetMillis(headers, "tokens", now));
+        }
+        if (parkMillis <= 0) {
+            parkMillis = settings.defaultParkMillis();
+        }
+        key.parkedUntil = now + parkMillis;
+        key.throttledCount++;
+        return parkMillis;
+    }
+
+    private void syncBucket(TokenBucket bucket, Headers headers, String kind) {
+        long now = System.currentTimeMillis();
+        long remaining = parseLong(first(headers, "x-ratelimit-remaining-" + kind, "anthropic-ratelimit-" + kind + "-remaining"));
+        if (remaining < 0) {
+            return;
+        }
+        long limit = parseLong(first(headers, "x-ratelimit-limit-" + kind, "anthropic-ratelimit-" + kind + "-limit"));
+        bucket.sync(limit, remaining, resetMillis(headers, kind, now));
+    }
+
+    private long resetMillis(Headers headers, String kind, long now) {
+        String openAiReset = headers.get("x-ratelimit-reset-" + kind);
+        if (openAiReset != null) {
+            return parseDuration(openAiReset);
+        }
+        String anthropicReset = headers.get("anthropic-ratelimit-" + kind + "-reset");
+        if (anthropicReset != null) {
+            try {
+                return Math.max(0, Instant.parse(anthropicReset.trim()).toEpochMilli() - now);
+            } catch (Exception ignored) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static String first(Headers headers, String name, String alternative) {
+        String value = headers.get(name);
+        return value != null ? value : headers.get(alternative);
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 解析 "1s"、"6m0s"、"250ms" 等形式的时长
+     */
+    static long parseDuration(String value) {
+        Matcher matcher = DURATION_PART.matcher(value.trim());
+        double millis = 0;
+        boolean found = false;
+        while (matcher.find()) {
+            found = true;
+            double amount = Double.parseDouble(matcher.group(1));
+            millis += switch (matcher.group(2)) {
+                case "h" -> amount * 3_600_000;
+                case "m" -> amount * 60_000;
+                case "s" -> amount * 1000;
+                default -> amount;
+            };
+        }
+        if (!found) {
+            long seconds = parseLong(value);
+            return seconds >= 0 ? seconds * 1000 : -1;
+        }
+        return (long) Math.ceil(millis);
+    }
+
+    /**
+     * 解析 Retry-After，支持秒数与 HTTP 日期两种格式
+     */
+    static long parseRetryAfter(String value, long now) {
+        if (value == null || value.isBlank()) {
+            return -1;
+        }
+        long seconds = parseLong(value);
+        if (seconds >= 0) {
+            return seconds * 1000;
+        }
+        try {
+            return Math.max(0, ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME)
+                .toInstant().toEpochMilli() - now);
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    public String getModelKey() {
+        return modelKey;
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    public List<KeyState> getKeys() {
+        return keys;
+    }
+}
@@ -0,0 +1,174 @@
+package cn.ningmo.geminicraftchat.api;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.io.IOException;
+
+/**
+ * 单个模型的熔断器
+ * 连续出现可重试的失败（429、5xx、超时等）达到阈值后打开，打开期间请求立即失败；
+ * 冷却时间过后进入半开状态，只放行一个探测请求，成功则关闭，失败则重新打开。
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED("关闭"), OPEN("打开"), HALF_OPEN("半开");
+
+        private final String displayName;
+
+        State(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    /**
+     * 熔断器配置，对应 api.circuit_breaker
+     */
+    public record Settings(boolean enabled, int failureThreshold, long openMillis) {
+        public static Settings load(ConfigurationSection config) {
+            if (config == null) {
+                return new Settings(true, 5, 30000);
+            }
+            return new Settings(
+                config.getBoolean("enabled", true),
+                Math.max(1, config.getInt("failure_threshold", 5)),
+                Math.max(1000, config.getLong("open_ms", 30000))
+            );
+        }
+    }
+
+    /**
+     * 状态变化回调
+     */
+    @FunctionalInterface
+    public interface TransitionListener {
+        void onTransition(String modelKey, State from, State to, String reason);
+    }
+
+    /**
+     * 熔断器打开时抛出
+     */
+    public static class CircuitOpenException extends IOException {
+        public CircuitOpenException(String message) {
+            super(message);
+        }
+    }
+
+    private final String modelKey;
+    private final Settings settings;
+    private final TransitionListener listener;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    public CircuitBreaker(String modelKey, Settings settings, TransitionListener listener) {
+        this.modelKey = modelKey;
+        this.settings = settings;
+        this.listener = listener;
+    }
+
+    /**
+     * 检查是否允许发送请求
+     * @throws CircuitOpenException 熔断器打开或半开状态下已有探测请求
+     */
+    public void acquire() throws CircuitOpenException {
+        if (!settings.enabled()) {
+            return;
+        }
+
+        State from = null;
+        synchronized (this) {
+            if (state == State.OPEN) {
+                if (System.currentTimeMillis() - openedAt < settings.openMillis()) {
+                    throw new CircuitOpenException("模型 " + modelKey + " 暂时不可用（熔断中）");
+                }
+                from = transition(State.HALF_OPEN);
+            }
+            if (state == State.HALF_OPEN) {
+                if (probeInFlight) {
+                    throw new CircuitOpenException("模型 " + modelKey + " 正在恢复中，请稍后再试");
+                }
+                probeInFlight = true;
+            }
+        }
+        if (from != null) {
+            listener.onTransition(modelKey, from, State.HALF_OPEN, "冷却结束，放行探测请求");
+        }
+    }
+
+    public void onSuccess() {
+        if (!settings.enabled()) {
+            return;
+        }
+
+        State from = null;
+        synchronized (this) {
+            consecutiveFailures = 0;
+            probeInFlight = false;
+            if (state != State.CLOSED) {
+                from = transition(State.CLOSED);
+            }
+        }
+        if (from != null) {
+            listener.onTransition(modelKey, from, State.CLOSED, "探测请求成功");
+        }
+    }
+
+    /**
+     * 记录一次失败
+     * @param countable 是否计入熔断统计，客户端错误（如 400、401）不代表服务不可用
+     */
+    public void onFailure(boolean countable, String reason) {
+        if (!settings.enabled()) {
+            return;
+        }
+
+        State from = null;
+        synchronized (this) {
+            boolean probe = probeInFlight;
+            probeInFlight = false;
+            if (!countable) {
+                return;
+            }
+            consecutiveFailures++;
+            if (state == State.HALF_OPEN && probe
+                || state == State.CLOSED && consecutiveFailures >= settings.failureThreshold()) {
+                from = transition(State.OPEN);
+                openedAt = System.currentTimeMillis();
+            }
+        }
+        if (from != null) {
+            listener.onTransition(modelKey, from, State.OPEN, reason);
+        }
+    }
+
+    /**
+     * 请求被取消时释放探测名额
+     */
+    public synchronized void onCancelled() {
+        probeInFlight = false;
+    }
+
+    private State transition(State to) {
+        State from = state;
+        state = to;
+        return from;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public String getModelKey() {
+        return modelKey;
+    }
+}
@@ -0,0 +1,13 @@
+package cn.ningmo.geminicraftchat.api;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * 请求超过截止时间时抛出
+ * 截止时间覆盖排队、重试、对冲和解析的全过程，超时后所有进行中的请求都会被取消
+ */
+public class DeadlineExceededException extends CancellationException {
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
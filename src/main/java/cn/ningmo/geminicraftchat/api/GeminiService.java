@@ -1,39 +1,81 @@
 package cn.ningmo.geminicraftchat.api;
 
 import cn.ningmo.geminicraftchat.GeminiCraftChat;
+import cn.ningmo.geminicraftchat.cache.ResponseCache;
 import cn.ningmo.geminicraftchat.config.ConfigManager;
+import cn.ningmo.geminicraftchat.history.ConversationStore;
+import cn.ningmo.geminicraftchat.history.Turn;
+import cn.ningmo.geminicraftchat.logging.LogManager;
 import cn.ningmo.geminicraftchat.persona.Persona;
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
 import okhttp3.*;
-import org.bukkit.configuration.ConfigurationSection;
+import okio.BufferedSink;
+import okio.BufferedSource;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 public class GeminiService {
     private final GeminiCraftChat plugin;
     private final ConfigManager configManager;
-    private final Gson gson;
     private final OkHttpClient baseClient;
     private final Map<String, OkHttpClient> modelClients;
-    private final Map<String, List<Map<String, String>>> chatHistories;
+    private final ModelProfileRegistry profiles;
+    private final ConversationStore conversations;
+    private final RequestExecutor requestExecutor;
+    private final ResponseCache responseCache;
+    private final SingleFlight<Reply> singleFlight;
+    private final Map<String, byte[]> systemFragments;
+    private final Map<String, byte[]> cacheableSystemFragments;
+    private final boolean coalesceEnabled;
+    private final HedgePolicy hedgePolicy;
+    private final ModelRouter router;
+    private final Map<String, ModelBulkhead> bulkheads;
+    private final Map<String, ApiKeyPool> keyPools;
+    private final Map<String, CircuitBreaker> circuitBreakers;
+    private final RetryPolicy retryPolicy;
+    private final CircuitBreaker.Settings circuitBreakerSettings;
+    private final HistorySummarizer summarizer;
 
     public GeminiService(GeminiCraftChat plugin) {
         this.plugin = plugin;
         this.configManager = plugin.getConfigManager();
-        this.gson = new Gson();
         this.baseClient = createBaseHttpClient();
         this.modelClients = new ConcurrentHashMap<>();
-        this.chatHistories = new ConcurrentHashMap<>();
+        this.conversations = new ConversationStore(configManager.getMaxHistory(),
+            configManager.getMemoryBudgetBytes(), configManager.getHistoryCompressThreshold(),
+            plugin.getConversationJournal());
+        this.requestExecutor = new RequestExecutor(plugin);
+        this.responseCache = new ResponseCache(plugin);
+        this.singleFlight = new SingleFlight<>();
+        this.systemFragments = new ConcurrentHashMap<>();
+        this.cacheableSystemFragments = new ConcurrentHashMap<>();
+        this.coalesceEnabled = configManager.getConfig().getBoolean("api.coalesce.enabled", true);
+        this.hedgePolicy = HedgePolicy.load(configManager.getConfig().getConfigurationSection("api.hedge"));
+        this.router = new ModelRouter(plugin);
+        this.bulkheads = new ConcurrentHashMap<>();
+        this.keyPools = new ConcurrentHashMap<>();
+        this.circuitBreakers = new ConcurrentHashMap<>();
+        this.retryPolicy = RetryPolicy.load(configManager.getConfig().getConfigurationSection("api.retry"));
+        this.circuitBreakerSettings = CircuitBreaker.Settings.load(
+            configManager.getConfig().getConfigurationSection("api.circuit_breaker"));
+
+        this.summarizer = new HistorySummarizer(plugin,
+            HistorySummarizer.Settings.load(configManager.getConfig().getConfigurationSection("chat.summary")),
+            requestExecutor, (profile, context) ->
+                sendAttempt(context, profile, new RequestAttempt(profile.key(), false), null));
+
+        // 加载时编译所有模型的配置快照
+        this.profiles = new ModelProfileRegistry(plugin);
     }
 
     private OkHttpClient createBaseHttpClient() {
@@ -60,37 +102,29 @@ public class GeminiService {
 
     /**
      * 为特定模型创建HTTP客户端，支持自定义超时设置
+     * 每个模型使用独立的调度器和连接池，慢模型不会占用其他模型的连接
      */
-    private OkHttpClient createModelHttpClient(String modelKey) {
-        ConfigurationSection modelConfig = configManager.getConfig().getConfigurationSection("api.models." + modelKey);
-        if (modelConfig == null) {
-            plugin.debug("模型 " + modelKey + " 配置不存在，使用基础客户端");
-            return baseClient;
-        }
+    private OkHttpClient createModelHttpClient(ModelProfile profile) {
+        OkHttpClient.Builder builder = baseClient.newBuilder()
+            .dispatcher(new Dispatcher())
+            .connectionPool(new ConnectionPool(5, 5, TimeUnit.MINUTES));
 
-        // 获取超时配置
-        ConfigurationSection timeoutConfig = modelConfig.getConfigurationSection("timeout");
-        if (timeoutConfig == null) {
-            plugin.debug("模型 " + modelKey + " 未配置超时设置，使用基础客户端");
-            return baseClient;
+        if (!profile.customTimeout()) {
+            plugin.debug("模型 " + profile.key() + " 未配置超时设置，使用默认超时");
+            return builder.build();
         }
 
-        int connectTimeout = timeoutConfig.getInt("connect", 30);
-        int readTimeout = timeoutConfig.getInt("read", 30);
-        int writeTimeout = timeoutConfig.getInt("write", 30);
-        boolean longThinking = timeoutConfig.getBoolean("long_thinking", false);
-
         // 如果启用长思考模式，增加读取超时时间
-        if (longThinking) {
-            plugin.debug("模型 " + modelKey + " 启用长思考模式，读取超时: " + readTimeout + "秒");
+        if (profile.longThinking()) {
+            plugin.debug("模型 " + profile.key() + " 启用长思考模式，读取超时: " + profile.readTimeout() + "秒");
         }
 
-        OkHttpClient.Builder builder = baseClient.newBuilder()
-            .connectTimeout(connectTimeout, TimeUnit.SECONDS)
-            .readTimeout(readTimeout, TimeUnit.SECONDS)
-            .writeTimeout(writeTimeout, TimeUnit.SECONDS);
+        builder.connectTimeout(profile.connectTimeout(), TimeUnit.SECONDS)
+            .readTimeout(profile.readTimeout(), TimeUnit.SECONDS)
+            .writeTimeout(profile.writeTimeout(), TimeUnit.SECONDS);
 
-        plugin.debug("为模型 " + modelKey + " 创建专用客户端 - 连接:" + connectTimeout + "s, 读取:" + readTimeout + "s, 写入:" + writeTimeout + "s");
+        plugin.debug("为模型 " + profile.key() + " 创建专用客户端 - 连接:" + profile.connectTimeout() + "s, 读取:"
+            + profile.readTimeout() + "s, 写入:" + profile.writeTimeout() + "s");
 
         return builder.build();
     }
@@ -98,149 +132,555 @@ public class GeminiService {
     /**
      * 获取或创建模型专用的HTTP客户端
      */
-    private OkHttpClient getModelClient(String modelKey) {
-        return modelClients.computeIfAbsent(modelKey, this::createModelHttpClient);
+    private OkHttpClient getModelClient(ModelProfile profile) {
+        return modelClients.computeIfAbsent(profile.key(), k -> createModelHttpClient(profile));
     }
 
     public CompletableFuture<String> sendMessage(String playerId, String message, Optional<Persona> persona) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                String currentModel = configManager.getCurrentModel();
-                return sendGenericRequest(playerId, message, persona, currentModel);
-            } catch (Exception e) {
-                plugin.getLogger().warning("发送消息失败: " + e.getMessage());
-                throw new RuntimeException("AI 响应失败", e);
+        return sendMessage(playerId, message, persona, null, null);
+    }
+
+    public CompletableFuture<String> sendMessage(String playerId, String message, Optional<Persona> persona,
+                                                 Consumer<String> deltaListener) {
+        return sendMessage(playerId, message, persona, deltaListener, null);
+    }
+
+    /**
+     * 发送消息，模型启用 stream 时通过 deltaListener 逐段回调增量内容
+     * 返回的 Future 仍以完整回复完成，用于历史记录与广播
+     * @param handle 请求句柄，取消后进行中的请求随之取消，可为 null
+     */
+    public CompletableFuture<String> sendMessage(String playerId, String message, Optional<Persona> persona,
+                                                 Consumer<String> deltaListener, RequestHandle handle) {
+        // 玩家加入后首次提问时先从日志异步加载历史记录
+        CompletableFuture<Void> loaded = conversations.ensureLoaded(playerId);
+        if (!loaded.isDone()) {
+            return bindCancellation(loaded.thenCompose(ignored ->
+                sendMessage(playerId, message, persona, deltaListener, handle)), handle);
+        }
+
+        ModelProfileRegistry.Snapshot snapshot = profiles.snapshot();
+        String personaKey = persona.map(Persona::getKey).orElse(null);
+
+        // 先查询回复缓存，命中时不再请求API；存在对话摘要时回复依赖摘要，不使用缓存
+        String summary = conversations.getSummary(playerId);
+        String cacheKey = summary != null ? null : responseCache.createKey(snapshot.currentModel(), personaKey, message,
+            conversations.snapshot(playerId));
+        String cached = responseCache.get(cacheKey);
+        if (cached != null) {
+            plugin.debug("命中回复缓存: " + playerId);
+            if (plugin.getLogManager() != null) {
+                plugin.getLogManager().logChat(playerId, message, cached);
             }
+            updateChatHistory(playerId, message, cached);
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        // 没有对话历史的相同问题合并为一次请求
+        // 合并请求使用共享句柄，与请求一起登记，所有参与的玩家都取消后才取消实际请求
+        String flightKey = createFlightKey(snapshot.currentModel(), personaKey, playerId, message);
+        SingleFlight.Flight<Reply> flight = singleFlight.execute(flightKey, playerId, flightHandle -> {
+            RequestContext context = new RequestContext(playerId, message, persona,
+                conversations.snapshot(playerId), deltaListener,
+                handle != null ? handle.getDeadline() : 0, summary);
+            return sendWithFailover(snapshot, context, flightHandle);
+        });
+        if (handle != null) {
+            RequestHandle shared = flight.handle();
+            handle.onCancel(() -> shared.release(handle.getReason()));
+        }
+
+        if (!flight.leader()) {
+            plugin.debug("合并相同的进行中请求: " + playerId);
+            if (plugin.getLogManager() != null) {
+                plugin.getLogManager().recordCoalescedRequest();
+            }
+        }
+
+        // 历史记录和缓存只在本玩家未取消时写入，共享请求由其他玩家继续时也不例外
+        boolean leader = flight.leader();
+        return bindCancellation(flight.future(), handle).thenApply(reply -> {
+            String response = reply.text();
+            if (plugin.getLogManager() != null) {
+                plugin.getLogManager().logChat(playerId, message, response);
+            }
+            updateChatHistory(playerId, message, response);
+            // 缓存键使用当前模型，路由或故障转移由其他模型回答时不写入缓存
+            if (leader && cacheKey != null && snapshot.currentModel().equals(reply.modelKey())) {
+                responseCache.put(cacheKey, personaKey, response);
+            }
+            return response;
         });
     }
 
     /**
-     * 通用API请求方法 - 完全基于配置文件
+     * 句柄取消时让返回给调用方的 Future 立即以取消结束，不影响其他共享该请求的玩家
      */
-    private String sendGenericRequest(String playerId, String message, Optional<Persona> persona, String modelKey) throws IOException {
-        long startTime = System.currentTimeMillis();
+    private <T> CompletableFuture<T> bindCancellation(CompletableFuture<T> future, RequestHandle handle) {
+        if (handle == null) {
+            return future;
+        }
+        CompletableFuture<T> bound = new CompletableFuture<>();
+        future.whenComplete((response, throwable) -> {
+            if (throwable != null) {
+                bound.completeExceptionally(throwable);
+            } else {
+                bound.complete(response);
+            }
+        });
+        handle.onCancel(() -> bound.completeExceptionally(handle.cancellationException()));
+        return bound;
+    }
 
-        ConfigurationSection modelConfig = configManager.getConfig().getConfigurationSection("api.models." + modelKey);
-        if (modelConfig == null) {
-            throw new IllegalStateException("模型配置不存在: " + modelKey);
+    /**
+     * 模型回复及实际回答的模型
+     */
+    private record Reply(String modelKey, String text) {
+    }
+
+    /**
+     * 按当前模型的备用链发送请求，支持对冲和故障转移
+     */
+    private CompletableFuture<Reply> sendWithFailover(ModelProfileRegistry.Snapshot snapshot, RequestContext context,
+                                                       RequestHandle handle) {
+        List<ModelProfile> chain = resolveChain(snapshot);
+        if (chain.isEmpty()) {
+            return CompletableFuture.failedFuture(new RuntimeException("AI 响应失败",
+                new IllegalStateException("模型配置不存在: " + snapshot.currentModel())));
         }
 
-        // 获取基本配置
-        String baseUrl = modelConfig.getString("base_url");
-        String apiKey = modelConfig.getString("api_key");
-        String model = modelConfig.getString("model");
-        String modelName = modelConfig.getString("name", modelKey);
-        double temperature = modelConfig.getDouble("temperature", 0.7);
-        int maxTokens = modelConfig.getInt("max_tokens", 4096);
+        HedgedRequest request = new HedgedRequest(chain, requestExecutor, hedgePolicy,
+            profile -> hedgePolicy.delayFor(router.stats(profile.key())),
+            (profile, attempt, listener) -> sendAttempt(context, profile, attempt, listener),
+            context.getDeltaListener(),
+            new HedgedRequest.Listener() {
+                @Override
+                public void onHedge(ModelProfile profile) {
+                    plugin.debug("主模型响应过慢，发起对冲请求: " + profile.key());
+                    if (plugin.getLogManager() != null) {
+                        plugin.getLogManager().recordHedgedRequest();
+                    }
+                }
 
-        // 获取请求配置
-        ConfigurationSection requestConfig = modelConfig.getConfigurationSection("request");
-        if (requestConfig == null) {
-            throw new IllegalStateException("请求配置不存在: " + modelKey);
+                @Override
+                public void onFailover(ModelProfile failed, ModelProfile next, Throwable cause) {
+                    plugin.getLogger().warning("模型 " + (failed != null ? failed.key() : "?") + " 请求失败，切换到备用模型 "
+                        + next.key() + ": " + cause.getMessage());
+                    if (plugin.getLogManager() != null) {
+                        plugin.getLogManager().recordFailover();
+                    }
+                }
+            }, handle);
+
+        return request.start().thenApply(text -> new Reply(request.getAnsweredBy(), text)).exceptionally(throwable -> {
+            Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause() : throwable;
+            // 截止时间到达时 OkHttp 的调用超时可能先于句柄取消触发，统一按超时处理
+            if (!(cause instanceof CancellationException) && context.isPastDeadline()) {
+                cause = new DeadlineExceededException("请求超时: " + cause.getMessage());
+            }
+            // DeadlineExceededException 是 CancellationException 的子类，需先于普通取消判断
+            if (cause instanceof DeadlineExceededException deadlineExceeded) {
+                plugin.getLogger().warning("请求超过截止时间: " + context.getPlayerId() + " - " + cause.getMessage());
+                throw deadlineExceeded;
+            }
+            if (cause instanceof CancellationException) {
+                plugin.debug("请求已取消: " + context.getPlayerId() + " - " + cause.getMessage());
+                throw (CancellationException) cause;
+            }
+            plugin.getLogger().warning("发送消息失败: " + cause.getMessage());
+            throw new RuntimeException("AI 响应失败", cause);
+        });
+    }
+
+    /**
+     * 解析本次请求的模型链：路由选出的主模型、其 fallback 列表，以及其余参与路由的模型
+     * 跳过不存在或重复的模型
+     */
+    private List<ModelProfile> resolveChain(ModelProfileRegistry.Snapshot snapshot) {
+        List<ModelProfile> chain = new ArrayList<>();
+        ModelProfile primary = router.select(snapshot);
+        if (primary == null) {
+            return chain;
+        }
+        chain.add(primary);
+        for (String fallbackKey : primary.fallback()) {
+            ModelProfile fallback = snapshot.profiles().get(fallbackKey);
+            if (fallback == null) {
+                plugin.debug("备用模型不存在，已跳过: " + fallbackKey);
+            } else if (!chain.contains(fallback)) {
+                chain.add(fallback);
+            }
         }
+        for (ModelProfile alternative : router.alternatives(snapshot, primary)) {
+            if (!chain.contains(alternative)) {
+                chain.add(alternative);
+            }
+        }
+        return chain;
+    }
+
+    /**
+     * 执行单个模型的请求并记录耗时，被取消的请求不计为失败
+     */
+    private String sendAttempt(RequestContext context, ModelProfile profile, RequestAttempt attempt,
+                               Consumer<String> deltaListener) throws IOException {
+        CircuitBreaker breaker = getCircuitBreaker(profile);
+        long deadline = Math.min(System.currentTimeMillis() + retryPolicy.maxElapsedMillis(),
+            context.getDeadline() > 0 ? context.getDeadline() : Long.MAX_VALUE);
+
+        // 已经向玩家输出过内容的流式请求不能重试
+        AtomicBoolean emitted = new AtomicBoolean(false);
+        Consumer<String> trackingListener = delta -> {
+            emitted.set(true);
+            if (deltaListener != null) {
+                deltaListener.accept(delta);
+            }
+        };
 
-        String method = requestConfig.getString("method", "POST");
-        String bodyTemplate = requestConfig.getString("body_template", "{}");
+        for (int tries = 1; ; tries++) {
+            breaker.acquire();
+            try {
+                String response = sendOnce(context, profile, attempt, trackingListener);
+                breaker.onSuccess();
+                return response;
+            } catch (IOException | RuntimeException e) {
+                if (attempt.isCancelled()) {
+                    breaker.onCancelled();
+                    throw e;
+                }
 
-        // 构建消息数组
-        JsonArray messages = buildMessagesArray(playerId, message, persona);
+                boolean retryable = RetryPolicy.isRetryable(e);
+                breaker.onFailure(retryable, e.getMessage());
 
-        // 替换模板变量
-        String requestBody = bodyTemplate
-            .replace("{model}", model)
-            .replace("{messages}", gson.toJson(messages))
-            .replace("{temperature}", String.valueOf(temperature))
-            .replace("{max_tokens}", String.valueOf(maxTokens))
-            .replace("{api_key}", apiKey);
+                long delay = retryPolicy.backoffMillis(tries);
+                if (!retryable || emitted.get() || tries >= retryPolicy.maxAttempts()
+                    || System.currentTimeMillis() + delay > deadline) {
+                    throw e;
+                }
 
-        // 添加额外参数
-        JsonObject bodyJson = gson.fromJson(requestBody, JsonObject.class);
-        ConfigurationSection parameters = modelConfig.getConfigurationSection("parameters");
-        if (parameters != null) {
-            addParametersToRequestBody(bodyJson, parameters);
+                plugin.debug("模型 " + profile.key() + " 第 " + tries + " 次请求失败，" + delay + "ms 后重试: " + e.getMessage());
+                if (plugin.getLogManager() != null) {
+                    plugin.getLogManager().recordRetry();
+                }
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                if (attempt.isCancelled()) {
+                    throw e;
+                }
+            }
         }
+    }
 
-        plugin.debug("发送" + modelName + "请求到: " + baseUrl);
-        plugin.debug("请求体: " + gson.toJson(bodyJson));
-
-        // 构建请求
-        Request.Builder requestBuilder = new Request.Builder().url(baseUrl);
-        Map<String, String> requestHeaders = new HashMap<>();
-
-        // 添加请求头
-        ConfigurationSection headers = requestConfig.getConfigurationSection("headers");
-        if (headers != null) {
-            for (String headerName : headers.getKeys(false)) {
-                String headerValue = headers.getString(headerName);
-                if (headerValue != null) {
-                    // 替换头部变量
-                    headerValue = headerValue.replace("{api_key}", apiKey);
-                    requestBuilder.addHeader(headerName, headerValue);
-                    requestHeaders.put(headerName, headerValue);
+    /**
+     * 在隔离舱内执行一次请求并记录耗时，被取消的请求不计为失败
+     * 隔离舱只根据响应头耗时和可重试的失败调整上限，客户端错误和解析失败不视为拥塞
+     */
+    private String sendOnce(RequestContext context, ModelProfile profile, RequestAttempt attempt,
+                            Consumer<String> deltaListener) throws IOException {
+        ModelBulkhead bulkhead = getBulkhead(profile);
+        bulkhead.acquire();
+
+        ModelStats stats = router.stats(profile.key());
+        long startTime = System.currentTimeMillis();
+        Boolean overloaded = null;
+        attempt.takeResponseLatency();
+        stats.requestStarted();
+        try {
+            String response = sendGenericRequest(context, profile, attempt, deltaListener);
+            overloaded = false;
+            stats.recordSuccess(System.currentTimeMillis() - startTime);
+            return response;
+        } catch (IOException | RuntimeException e) {
+            if (!attempt.isCancelled()) {
+                if (RetryPolicy.isRetryable(e)) {
+                    overloaded = true;
                 }
+                stats.recordFailure(System.currentTimeMillis() - startTime);
             }
+            throw e;
+        } finally {
+            stats.requestFinished();
+            bulkhead.release(attempt.takeResponseLatency(), overloaded);
         }
+    }
 
-        // 记录API请求
+    /**
+     * 获取或创建模型的隔离舱
+     */
+    private ModelBulkhead getBulkhead(ModelProfile profile) {
+        return bulkheads.computeIfAbsent(profile.key(), key -> new ModelBulkhead(key, ModelBulkhead.Settings.load(
+            configManager.getConfig().getConfigurationSection("api.bulkhead"),
+            configManager.getConfig().getConfigurationSection("api.models." + key + ".bulkhead"))));
+    }
+
+    /**
+     * 获取或创建模型的熔断器，状态变化记录到日志
+     */
+    private CircuitBreaker getCircuitBreaker(ModelProfile profile) {
+        return circuitBreakers.computeIfAbsent(profile.key(), key -> new CircuitBreaker(key, circuitBreakerSettings,
+            (modelKey, from, to, reason) -> {
+                String message = "模型 " + modelKey + " 熔断器: " + from.getDisplayName() + " -> " + to.getDisplayName()
+                    + (reason != null ? "（" + reason + "）" : "");
+                if (to == CircuitBreaker.State.OPEN) {
+                    plugin.getLogger().warning(message);
+                } else {
+                    plugin.debug(message);
+                }
+                if (plugin.getLogManager() != null) {
+                    plugin.getLogManager().logCircuitBreaker(modelKey, from.name(), to.name(), reason);
+                }
+            }));
+    }
+
+    public Map<String, CircuitBreaker> getCircuitBreakers() {
+        return Collections.unmodifiableMap(circuitBreakers);
+    }
+
+    public Map<String, ModelBulkhead> getBulkheads() {
+        return Collections.unmodifiableMap(bulkheads);
+    }
+
+    public RequestExecutor getRequestExecutor() {
+        return requestExecutor;
+    }
+
+    public ModelRouter getRouter() {
+        return router;
+    }
+
+    public ModelProfileRegistry.Snapshot getProfileSnapshot() {
+        return profiles.snapshot();
+    }
+
+    /**
+     * 计算请求合并键，玩家已有对话历史时请求依赖上下文，不参与合并
+     */
+    private String createFlightKey(String modelKey, String personaKey, String playerId, String message) {
+        if (!coalesceEnabled) {
+            return null;
+        }
+        if (!conversations.isEmpty(playerId)) {
+            return null;
+        }
+        return modelKey + '\u0000' + (personaKey != null ? personaKey : "") + '\u0000' + ResponseCache.normalize(message);
+    }
+
+    /**
+     * 通用API请求方法 - 完全基于配置文件
+     */
+    private String sendGenericRequest(RequestContext context, ModelProfile profile, RequestAttempt attempt,
+                                      Consumer<String> deltaListener) throws IOException {
+        ApiKeyPool keyPool = getKeyPool(profile);
+        PackedPrompt prompt = packPrompt(context, profile);
+        long estimatedTokens = prompt.tokens() + profile.maxTokens();
+
+        // 玩家固定使用同一个 Key 以保持服务商前缀缓存命中；被限流的 Key 会被暂停，换用剩余额度最多的其他 Key 重试
+        ApiKeyPool.KeyThrottledException throttled = null;
+        for (int i = 0; i <= keyPool.size() && !attempt.isCancelled(); i++) {
+            ApiKeyPool.KeyState key = keyPool.acquire(estimatedTokens, context.getPlayerId(), attempt,
+                context.getDeadline());
+            long startTime = System.currentTimeMillis();
+            try {
+                String response = sendWithKey(context, prompt, profile, attempt, deltaListener, keyPool, key);
+                key.recordLatency(System.currentTimeMillis() - startTime);
+                return response;
+            } catch (ApiKeyPool.KeyThrottledException e) {
+                throttled = e;
+                plugin.debug(e.getMessage());
+            }
+        }
+        throw throttled != null ? throttled : new IOException("请求已取消");
+    }
+
+    /**
+     * 获取或创建模型的 API Key 池
+     */
+    private ApiKeyPool getKeyPool(ModelProfile profile) {
+        return keyPools.computeIfAbsent(profile.key(), key -> new ApiKeyPool(key, profile.apiKeys(), profile.rateLimit()));
+    }
+
+    public Map<String, ApiKeyPool> getKeyPools() {
+        return Collections.unmodifiableMap(keyPools);
+    }
+
+    /**
+     * 计算单次调用的超时：取模型的 timeout.deadline 与请求剩余时间中较小者，0 表示不限制
+     */
+    private long callTimeoutMillis(RequestContext context, ModelProfile profile) {
+        long timeout = context.remainingMillis();
+        if (profile.deadlineMillis() > 0) {
+            timeout = Math.min(timeout, profile.deadlineMillis());
+        }
+        if (timeout == Long.MAX_VALUE) {
+            return 0;
+        }
+        return Math.max(1, timeout);
+    }
+
+    /**
+     * 按模型的 context_budget_tokens 装配提示词并记录令牌数
+     */
+    private PackedPrompt packPrompt(RequestContext context, ModelProfile profile) {
+        PackedPrompt prompt = PackedPrompt.pack(context, profile.tokenizer(), profile.contextBudgetTokens());
+        plugin.debug("模型 " + profile.key() + " 提示词约 " + prompt.tokens() + " 令牌"
+            + (profile.contextBudgetTokens() > 0 ? "（预算 " + profile.contextBudgetTokens() + "）" : "")
+            + (prompt.droppedMessages() > 0 ? "，丢弃 " + prompt.droppedMessages() + " 条历史消息" : "")
+            + (prompt.truncated() ? "，部分消息已截断" : ""));
         if (plugin.getLogManager() != null) {
-            plugin.getLogManager().logApiRequest(playerId, modelName, baseUrl, requestHeaders, gson.toJson(bodyJson));
+            plugin.getLogManager().logPromptTokens(context.getPlayerId(), profile.name(), prompt.tokens(),
+                profile.contextBudgetTokens(), prompt.droppedMessages(), prompt.truncated());
+        }
+        return prompt;
+    }
+
+    /**
+     * 使用指定的 API Key 发送一次请求
+     */
+    private String sendWithKey(RequestContext context, PackedPrompt prompt, ModelProfile profile, RequestAttempt attempt,
+                               Consumer<String> deltaListener, ApiKeyPool keyPool,
+                               ApiKeyPool.KeyState key) throws IOException {
+        String playerId = context.getPlayerId();
+        long startTime = System.currentTimeMillis();
+
+        String baseUrl = profile.baseUrl();
+        String modelName = profile.name();
+        RequestTemplate template = profile.template();
+        ResponseParser parser = profile.parser();
+
+        // 历史记录在提交时已固定，请求体可能被多次写出
+        PromptCache promptCache = profile.promptCache();
+        RequestTemplate.Values values = new RequestTemplate.Values(profile.model(), profile.temperature(),
+            profile.maxTokens(), key.getApiKey(),
+            promptCache.keyFor(context.getPersona().map(Persona::getKey).orElse("default")),
+            sink -> writeMessagesArray(sink, prompt.history(), prompt.message(), context.getPersona(),
+                context.getSummary(), promptCache.marksBreakpoints()));
+
+        plugin.debug("发送" + modelName + "请求到: " + baseUrl);
+
+        // 构建请求，请求头已在快照中完成变量替换
+        Request.Builder requestBuilder = new Request.Builder().url(baseUrl).headers(profile.headersFor(key.getApiKey()));
+
+        // 只有需要记录请求体时才序列化为字符串，否则直接写入HTTP输出流
+        LogManager logManager = plugin.getLogManager();
+        boolean logBody = logManager != null && logManager.isApiRequestBodyLogged();
+        String renderedBody = null;
+        if (logBody || plugin.isDebugEnabled()) {
+            renderedBody = template.render(values);
+            plugin.debug("请求体: " + renderedBody);
+        }
+
+        // 记录API请求
+        if (logManager != null) {
+            logManager.logApiRequest(playerId, modelName, baseUrl, profile.headerMap(), renderedBody);
         }
 
         // 设置请求体
-        if ("POST".equalsIgnoreCase(method)) {
-            MediaType JSON = MediaType.parse("application/json; charset=utf-8");
-            requestBuilder.post(RequestBody.create(gson.toJson(bodyJson), JSON));
+        if ("POST".equalsIgnoreCase(profile.method())) {
+            requestBuilder.post(renderedBody != null
+                ? RequestBody.create(renderedBody, RequestTemplate.JSON)
+                : template.toRequestBody(values));
         }
 
         Request request = requestBuilder.build();
 
         // 获取模型专用的HTTP客户端
-        OkHttpClient modelClient = getModelClient(modelKey);
+        OkHttpClient modelClient = getModelClient(profile);
 
         // 记录超时设置信息
-        ConfigurationSection timeoutConfig = modelConfig.getConfigurationSection("timeout");
-        if (timeoutConfig != null && timeoutConfig.getBoolean("long_thinking", false)) {
-            plugin.debug("使用长思考模式发送请求到 " + modelName + "，读取超时: " + timeoutConfig.getInt("read", 30) + "秒");
+        if (profile.longThinking()) {
+            plugin.debug("使用长思考模式发送请求到 " + modelName + "，读取超时: " + profile.readTimeout() + "秒");
         }
 
-        // 发送请求并处理响应
-        try (Response response = modelClient.newCall(request).execute()) {
+        // 发送请求并处理响应，调用超时覆盖连接、发送和读取完整响应体的全过程
+        Call call = modelClient.newCall(request);
+        long callTimeout = callTimeoutMillis(context, profile);
+        if (callTimeout > 0) {
+            call.timeout().timeout(callTimeout, TimeUnit.MILLISECONDS);
+        }
+        attempt.bind(call);
+        try (Response response = call.execute()) {
             long responseTime = System.currentTimeMillis() - startTime;
+            attempt.recordResponseLatency(responseTime);
             int responseCode = response.code();
             plugin.debug("API响应代码: " + responseCode);
 
+            // 根据限额响应头校准 Key 的额度，429 时暂停该 Key
+            long parkedMillis = keyPool.update(key, responseCode, response.headers());
+
+            if (profile.stream() && response.isSuccessful() && response.body() != null) {
+                String responseText = readStreamingResponse(response.body(), parser, profile, key, deltaListener);
+                long streamTime = System.currentTimeMillis() - startTime;
+                plugin.debug("流式响应完成，耗时: " + streamTime + "ms，长度: " + responseText.length());
+
+                if (plugin.getLogManager() != null) {
+                    plugin.getLogManager().logApiCall(playerId, modelName, baseUrl, streamTime, true);
+                    plugin.getLogManager().logApiResponse(playerId, modelName, responseCode, "[stream]", responseText);
+                }
+                return responseText;
+            }
+
+            // 不需要保留完整响应时直接从字符流解析，不缓冲响应体
+            if (response.isSuccessful() && response.body() != null && !needsResponseBody(profile)) {
+                String responseText;
+                try (Reader reader = response.body().charStream()) {
+                    responseText = parseResponse(reader, parser);
+                }
+
+                if (plugin.getLogManager() != null) {
+                    plugin.getLogManager().logApiCall(playerId, modelName, baseUrl, responseTime, true);
+                    plugin.getLogManager().logApiResponse(playerId, modelName, responseCode, "", responseText);
+                }
+                return responseText;
+            }
+
             String responseBody = response.body() != null ? response.body().string() : "";
 
             if (!response.isSuccessful()) {
+                // 通过 error_path 提取错误信息，提取失败时使用原始响应
+                String errorMessage = parser.parseError(responseBody);
+                String detail = errorMessage != null ? errorMessage : responseBody;
+
                 // 记录失败的API调用
                 if (plugin.getLogManager() != null) {
                     plugin.getLogManager().logApiCall(playerId, modelName, baseUrl, responseTime, false);
                     plugin.getLogManager().logApiResponse(playerId, modelName, responseCode, responseBody, "");
-                    plugin.getLogManager().logError(playerId, "API请求失败: " + responseCode + " - " + responseBody);
+                    plugin.getLogManager().logError(playerId, "API请求失败: " + responseCode + " - " + detail);
                 }
-                throw new IOException("API请求失败: " + responseCode + " - " + responseBody);
+                if (parkedMillis > 0) {
+                    throw new ApiKeyPool.KeyThrottledException("模型 " + profile.key() + " 的第 " + (key.getIndex() + 1)
+                        + " 个 API Key 被限流，暂停 " + parkedMillis + "ms");
+                }
+                throw new ApiException(responseCode, "API请求失败: " + responseCode + " - " + detail,
+                    ApiException.isRetryableStatus(responseCode));
             }
 
             plugin.debug("API原始响应: " + responseBody);
 
             // 解析响应
-            String responseText = parseResponse(responseBody, modelConfig);
+            String responseText = parseResponse(responseBody, parser);
+            recordPromptCacheUsage(profile, key, responseBody);
 
             // 记录成功的API调用
             if (plugin.getLogManager() != null) {
                 plugin.getLogManager().logApiCall(playerId, modelName, baseUrl, responseTime, true);
                 plugin.getLogManager().logApiResponse(playerId, modelName, responseCode, responseBody, responseText);
-                plugin.getLogManager().logChat(playerId, message, responseText);
             }
 
-            // 更新历史记录
-            updateChatHistory(playerId, message, responseText);
-            plugin.debug("更新历史记录成功");
-
             return responseText;
         } catch (Exception e) {
             long responseTime = System.currentTimeMillis() - startTime;
 
+            // 被其他请求胜出而取消，不记为错误
+            if (attempt.isCancelled()) {
+                plugin.debug("已取消模型 " + profile.key() + " 的请求，耗时: " + responseTime + "ms");
+                throw e;
+            }
+
             // 记录异常
             if (plugin.getLogManager() != null) {
                 plugin.getLogManager().logApiCall(playerId, modelName, baseUrl, responseTime, false);
@@ -251,152 +691,214 @@ public class GeminiService {
         }
     }
 
-    // 辅助方法：构建消息数组
-    private JsonArray buildMessagesArray(String playerId, String message, Optional<Persona> persona) {
-        JsonArray messages = new JsonArray();
-        
+    /**
+     * 解析响应中的提示词缓存用量并计入模型与 Key 的统计
+     */
+    private void recordPromptCacheUsage(ModelProfile profile, ApiKeyPool.KeyState key, String responseBody) {
+        recordPromptCacheUsage(profile, key, profile.promptCache().parseUsage(responseBody));
+    }
+
+    private void recordPromptCacheUsage(ModelProfile profile, ApiKeyPool.KeyState key, PromptCache.Usage usage) {
+        if (usage == null) {
+            return;
+        }
+        router.stats(profile.key()).recordPromptUsage(usage.promptTokens(), usage.cachedTokens(), usage.cacheWriteTokens());
+        key.recordPromptUsage(usage.promptTokens(), usage.cachedTokens());
+        plugin.debug("模型 " + profile.key() + " 提示词 " + usage.promptTokens() + " 令牌，命中缓存 "
+            + usage.cachedTokens() + "，写入缓存 " + usage.cacheWriteTokens());
+    }
+
+    /**
+     * 写出消息数组：人设使用预先编码的片段，历史记录使用预先转义的内容并在写出时转码为 UTF-8（压缩的消息需解压），
+     * 只有摘要和当前问题在请求时序列化
+     * @param cacheBreakpoints 在人设和最后一条历史消息上添加 cache_control 断点
+     */
+    private void writeMessagesArray(BufferedSink sink, List<Turn> history, String message,
+                                    Optional<Persona> persona, String summary,
+                                    boolean cacheBreakpoints) throws IOException {
+        sink.writeByte('[');
+
         // 添加人设系统消息
         if (persona.isPresent()) {
-            JsonObject systemMessage = new JsonObject();
-            systemMessage.addProperty("role", "system");
-            systemMessage.addProperty("content", persona.get().getContext());
-            messages.add(systemMessage);
-        }
-        
-        // 添加历史记录
-        List<Map<String, String>> history = chatHistories.get(playerId);
-        if (history != null) {
-            for (Map<String, String> msg : history) {
-                JsonObject historyMessage = new JsonObject();
-                historyMessage.addProperty("role", msg.get("role"));
-                historyMessage.addProperty("content", msg.get("content"));
-                messages.add(historyMessage);
-            }
+            sink.write(cacheBreakpoints
+                ? cacheableSystemFragments.computeIfAbsent(persona.get().getContext(), context -> Turn.encode("system", context, true))
+                : systemFragments.computeIfAbsent(persona.get().getContext(), context -> Turn.encode("system", context)));
+            sink.writeByte(',');
         }
-        
-        // 添加当前消息
-        JsonObject userMessage = new JsonObject();
-        userMessage.addProperty("role", "user");
-        userMessage.addProperty("content", message);
-        messages.add(userMessage);
-        
-        return messages;
-    }
-
-    // 辅助方法：添加参数到请求体
-    private void addParametersToRequestBody(JsonObject requestBody, ConfigurationSection parameters) {
-        for (String key : parameters.getKeys(false)) {
-            Object value = parameters.get(key);
-            addParameterToJson(requestBody, key, value);
-        }
-    }
-
-    // 辅助方法：添加参数到JSON
-    private void addParameterToJson(JsonObject json, String key, Object value) {
-        if (value != null) {
-            if (value instanceof Boolean) {
-                json.addProperty(key, (Boolean) value);
-            } else if (value instanceof Number) {
-                json.addProperty(key, (Number) value);
-            } else if (value instanceof String) {
-                json.addProperty(key, (String) value);
+
+        // 添加较早对话的摘要
+        if (summary != null) {
+            sink.write(Turn.encode("system", "之前对话的摘要：" + summary));
+            sink.writeByte(',');
+        }
+
+        // 添加历史记录，较早的历史前缀在连续请求之间不变，断点放在最后一条历史消息上
+        for (int i = 0; i < history.size(); i++) {
+            Turn turn = history.get(i);
+            if (cacheBreakpoints && i == history.size() - 1) {
+                sink.write(Turn.encode(turn.role().apiName(), turn.content(), true));
+            } else {
+                turn.writeTo(sink);
             }
+            sink.writeByte(',');
         }
+
+        // 添加当前消息
+        sink.write(Turn.encode("user", message));
+        sink.writeByte(']');
     }
 
     // 解析响应内容
-    private String parseResponse(String responseBody, ConfigurationSection modelConfig) throws IOException {
-        ConfigurationSection responseConfig = modelConfig.getConfigurationSection("response");
-        if (responseConfig == null) {
-            throw new IllegalStateException("响应配置不存在");
-        }
-        
-        String contentPath = responseConfig.getString("content_path", "choices[0].message.content");
-        
+    private String parseResponse(String responseBody, ResponseParser parser) throws IOException {
         try {
-            JsonObject jsonResponse = gson.fromJson(responseBody, JsonObject.class);
-            return extractValueFromPath(jsonResponse, contentPath);
-        } catch (Exception e) {
+            return parser.parseContent(responseBody);
+        } catch (IOException e) {
             plugin.getLogger().warning("解析响应失败: " + e.getMessage());
-            throw new IOException("响应解析失败: " + e.getMessage());
-        }
-    }
-
-    // 从JSON路径提取值
-    private String extractValueFromPath(JsonObject json, String path) {
-        String[] parts = path.split("\\.");
-        JsonElement current = json;
-        
-        for (String part : parts) {
-            if (part.contains("[") && part.contains("]")) {
-                // 处理数组索引
-                String arrayName = part.substring(0, part.indexOf("["));
-                String indexStr = part.substring(part.indexOf("[") + 1, part.indexOf("]"));
-                int index = Integer.parseInt(indexStr);
-                
-                if (current.isJsonObject() && current.getAsJsonObject().has(arrayName)) {
-                    current = current.getAsJsonObject().getAsJsonArray(arrayName).get(index);
-                } else if (current.isJsonArray() && arrayName.isEmpty()) {
-                    current = current.getAsJsonArray().get(index);
-                } else {
-                    throw new RuntimeException("路径不存在: " + arrayName);
-                }
-            } else {
-                // 处理普通属性
-                if (current.isJsonObject() && current.getAsJsonObject().has(part)) {
-                    current = current.getAsJsonObject().get(part);
-                } else {
-                    throw new RuntimeException("路径不存在: " + part);
+            throw new ApiException(200, e.getMessage(), false);
+        }
+    }
+
+    private String parseResponse(Reader responseBody, ResponseParser parser) throws IOException {
+        try {
+            return parser.parseContent(responseBody);
+        } catch (IOException e) {
+            plugin.getLogger().warning("解析响应失败: " + e.getMessage());
+            throw new ApiException(200, e.getMessage(), false);
+        }
+    }
+
+    /**
+     * 调试输出、完整响应日志和提示词缓存用量统计需要完整的响应体
+     */
+    private boolean needsResponseBody(ModelProfile profile) {
+        return plugin.isDebugEnabled()
+            || profile.promptCache().enabled()
+            || (plugin.getLogManager() != null && plugin.getLogManager().isApiResponseBodyLogged());
+    }
+
+    /**
+     * 逐行读取 SSE / 分块 JSON 响应，按 delta_path 提取增量内容
+     * 支持 "data: {...}" 事件行与每行一个 JSON 对象的格式，遇到 [DONE] 结束
+     * 启用提示词缓存时从事件中解析用量，以最后一个包含输入令牌用量的事件为准
+     */
+    private String readStreamingResponse(ResponseBody body, ResponseParser parser, ModelProfile profile,
+                                         ApiKeyPool.KeyState key, Consumer<String> deltaListener) throws IOException {
+        StringBuilder content = new StringBuilder();
+        PromptCache.Usage usage = null;
+        BufferedSource source = body.source();
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            String data = line.trim();
+            if (data.startsWith("data:")) {
+                data = data.substring(5).trim();
+            } else if (!data.startsWith("{")) {
+                // 空行、event: 和注释行
+                continue;
+            }
+
+            if (data.isEmpty()) {
+                continue;
+            }
+            if ("[DONE]".equals(data)) {
+                break;
+            }
+
+            PromptCache.Usage eventUsage = profile.promptCache().parseStreamUsage(data);
+            if (eventUsage != null) {
+                usage = eventUsage;
+            }
+
+            // 不包含增量内容的事件（如 message_start、usage）返回 null，直接跳过
+            String delta = parser.parseDelta(data);
+            if (delta != null && !delta.isEmpty()) {
+                content.append(delta);
+                if (deltaListener != null) {
+                    deltaListener.accept(delta);
                 }
             }
         }
-        
-        return current.isJsonNull() ? "" : current.getAsString();
+
+        if (content.length() == 0) {
+            throw new ApiException(200, "流式响应中未解析到任何内容，请检查 delta_path 配置", false);
+        }
+        recordPromptCacheUsage(profile, key, usage);
+        return content.toString();
     }
 
     private void updateChatHistory(String playerId, String userMessage, String aiResponse) {
-        // 使用 CopyOnWriteArrayList 确保线程安全
-        List<Map<String, String>> history = chatHistories.computeIfAbsent(playerId, k -> new CopyOnWriteArrayList<>());
-        
-        // 添加用户消息
-        Map<String, String> userMsg = new HashMap<>();
-        userMsg.put("role", "user");
-        userMsg.put("content", userMessage);
-        history.add(userMsg);
-        
-        // 添加AI回复
-        Map<String, String> aiMsg = new HashMap<>();
-        aiMsg.put("role", "assistant");
-        aiMsg.put("content", aiResponse);
-        history.add(aiMsg);
-        
-        // 限制历史记录长度
-        int maxHistory = configManager.getMaxHistory();
-        while (history.size() > maxHistory * 2) {
-            history.remove(0);
-        }
+        // 环形缓冲区超出 max_history 时自动淘汰最早的消息
+        int size = conversations.append(playerId, userMessage, aiResponse);
+
+        // 超过摘要阈值时在后台压缩较早的对话
+        summarizer.maybeSummarize(playerId, size, conversations, profiles.snapshot());
     }
 
     public void clearHistory(String playerId) {
-        chatHistories.remove(playerId);
+        conversations.clear(playerId);
     }
 
     public void clearAllHistory() {
-        chatHistories.clear();
+        conversations.clearAll();
+    }
+
+    /**
+     * 玩家离线，内存不足时优先淘汰其历史记录
+     */
+    public void playerDeparted(String playerId) {
+        conversations.markDeparted(playerId);
+    }
+
+    public ConversationStore getConversations() {
+        return conversations;
     }
 
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * 重新编译单个模型的快照
+     * 只修改了温度等请求参数时只替换快照，熔断器、隔离舱、Key 池和客户端保持不变，
+     * 进行中的请求仍在原隔离舱中计数；端点、Key 或超时变化时才重建对应的组件
+     */
     public void invalidateModelClient(String modelKey) {
-        OkHttpClient client = modelClients.remove(modelKey);
-        if (client != null && client != baseClient) {
-            shutdownClient(client, "模型客户端 " + modelKey + "（已刷新）");
+        ModelProfile previous = profiles.get(modelKey);
+        profiles.refresh(modelKey);
+        ModelProfile updated = profiles.get(modelKey);
+
+        if (updated == null || !updated.sameEndpoint(previous)) {
+            bulkheads.remove(modelKey);
+            circuitBreakers.remove(modelKey);
+        }
+        if (updated == null || !updated.sameKeys(previous)) {
+            keyPools.remove(modelKey);
+        }
+        if (updated == null || !updated.sameTimeouts(previous)) {
+            OkHttpClient client = modelClients.remove(modelKey);
+            if (client != null && client != baseClient) {
+                shutdownClient(client, "模型客户端 " + modelKey + "（已刷新）");
+            }
         }
     }
 
+    /**
+     * 重新编译全部模型快照（如切换了当前模型后）
+     */
+    public void refreshModelProfiles() {
+        profiles.reload();
+    }
+
     /**
      * 关闭HTTP客户端
      */
     public void shutdown() {
         try {
+            // 先停止请求执行器，等待进行中的请求结束
+            requestExecutor.shutdown();
+
+            // 保存回复缓存快照
+            responseCache.saveSnapshot();
+
             // 关闭基础客户端
             shutdownClient(baseClient, "基础客户端");
 
@@ -0,0 +1,58 @@
+package cn.ningmo.geminicraftchat.api;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * 对冲请求策略
+ * 当前模型在观测到的 p95 延迟内仍未响应时，向备用链中的下一个模型再发一次请求
+ *
+ * @param enabled 是否启用对冲
+ * @param delayMillis 固定对冲延迟，0 表示按模型的延迟分位数自动计算
+ * @param percentile 自动计算时使用的分位数
+ * @param initialDelayMillis 样本不足时使用的延迟
+ * @param minDelayMillis 自动延迟下限
+ * @param maxDelayMillis 自动延迟上限
+ * @param minSamples 计算分位数所需的最少样本数
+ * @param maxParallel 同一问题最多同时进行的请求数
+ */
+public record HedgePolicy(
+    boolean enabled,
+    long delayMillis,
+    double percentile,
+    long initialDelayMillis,
+    long minDelayMillis,
+    long maxDelayMillis,
+    int minSamples,
+    int maxParallel
+) {
+    public static HedgePolicy load(ConfigurationSection config) {
+        if (config == null) {
+            return new HedgePolicy(true, 0, 95, 10000, 1000, 60000, 20, 2);
+        }
+        return new HedgePolicy(
+            config.getBoolean("enabled", true),
+            Math.max(0, config.getLong("delay_ms", 0)),
+            Math.max(1, Math.min(100, config.getDouble("percentile", 95))),
+            Math.max(0, config.getLong("initial_delay_ms", 10000)),
+            Math.max(0, config.getLong("min_delay_ms", 1000)),
+            Math.max(0, config.getLong("max_delay_ms", 60000)),
+            Math.max(1, config.getInt("min_samples", 20)),
+            Math.max(1, config.getInt("max_parallel", 2))
+        );
+    }
+
+    /**
+     * 计算某个模型的对冲延迟
+     * @param stats 模型请求统计，可为 null
+     */
+    public long delayFor(ModelStats stats) {
+        if (delayMillis > 0) {
+            return delayMillis;
+        }
+        long observed = stats != null ? stats.percentile(percentile, minSamples) : -1;
+        if (observed < 0) {
+            return initialDelayMillis;
+        }
+        return Math.max(minDelayMillis, Math.min(maxDelayMillis, observed));
+    }
+}
@@ -0,0 +1,222 @@
+package cn.ningmo.geminicraftchat.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * 对冲与故障转移请求
+ * 按模型的备用链依次发起请求：当前请求超过对冲延迟仍未响应时并行请求下一个模型，
+ * 请求失败时立即切换到下一个模型。最先成功的请求胜出，其余请求的 Call 被取消。
+ * 流式响应中最先输出内容的请求独占输出，其余请求随即取消。
+ */
+class HedgedRequest {
+    /**
+     * 对单个模型执行一次阻塞请求
+     */
+    @FunctionalInterface
+    interface AttemptRunner {
+        String run(ModelProfile profile, RequestAttempt attempt, Consumer<String> deltaListener) throws Exception;
+    }
+
+    /**
+     * 请求过程中的事件回调
+     */
+    interface Listener {
+        void onHedge(ModelProfile profile);
+
+        void onFailover(ModelProfile failed, ModelProfile next, Throwable cause);
+    }
+
+    private final List<ModelProfile> chain;
+    private final RequestExecutor executor;
+    private final HedgePolicy policy;
+    private final ToLongFunction<ModelProfile> hedgeDelay;
+    private final AttemptRunner runner;
+    private final Consumer<String> deltaListener;
+    private final Listener listener;
+    private final RequestHandle handle;
+
+    private final CompletableFuture<String> result = new CompletableFuture<>();
+    private final List<RequestAttempt> attempts = new ArrayList<>();
+    private int nextIndex;
+    private int running;
+    private RequestAttempt streamOwner;
+    private ScheduledFuture<?> hedgeTimer;
+    private Throwable lastError;
+    private volatile String answeredBy;
+
+    HedgedRequest(List<ModelProfile> chain, RequestExecutor executor, HedgePolicy policy,
+                  ToLongFunction<ModelProfile> hedgeDelay, AttemptRunner runner,
+                  Consumer<String> deltaListener, Listener listener, RequestHandle handle) {
+        this.chain = chain;
+        this.executor = executor;
+        this.policy = policy;
+        this.hedgeDelay = hedgeDelay;
+        this.runner = runner;
+        this.deltaListener = deltaListener;
+        this.listener = listener;
+        this.handle = handle;
+    }
+
+    CompletableFuture<String> start() {
+        synchronized (this) {
+            launchNext(false);
+        }
+        handle.onCancel(() -> cancel(handle.cancellationException()));
+        return result;
+    }
+
+    /**
+     * 胜出请求的模型标识，请求成功完成后可用
+     */
+    String getAnsweredBy() {
+        return answeredBy;
+    }
+
+    /**
+     * 取消全部进行中的请求
+     */
+    private void cancel(CancellationException exception) {
+        synchronized (this) {
+            if (result.isDone()) {
+                return;
+            }
+            cancelOthers(null);
+            result.completeExceptionally(exception);
+        }
+    }
+
+    /**
+     * 启动备用链中的下一个模型，调用方需持有锁
+     */
+    private void launchNext(boolean hedge) {
+        if (result.isDone() || nextIndex >= chain.size()) {
+            return;
+        }
+
+        ModelProfile profile = chain.get(nextIndex++);
+        RequestAttempt attempt = new RequestAttempt(profile.key(), hedge);
+        attempts.add(attempt);
+        running++;
+
+        executor.submit(() -> runner.run(profile, attempt, delta -> onDelta(attempt, delta)))
+            .whenComplete((response, throwable) -> onComplete(attempt, response, throwable));
+
+        scheduleHedge(profile);
+    }
+
+    private void scheduleHedge(ModelProfile profile) {
+        if (hedgeTimer != null) {
+            hedgeTimer.cancel(false);
+            hedgeTimer = null;
+        }
+        if (!policy.enabled() || nextIndex >= chain.size()) {
+            return;
+        }
+        hedgeTimer = executor.schedule(this::onHedgeTimer, hedgeDelay.applyAsLong(profile));
+    }
+
+    private void onHedgeTimer() {
+        ModelProfile next;
+        synchronized (this) {
+            // 已有请求开始输出或并行数已满时不再对冲
+            if (result.isDone() || streamOwner != null || running >= policy.maxParallel()
+                || nextIndex >= chain.size()) {
+                return;
+            }
+            next = chain.get(nextIndex);
+            launchNext(true);
+        }
+        listener.onHedge(next);
+    }
+
+    private void onDelta(RequestAttempt attempt, String delta) {
+        synchronized (this) {
+            if (streamOwner == null && !result.isDone()) {
+                streamOwner = attempt;
+                cancelOthers(attempt);
+            }
+            if (streamOwner != attempt) {
+                return;
+            }
+        }
+        if (deltaListener != null) {
+            deltaListener.accept(delta);
+        }
+    }
+
+    private void onComplete(RequestAttempt attempt, String response, Throwable throwable) {
+        ModelProfile failed = null;
+        ModelProfile next = null;
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+            ? throwable.getCause() : throwable;
+
+        synchronized (this) {
+            running--;
+            if (result.isDone()) {
+                return;
+            }
+
+            if (cause == null) {
+                cancelOthers(attempt);
+                answeredBy = attempt.getModelKey();
+                result.complete(response);
+                return;
+            }
+
+            // 被取消的请求不触发故障转移
+            if (attempt.isCancelled()) {
+                return;
+            }
+            lastError = cause;
+
+            // 已向玩家输出部分内容的流式请求无法无缝切换
+            if (streamOwner == attempt) {
+                cancelOthers(attempt);
+                result.completeExceptionally(cause);
+                return;
+            }
+
+            if (nextIndex < chain.size()) {
+                failed = findProfile(attempt.getModelKey());
+                next = chain.get(nextIndex);
+                launchNext(false);
+            } else if (running == 0) {
+                cancelOthers(attempt);
+                result.completeExceptionally(lastError);
+                return;
+            }
+        }
+
+        if (next != null) {
+            listener.onFailover(failed, next, cause);
+        }
+    }
+
+    private void cancelOthers(RequestAttempt winner) {
+        if (hedgeTimer != null) {
+            hedgeTimer.cancel(false);
+            hedgeTimer = null;
+        }
+        for (RequestAttempt other : attempts) {
+            if (other != winner) {
+                other.cancel();
+            }
+        }
+    }
+
+    private ModelProfile findProfile(String modelKey) {
+        for (ModelProfile profile : chain) {
+            if (profile.key().equals(modelKey)) {
+                return profile;
+            }
+        }
+        return null;
+    }
+}
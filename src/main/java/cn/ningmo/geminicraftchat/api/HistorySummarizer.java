@@ -0,0 +1,140 @@
+package cn.ningmo.geminicraftchat.api;
+
+import cn.ningmo.geminicraftchat.GeminiCraftChat;
+import cn.ningmo.geminicraftchat.history.ConversationStore;
+import cn.ningmo.geminicraftchat.history.Turn;
+import cn.ningmo.geminicraftchat.persona.Persona;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 对话历史滚动摘要
+ * 玩家的历史记录超过阈值后，在后台调用配置的（通常更便宜的）模型把较早的对话
+ * 连同旧摘要压缩为一条系统备注，再从历史记录中移除这些对话，不占用玩家请求的时间。
+ * 摘要保存在 ConversationStore 中，与历史记录一起计入内存预算、淘汰和写入日志，清除记忆时一并清除。
+ */
+public class HistorySummarizer {
+    /**
+     * 摘要配置，对应 chat.summary
+     * @param model 生成摘要使用的模型，为空时使用当前模型
+     * @param triggerMessages 历史消息数达到该值时开始摘要，应小于 max_history * 2
+     * @param keepRecentMessages 摘要时保留不压缩的最新消息数，取偶数使保留的消息以完整的问答开始
+     * @param maxSummaryChars 摘要最大字符数
+     * @param prompt 生成摘要的系统提示词
+     */
+    public record Settings(boolean enabled, String model, int triggerMessages, int keepRecentMessages,
+                           int maxSummaryChars, String prompt) {
+        private static final String DEFAULT_PROMPT = "你负责为角色扮演对话做记忆摘要。请把给出的旧摘要和对话合并成一段简洁的摘要，"
+            + "保留人物、约定、事件和玩家的偏好，不要添加对话中没有的内容，只输出摘要本身。";
+
+        public static Settings load(ConfigurationSection config) {
+            if (config == null) {
+                return new Settings(false, "", 12, 6, 800, DEFAULT_PROMPT);
+            }
+            int keepRecent = Math.max(2, config.getInt("keep_recent_messages", 6));
+            if (keepRecent % 2 != 0) {
+                keepRecent++;
+            }
+            return new Settings(
+                config.getBoolean("enabled", false),
+                config.getString("model", ""),
+                Math.max(keepRecent + 2, config.getInt("trigger_messages", 12)),
+                keepRecent,
+                Math.max(100, config.getInt("max_summary_chars", 800)),
+                config.getString("prompt", DEFAULT_PROMPT)
+            );
+        }
+    }
+
+    /**
+     * 实际发送摘要请求，由 GeminiService 提供
+     */
+    @FunctionalInterface
+    interface Runner {
+        String run(ModelProfile profile, RequestContext context) throws IOException;
+    }
+
+    private final GeminiCraftChat plugin;
+    private final Settings settings;
+    private final RequestExecutor executor;
+    private final Runner runner;
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
+
+    HistorySummarizer(GeminiCraftChat plugin, Settings settings, RequestExecutor executor, Runner runner) {
+        this.plugin = plugin;
+        this.settings = settings;
+        this.executor = executor;
+        this.runner = runner;
+    }
+
+    /**
+     * 历史记录达到阈值时在后台生成摘要，同一玩家同时只有一个摘要任务
+     * @param size 玩家当前的历史消息数
+     * @param store 对话存储，摘要完成后用摘要替换其中已压缩的消息
+     */
+    void maybeSummarize(String playerId, int size, ConversationStore store, ModelProfileRegistry.Snapshot snapshot) {
+        if (!settings.enabled() || size < settings.triggerMessages() || !running.add(playerId)) {
+            return;
+        }
+
+        ModelProfile profile = settings.model().isEmpty() ? snapshot.current() : snapshot.profiles().get(settings.model());
+        if (profile == null) {
+            running.remove(playerId);
+            plugin.getLogger().warning("摘要模型不存在: " + settings.model());
+            return;
+        }
+
+        List<Turn> history = store.snapshot(playerId);
+        if (history.size() <= settings.keepRecentMessages()) {
+            running.remove(playerId);
+            return;
+        }
+        List<Turn> compacted = List.copyOf(history.subList(0, history.size() - settings.keepRecentMessages()));
+        RequestContext context = new RequestContext(playerId, buildTranscript(store.getSummary(playerId), compacted),
+            Optional.of(new Persona("summary", "摘要", "", settings.prompt())), List.of(), null, 0, null);
+
+        executor.submit(() -> runner.run(profile, context)).whenComplete((summary, throwable) -> {
+            running.remove(playerId);
+            if (throwable != null) {
+                plugin.debug("生成对话摘要失败: " + playerId + " - " + throwable.getMessage());
+                return;
+            }
+            if (summary == null || summary.isBlank()) {
+                return;
+            }
+
+            String trimmed = summary.trim();
+            if (trimmed.length() > settings.maxSummaryChars()) {
+                trimmed = trimmed.substring(0, settings.maxSummaryChars());
+            }
+            // 摘要期间最早的消息可能已被淘汰、清除或重新加载，此时放弃本次摘要，下次摘要会重新处理
+            if (!store.summarize(playerId, trimmed, compacted)) {
+                return;
+            }
+            plugin.debug("已将玩家 " + playerId + " 的 " + compacted.size() + " 条历史消息压缩为摘要（"
+                + trimmed.length() + " 字）");
+        });
+    }
+
+    private String buildTranscript(String previousSummary, List<Turn> messages) {
+        StringBuilder transcript = new StringBuilder();
+        if (previousSummary != null) {
+            transcript.append("旧摘要：\n").append(previousSummary).append("\n\n");
+        }
+        transcript.append("对话：\n");
+        for (Turn message : messages) {
+            transcript.append(message.role() == Turn.Role.ASSISTANT ? "AI: " : "玩家: ")
+                .append(message.content()).append('\n');
+        }
+        return transcript.toString();
+    }
+
+    public boolean isEnabled() {
+        return settings.enabled();
+    }
+}
@@ -0,0 +1,162 @@
+package cn.ningmo.geminicraftchat.api;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 预编译的JSON路径，如 "choices[0].message.content"
+ * 在 JsonReader 上流式匹配，跳过无关的子树，找到目标值后立即停止读取
+ */
+public final class JsonPath {
+    private record Step(String name, int index) {
+        boolean isIndex() {
+            return name == null;
+        }
+    }
+
+    private final String path;
+    private final List<Step> steps;
+
+    private JsonPath(String path, List<Step> steps) {
+        this.path = path;
+        this.steps = steps;
+    }
+
+    /**
+     * 编译路径表达式
+     */
+    public static JsonPath compile(String path) {
+        List<Step> steps = new ArrayList<>();
+        for (String part : path.split("\\.")) {
+            int bracket = part.indexOf('[');
+            String name = bracket >= 0 ? part.substring(0, bracket) : part;
+            if (!name.isEmpty()) {
+                steps.add(new Step(name, -1));
+            }
+
+            while (bracket >= 0) {
+                int close = part.indexOf(']', bracket);
+                if (close < 0) {
+                    throw new IllegalArgumentException("无效的JSON路径: " + path);
+                }
+                steps.add(new Step(null, Integer.parseInt(part.substring(bracket + 1, close).trim())));
+                bracket = part.indexOf('[', close);
+            }
+        }
+        return new JsonPath(path, List.copyOf(steps));
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * 从JSON文本中提取值，路径不存在时返回 null
+     */
+    public String extract(String json) throws IOException {
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            return extract(reader);
+        }
+    }
+
+    /**
+     * 从字符流中提取值，路径不存在时返回 null
+     * 找到目标值后立即停止读取，调用方负责关闭字符流
+     */
+    public String extract(Reader json) throws IOException {
+        return extract(new JsonReader(json));
+    }
+
+    /**
+     * 从 JsonReader 中提取值，路径不存在时返回 null；JSON null 返回空字符串
+     */
+    public String extract(JsonReader reader) throws IOException {
+        for (Step step : steps) {
+            if (!seek(reader, step)) {
+                return null;
+            }
+        }
+        return readValue(reader);
+    }
+
+    /**
+     * 在已解析的JSON树上提取值，作为流式解析失败时的后备方案
+     */
+    public String extract(JsonElement json) {
+        JsonElement current = json;
+        for (Step step : steps) {
+            if (step.isIndex()) {
+                if (!current.isJsonArray() || current.getAsJsonArray().size() <= step.index()) {
+                    throw new RuntimeException("路径不存在: [" + step.index() + "]");
+                }
+                current = current.getAsJsonArray().get(step.index());
+            } else {
+                if (!current.isJsonObject() || !current.getAsJsonObject().has(step.name())) {
+                    throw new RuntimeException("路径不存在: " + step.name());
+                }
+                current = current.getAsJsonObject().get(step.name());
+            }
+        }
+        if (current.isJsonNull()) {
+            return "";
+        }
+        return current.isJsonPrimitive() ? current.getAsString() : current.toString();
+    }
+
+    // 移动到当前步骤指向的值之前，跳过其余的键或数组元素
+    private boolean seek(JsonReader reader, Step step) throws IOException {
+        if (step.isIndex()) {
+            if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+                return false;
+            }
+            reader.beginArray();
+            for (int i = 0; reader.hasNext(); i++) {
+                if (i == step.index()) {
+                    return true;
+                }
+                reader.skipValue();
+            }
+            return false;
+        }
+
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            return false;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals(step.name())) {
+                return true;
+            }
+            reader.skipValue();
+        }
+        return false;
+    }
+
+    private String readValue(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case STRING:
+            case NUMBER:
+                return reader.nextString();
+            case BOOLEAN:
+                return String.valueOf(reader.nextBoolean());
+            case NULL:
+                reader.nextNull();
+                return "";
+            default:
+                return JsonParser.parseReader(reader).toString();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
@@ -0,0 +1,237 @@
+package cn.ningmo.geminicraftchat.api;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 单个模型的隔离舱
+ * 限制同时发往该模型的请求数，并用 AIMD 根据观测延迟自动调整上限：
+ * 延迟样本是取得 Key 之后到收到响应头的耗时，不含 Key 额度等待和流式生成的时间。
+ * 近期平滑延迟未超过长期平均的容忍倍数时每轮增加 1，超过或出现可重试的失败（服务端错误、限流、超时）时按比例下调；
+ * 客户端错误和解析失败与模型负载无关，不参与调整。
+ * 超过上限的请求进入有界等待队列，队列已满或等待超时时立即拒绝。
+ */
+public class ModelBulkhead {
+    /**
+     * 隔离舱配置，模型下的 bulkhead 配置覆盖 api.bulkhead 中的默认值
+     */
+    public record Settings(
+        boolean enabled,
+        int initialLimit,
+        int minLimit,
+        int maxLimit,
+        int maxQueue,
+        long queueTimeoutMillis,
+        double latencyTolerance,
+        double backoffRatio
+    ) {
+        public static Settings load(ConfigurationSection defaults, ConfigurationSection model) {
+            int minLimit = Math.max(1, getInt(model, defaults, "min_limit", 1));
+            int maxLimit = Math.max(minLimit, getInt(model, defaults, "max_limit", 64));
+            int initialLimit = Math.max(minLimit, Math.min(maxLimit, getInt(model, defaults, "initial_limit", 8)));
+            return new Settings(
+                getBoolean(model, defaults, "enabled", true),
+                initialLimit,
+                minLimit,
+                maxLimit,
+                Math.max(0, getInt(model, defaults, "max_queue", 16)),
+                Math.max(0, getLong(model, defaults, "queue_timeout_ms", 5000)),
+                Math.max(1.0, getDouble(model, defaults, "latency_tolerance", 2.0)),
+                Math.max(0.1, Math.min(0.99, getDouble(model, defaults, "backoff_ratio", 0.9)))
+            );
+        }
+
+        private static boolean getBoolean(ConfigurationSection model, ConfigurationSection defaults, String path, boolean def) {
+            if (model != null && model.contains(path)) {
+                return model.getBoolean(path);
+            }
+            return defaults != null ? defaults.getBoolean(path, def) : def;
+        }
+
+        private static int getInt(ConfigurationSection model, ConfigurationSection defaults, String path, int def) {
+            if (model != null && model.contains(path)) {
+                return model.getInt(path);
+            }
+            return defaults != null ? defaults.getInt(path, def) : def;
+        }
+
+        private static long getLong(ConfigurationSection model, ConfigurationSection defaults, String path, long def) {
+            if (model != null && model.contains(path)) {
+                return model.getLong(path);
+            }
+            return defaults != null ? defaults.getLong(path, def) : def;
+        }
+
+        private static double getDouble(ConfigurationSection model, ConfigurationSection defaults, String path, double def) {
+            if (model != null && model.contains(path)) {
+                return model.getDouble(path);
+            }
+            return defaults != null ? defaults.getDouble(path, def) : def;
+        }
+    }
+
+    /**
+     * 隔离舱已满时抛出，由故障转移尝试下一个模型，全部已满时提示玩家稍后再试
+     */
+    public static class BulkheadFullException extends IOException {
+        public BulkheadFullException(String message) {
+            super(message);
+        }
+    }
+
+    // 近期延迟约反映最近 10 个样本，长期基准约反映最近 100 个样本，单个较慢的回复不会被视为拥塞
+    private static final double SHORT_SMOOTHING = 0.1;
+    private static final double LONG_SMOOTHING = 0.01;
+
+    private final String modelKey;
+    private final Settings settings;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private long rejected;
+    private double shortLatency = -1;
+    private double longLatency = -1;
+
+    public ModelBulkhead(String modelKey, Settings settings) {
+        this.modelKey = modelKey;
+        this.settings = settings;
+        this.limit = settings.initialLimit();
+    }
+
+    /**
+     * 获取一个请求许可，必要时在队列中等待
+     * @throws BulkheadFullException 队列已满或等待超时
+     */
+    public void acquire() throws IOException {
+        if (!settings.enabled()) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            if (inFlight < (int) limit) {
+                inFlight++;
+                return;
+            }
+            if (queued >= settings.maxQueue()) {
+                rejected++;
+                throw new BulkheadFullException("模型 " + modelKey + " 繁忙，请求队列已满");
+            }
+
+            queued++;
+            try {
+                long remaining = TimeUnit.MILLISECONDS.toNanos(settings.queueTimeoutMillis());
+                while (inFlight >= (int) limit) {
+                    if (remaining <= 0) {
+                        rejected++;
+                        throw new BulkheadFullException("模型 " + modelKey + " 繁忙，排队超时");
+                    }
+                    remaining = available.awaitNanos(remaining);
+                }
+                inFlight++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("等待模型 " + modelKey + " 时被中断");
+            } finally {
+                queued--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 释放许可并根据本次结果调整上限
+     * @param latencyMillis 收到响应头的耗时，未收到响应头时传入负数
+     * @param overloaded 请求是否因服务端过载失败；成功时传入 false，
+     *                   被取消或因客户端错误、解析失败等与负载无关的原因失败时传入 null 不参与调整
+     */
+    public void release(long latencyMillis, Boolean overloaded) {
+        if (!settings.enabled()) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            inFlight = Math.max(0, inFlight - 1);
+            if (overloaded != null) {
+                adjustLimit(latencyMillis, overloaded);
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void adjustLimit(long latencyMillis, boolean overloaded) {
+        boolean congested = overloaded;
+        if (!overloaded && latencyMillis >= 0) {
+            if (longLatency < 0) {
+                shortLatency = latencyMillis;
+                longLatency = latencyMillis;
+            } else {
+                shortLatency += (latencyMillis - shortLatency) * SHORT_SMOOTHING;
+                longLatency += (latencyMillis - longLatency) * LONG_SMOOTHING;
+            }
+            congested = shortLatency > longLatency * settings.latencyTolerance();
+        }
+
+        if (congested) {
+            limit = Math.max(settings.minLimit(), limit * settings.backoffRatio());
+        } else {
+            limit = Math.min(settings.maxLimit(), limit + 1.0 / limit);
+        }
+    }
+
+    public String getModelKey() {
+        return modelKey;
+    }
+
+    public boolean isEnabled() {
+        return settings.enabled();
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getRejected() {
+        lock.lock();
+        try {
+            return rejected;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
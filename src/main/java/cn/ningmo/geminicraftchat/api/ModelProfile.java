@@ -0,0 +1,169 @@
+package cn.ningmo.geminicraftchat.api;
+
+import okhttp3.Headers;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 模型配置快照
+ * 由 api.models 下的单个条目编译而来，请求路径上只读取该快照，不再访问配置树
+ */
+public record ModelProfile(
+    String key,
+    String name,
+    String model,
+    String baseUrl,
+    String apiKey,
+    String method,
+    Headers headers,
+    Map<String, String> headerMap,
+    double temperature,
+    int maxTokens,
+    boolean stream,
+    int connectTimeout,
+    int readTimeout,
+    int writeTimeout,
+    boolean longThinking,
+    boolean customTimeout,
+    long deadlineMillis,
+    RequestTemplate template,
+    ResponseParser parser,
+    List<String> fallback,
+    List<String> apiKeys,
+    Map<String, Headers> keyHeaders,
+    ApiKeyPool.Settings rateLimit,
+    TokenEstimator tokenizer,
+    int contextBudgetTokens,
+    PromptCache promptCache
+) {
+    /**
+     * 获取使用指定 API Key 替换变量后的请求头
+     */
+    public Headers headersFor(String key) {
+        Headers resolved = keyHeaders.get(key);
+        return resolved != null ? resolved : headers;
+    }
+
+    /**
+     * 与另一快照的端点相同，熔断器和隔离舱记录的健康状态仍然适用
+     */
+    public boolean sameEndpoint(ModelProfile other) {
+        return other != null && Objects.equals(baseUrl, other.baseUrl);
+    }
+
+    /**
+     * 与另一快照的 Key 与限额设置相同，可继续使用原有的 Key 池
+     */
+    public boolean sameKeys(ModelProfile other) {
+        return other != null && apiKeys.equals(other.apiKeys) && rateLimit.equals(other.rateLimit);
+    }
+
+    /**
+     * 与另一快照的超时设置相同，可继续使用原有的HTTP客户端
+     */
+    public boolean sameTimeouts(ModelProfile other) {
+        return other != null && customTimeout == other.customTimeout && longThinking == other.longThinking
+            && connectTimeout == other.connectTimeout && readTimeout == other.readTimeout
+            && writeTimeout == other.writeTimeout;
+    }
+
+    /**
+     * 从配置编译模型快照
+     * @param key 模型标识
+     * @param modelConfig api.models.<key> 配置节
+     */
+    public static ModelProfile compile(String key, ConfigurationSection modelConfig) {
+        if (modelConfig == null) {
+            throw new IllegalStateException("模型配置不存在: " + key);
+        }
+
+        ConfigurationSection requestConfig = modelConfig.getConfigurationSection("request");
+        if (requestConfig == null) {
+            throw new IllegalStateException("请求配置不存在: " + key);
+        }
+
+        String apiKey = modelConfig.getString("api_key", "");
+        // api_keys 配置多个 Key 时组成 Key 池，否则只使用 api_key
+        List<String> apiKeys = new ArrayList<>();
+        for (String configured : modelConfig.getStringList("api_keys")) {
+            if (configured != null && !configured.isBlank() && !apiKeys.contains(configured)) {
+                apiKeys.add(configured);
+            }
+        }
+        if (apiKeys.isEmpty()) {
+            apiKeys.add(apiKey);
+        } else {
+            apiKey = apiKeys.get(0);
+        }
+        boolean stream = modelConfig.getBoolean("stream", false);
+
+        // 预先替换请求头中的变量
+        Headers.Builder headers = new Headers.Builder();
+        Map<String, String> headerMap = new LinkedHashMap<>();
+        ConfigurationSection headersConfig = requestConfig.getConfigurationSection("headers");
+        if (headersConfig != null) {
+            for (String headerName : headersConfig.getKeys(false)) {
+                String headerValue = headersConfig.getString(headerName);
+                if (headerValue != null) {
+                    headerValue = headerValue.replace("{api_key}", apiKey);
+                    headers.add(headerName, headerValue);
+                    headerMap.put(headerName, headerValue);
+                }
+            }
+        }
+
+        // 为每个 Key 预先生成请求头
+        Map<String, Headers> keyHeaders = new LinkedHashMap<>();
+        for (String poolKey : apiKeys) {
+            Headers.Builder keyHeaderBuilder = new Headers.Builder();
+            if (headersConfig != null) {
+                for (String headerName : headersConfig.getKeys(false)) {
+                    String headerValue = headersConfig.getString(headerName);
+                    if (headerValue != null) {
+                        keyHeaderBuilder.add(headerName, headerValue.replace("{api_key}", poolKey));
+                    }
+                }
+            }
+            keyHeaders.put(poolKey, keyHeaderBuilder.build());
+        }
+
+        ConfigurationSection timeoutConfig = modelConfig.getConfigurationSection("timeout");
+        PromptCache promptCache = PromptCache.load(modelConfig.getConfigurationSection("prompt_cache"));
+
+        return new ModelProfile(
+            key,
+            modelConfig.getString("name", key),
+            modelConfig.getString("model", ""),
+            modelConfig.getString("base_url"),
+            apiKey,
+            requestConfig.getString("method", "POST"),
+            headers.build(),
+            Collections.unmodifiableMap(headerMap),
+            modelConfig.getDouble("temperature", 0.7),
+            modelConfig.getInt("max_tokens", 4096),
+            stream,
+            timeoutConfig != null ? timeoutConfig.getInt("connect", 30) : 30,
+            timeoutConfig != null ? timeoutConfig.getInt("read", 30) : 30,
+            timeoutConfig != null ? timeoutConfig.getInt("write", 30) : 30,
+            timeoutConfig != null && timeoutConfig.getBoolean("long_thinking", false),
+            timeoutConfig != null,
+            timeoutConfig != null ? Math.max(0, timeoutConfig.getLong("deadline", 0)) * 1000 : 0,
+            RequestTemplate.compile(requestConfig.getString("body_template", "{}"),
+                modelConfig.getConfigurationSection("parameters"), stream, promptCache),
+            ResponseParser.compile(modelConfig.getConfigurationSection("response")),
+            List.copyOf(modelConfig.getStringList("fallback")),
+            List.copyOf(apiKeys),
+            Collections.unmodifiableMap(keyHeaders),
+            ApiKeyPool.Settings.load(modelConfig.getConfigurationSection("rate_limit")),
+            TokenEstimator.load(modelConfig.getConfigurationSection("tokenizer")),
+            Math.max(0, modelConfig.getInt("context_budget_tokens", 0)),
+            promptCache
+        );
+    }
+}
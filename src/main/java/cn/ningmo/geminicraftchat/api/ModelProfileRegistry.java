@@ -0,0 +1,92 @@
+package cn.ningmo.geminicraftchat.api;
+
+import cn.ningmo.geminicraftchat.GeminiCraftChat;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 模型快照注册表
+ * 所有模型快照与当前模型一起组成一个不可变快照，通过原子引用整体替换，
+ * 请求线程读取到的总是一份完整一致的配置
+ */
+public class ModelProfileRegistry {
+    /**
+     * 某一时刻的全部模型配置
+     */
+    public record Snapshot(String currentModel, Map<String, ModelProfile> profiles) {
+        public ModelProfile current() {
+            return profiles.get(currentModel);
+        }
+    }
+
+    private final GeminiCraftChat plugin;
+    private final AtomicReference<Snapshot> snapshot;
+
+    public ModelProfileRegistry(GeminiCraftChat plugin) {
+        this.plugin = plugin;
+        this.snapshot = new AtomicReference<>(new Snapshot("", Map.of()));
+        reload();
+    }
+
+    /**
+     * 重新编译全部模型，成功编译的模型整体替换旧快照
+     */
+    public void reload() {
+        ConfigurationSection models = plugin.getConfigManager().getConfig().getConfigurationSection("api.models");
+        Map<String, ModelProfile> profiles = new HashMap<>();
+        if (models != null) {
+            for (String modelKey : models.getKeys(false)) {
+                try {
+                    profiles.put(modelKey, ModelProfile.compile(modelKey, models.getConfigurationSection(modelKey)));
+                } catch (Exception e) {
+                    plugin.getLogger().warning("模型 " + modelKey + " 配置编译失败: " + e.getMessage());
+                }
+            }
+        }
+
+        String currentModel = plugin.getConfigManager().getCurrentModel();
+        snapshot.set(new Snapshot(currentModel, Collections.unmodifiableMap(profiles)));
+        plugin.debug("已编译 " + profiles.size() + " 个模型配置，当前模型: " + currentModel);
+    }
+
+    /**
+     * 重新编译单个模型（如修改了温度或超时设置后）
+     */
+    public void refresh(String modelKey) {
+        ConfigurationSection modelConfig = plugin.getConfigManager().getConfig().getConfigurationSection("api.models." + modelKey);
+        ModelProfile profile = null;
+        if (modelConfig != null) {
+            try {
+                profile = ModelProfile.compile(modelKey, modelConfig);
+            } catch (Exception e) {
+                plugin.getLogger().warning("模型 " + modelKey + " 配置编译失败: " + e.getMessage());
+                return;
+            }
+        }
+
+        ModelProfile updated = profile;
+        String currentModel = plugin.getConfigManager().getCurrentModel();
+        snapshot.updateAndGet(old -> {
+            Map<String, ModelProfile> profiles = new HashMap<>(old.profiles());
+            if (updated != null) {
+                profiles.put(modelKey, updated);
+            } else {
+                profiles.remove(modelKey);
+            }
+            return new Snapshot(currentModel, Collections.unmodifiableMap(profiles));
+        });
+        plugin.debug("已刷新模型配置: " + modelKey);
+    }
+
+    public Snapshot snapshot() {
+        return snapshot.get();
+    }
+
+    public ModelProfile get(String modelKey) {
+        return snapshot.get().profiles().get(modelKey);
+    }
+}
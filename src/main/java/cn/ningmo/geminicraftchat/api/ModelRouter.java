@@ -0,0 +1,179 @@
+package cn.ningmo.geminicraftchat.api;
+
+import cn.ningmo.geminicraftchat.GeminiCraftChat;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 多模型路由
+ * 根据每个模型延迟与错误率的 EWMA、进行中的请求数和配置权重选择本次请求使用的模型。
+ * single 模式始终使用 api.current_model；p2c 模式等概率随机抽取两个模型并选择按权重折算后代价较低者；
+ * least_outstanding 模式选择按权重折算后进行中请求最少的模型。
+ */
+public class ModelRouter {
+    public enum Mode {
+        SINGLE, P2C, LEAST_OUTSTANDING;
+
+        static Mode parse(String value) {
+            if (value != null) {
+                String normalized = value.trim().toUpperCase().replace('-', '_');
+                for (Mode mode : values()) {
+                    if (mode.name().equals(normalized)) {
+                        return mode;
+                    }
+                }
+            }
+            return SINGLE;
+        }
+    }
+
+    // 尚无延迟样本的模型按该延迟估算，使新模型能获得流量
+    private static final double DEFAULT_LATENCY = 1000;
+    private static final double MAX_ERROR_RATE = 0.95;
+
+    private final Mode mode;
+    private final double alpha;
+    private final Map<String, Double> weights;
+    private final Map<String, ModelStats> stats;
+
+    public ModelRouter(GeminiCraftChat plugin) {
+        ConfigurationSection config = plugin.getConfigManager().getConfig().getConfigurationSection("api.routing");
+
+        this.mode = Mode.parse(config != null ? config.getString("mode", "single") : "single");
+        this.alpha = Math.max(0.01, Math.min(1.0, config != null ? config.getDouble("ewma_alpha", 0.3) : 0.3));
+        this.weights = new LinkedHashMap<>();
+        this.stats = new ConcurrentHashMap<>();
+
+        ConfigurationSection weightConfig = config != null ? config.getConfigurationSection("models") : null;
+        if (weightConfig != null) {
+            for (String modelKey : weightConfig.getKeys(false)) {
+                double weight = weightConfig.getDouble(modelKey, 1.0);
+                if (weight > 0) {
+                    weights.put(modelKey, weight);
+                }
+            }
+        }
+
+        plugin.debug("模型路由模式: " + mode.name().toLowerCase() + "，参与路由的模型: " + weights.keySet());
+    }
+
+    /**
+     * 选择本次请求的主模型，未启用路由或没有可用模型时返回当前模型
+     */
+    public ModelProfile select(ModelProfileRegistry.Snapshot snapshot) {
+        List<ModelProfile> candidates = candidates(snapshot);
+        if (mode == Mode.SINGLE || candidates.isEmpty()) {
+            return snapshot.current();
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+
+        if (mode == Mode.LEAST_OUTSTANDING) {
+            return candidates.stream().min(Comparator.comparingDouble(this::cost)).orElse(snapshot.current());
+        }
+
+        // 等概率抽取两个不同的模型，选择代价较低者；权重只在代价中计入一次
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int firstIndex = random.nextInt(candidates.size());
+        int secondIndex = random.nextInt(candidates.size() - 1);
+        if (secondIndex >= firstIndex) {
+            secondIndex++;
+        }
+        ModelProfile first = candidates.get(firstIndex);
+        ModelProfile second = candidates.get(secondIndex);
+        return cost(first) <= cost(second) ? first : second;
+    }
+
+    /**
+     * 参与路由的其他模型，按代价从低到高排列，作为隐式的故障转移目标
+     */
+    public List<ModelProfile> alternatives(ModelProfileRegistry.Snapshot snapshot, ModelProfile selected) {
+        if (mode == Mode.SINGLE) {
+            return List.of();
+        }
+        List<ModelProfile> others = new ArrayList<>(candidates(snapshot));
+        others.removeIf(profile -> profile.key().equals(selected.key()));
+        others.sort(Comparator.comparingDouble(this::cost));
+        return others;
+    }
+
+    private List<ModelProfile> candidates(ModelProfileRegistry.Snapshot snapshot) {
+        List<ModelProfile> candidates = new ArrayList<>();
+        for (String modelKey : weights.keySet()) {
+            ModelProfile profile = snapshot.profiles().get(modelKey);
+            if (profile != null) {
+                candidates.add(profile);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * 模型代价：延迟 EWMA ×（进行中请求数 + 1）÷ 成功率 ÷ 权重，越小越优先
+     */
+    double cost(ModelProfile profile) {
+        ModelStats modelStats = stats(profile.key());
+        double latency = modelStats.getEwmaLatency() > 0 ? modelStats.getEwmaLatency() : DEFAULT_LATENCY;
+        double successRate = 1 - Math.min(modelStats.getEwmaErrorRate(), MAX_ERROR_RATE);
+        int outstanding = modelStats.getOutstanding();
+
+        if (mode == Mode.LEAST_OUTSTANDING) {
+            // 以进行中请求数为主，延迟只作为同等负载下的次要因素
+            return ((outstanding + 1) / successRate + latency / 1_000_000.0) / weight(profile.key());
+        }
+        return latency * (outstanding + 1) / successRate / weight(profile.key());
+    }
+
+    private double weight(String modelKey) {
+        return weights.getOrDefault(modelKey, 1.0);
+    }
+
+    /**
+     * 当前各模型的实时流量占比（0-1），按权重 ÷ 代价归一化
+     */
+    public Map<String, Double> getLiveWeights(ModelProfileRegistry.Snapshot snapshot) {
+        Map<String, Double> live = new LinkedHashMap<>();
+        List<ModelProfile> candidates = candidates(snapshot);
+        if (mode == Mode.SINGLE || candidates.isEmpty()) {
+            if (snapshot.current() != null) {
+                live.put(snapshot.currentModel(), 1.0);
+            }
+            return live;
+        }
+
+        double total = 0;
+        for (ModelProfile profile : candidates) {
+            double score = 1 / cost(profile);
+            live.put(profile.key(), score);
+            total += score;
+        }
+        for (Map.Entry<String, Double> entry : live.entrySet()) {
+            entry.setValue(entry.getValue() / total);
+        }
+        return live;
+    }
+
+    public ModelStats stats(String modelKey) {
+        return stats.computeIfAbsent(modelKey, key -> new ModelStats(key, alpha));
+    }
+
+    public Map<String, ModelStats> getStats() {
+        return stats;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public Map<String, Double> getWeights() {
+        return weights;
+    }
+}
@@ -0,0 +1,142 @@
+package cn.ningmo.geminicraftchat.api;
+
+import java.util.Arrays;
+
+/**
+ * 单个模型的请求统计
+ * 保存最近若干次成功请求的耗时用于估算延迟分位数，
+ * 并维护延迟与错误率的指数加权移动平均（EWMA）和进行中的请求数，供路由选择使用
+ */
+public class ModelStats {
+    private static final int WINDOW_SIZE = 128;
+
+    private final String modelKey;
+    private final double alpha;
+    private final long[] latencies;
+    private int latencyCount;
+    private int latencyIndex;
+    private long successCount;
+    private long failureCount;
+    private double ewmaLatency = -1;
+    private double ewmaErrorRate;
+    private int outstanding;
+    private long promptTokens;
+    private long cachedPromptTokens;
+    private long cacheWriteTokens;
+
+    /**
+     * @param alpha EWMA 平滑系数，越大越偏向最近的请求
+     */
+    public ModelStats(String modelKey, double alpha) {
+        this.modelKey = modelKey;
+        this.alpha = alpha;
+        this.latencies = new long[WINDOW_SIZE];
+    }
+
+    public synchronized void requestStarted() {
+        outstanding++;
+    }
+
+    public synchronized void requestFinished() {
+        outstanding = Math.max(0, outstanding - 1);
+    }
+
+    public synchronized void recordSuccess(long latencyMillis) {
+        latencies[latencyIndex] = latencyMillis;
+        latencyIndex = (latencyIndex + 1) % WINDOW_SIZE;
+        latencyCount = Math.min(latencyCount + 1, WINDOW_SIZE);
+        successCount++;
+        updateLatency(latencyMillis);
+        ewmaErrorRate = (1 - alpha) * ewmaErrorRate;
+    }
+
+    public synchronized void recordFailure() {
+        failureCount++;
+        ewmaErrorRate = (1 - alpha) * ewmaErrorRate + alpha;
+    }
+
+    /**
+     * 记录失败请求，失败前等待的时间同样计入延迟
+     */
+    public synchronized void recordFailure(long latencyMillis) {
+        recordFailure();
+        updateLatency(latencyMillis);
+    }
+
+    /**
+     * 记录服务商返回的提示词令牌用量
+     */
+    public synchronized void recordPromptUsage(long prompt, long cached, long written) {
+        promptTokens += prompt;
+        cachedPromptTokens += cached;
+        cacheWriteTokens += written;
+    }
+
+    private void updateLatency(long latencyMillis) {
+        ewmaLatency = ewmaLatency < 0 ? latencyMillis : (1 - alpha) * ewmaLatency + alpha * latencyMillis;
+    }
+
+    /**
+     * 计算最近请求耗时的分位数，样本不足时返回 -1
+     * @param percentile 0-100
+     * @param minSamples 最少样本数
+     */
+    public synchronized long percentile(double percentile, int minSamples) {
+        if (latencyCount == 0 || latencyCount < minSamples) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * latencyCount) - 1;
+        return sorted[Math.max(0, Math.min(index, latencyCount - 1))];
+    }
+
+    public String getModelKey() {
+        return modelKey;
+    }
+
+    public synchronized long getSuccessCount() {
+        return successCount;
+    }
+
+    public synchronized long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * 延迟的 EWMA（毫秒），尚无样本时返回 -1
+     */
+    public synchronized double getEwmaLatency() {
+        return ewmaLatency;
+    }
+
+    /**
+     * 错误率的 EWMA（0-1）
+     */
+    public synchronized double getEwmaErrorRate() {
+        return ewmaErrorRate;
+    }
+
+    public synchronized int getOutstanding() {
+        return outstanding;
+    }
+
+    public synchronized long getPromptTokens() {
+        return promptTokens;
+    }
+
+    public synchronized long getCachedPromptTokens() {
+        return cachedPromptTokens;
+    }
+
+    public synchronized long getCacheWriteTokens() {
+        return cacheWriteTokens;
+    }
+
+    /**
+     * 提示词令牌的缓存命中率（0-1），尚无用量时返回 0
+     */
+    public synchronized double getPromptCacheHitRate() {
+        return promptTokens > 0 ? (double) cachedPromptTokens / promptTokens : 0;
+    }
+}
@@ -0,0 +1,93 @@
+package cn.ningmo.geminicraftchat.api;
+
+import cn.ningmo.geminicraftchat.history.Turn;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按令牌预算装配的提示词
+ * 人设、历史摘要与当前问题必定保留，其余预算从最新的历史记录开始按轮（提问与回复）填充，
+ * 放不下的最早一轮在剩余预算足够时截断保留结尾，更早的历史记录被丢弃。
+ *
+ * @param history 实际发送的历史记录
+ * @param message 实际发送的问题，超出预算时被截断
+ * @param tokens 估算的提示词令牌数
+ * @param droppedMessages 被丢弃的历史消息数
+ * @param truncated 是否有消息被截断
+ */
+public record PackedPrompt(List<Turn> history, String message, int tokens,
+                           int droppedMessages, boolean truncated) {
+    /**
+     * 截断后一轮对话至少保留的令牌数，剩余预算不足时直接丢弃该轮
+     */
+    private static final int MIN_TRUNCATED_TOKENS = 64;
+
+    /**
+     * @param budget 提示词令牌预算，0 表示不限制
+     */
+    public static PackedPrompt pack(RequestContext context, TokenEstimator estimator, int budget) {
+        int used = 0;
+        if (context.getPersona().isPresent()) {
+            used += estimator.countMessage(context.getPersona().get().getContext());
+        }
+        if (context.getSummary() != null) {
+            used += estimator.countMessage(context.getSummary());
+        }
+
+        // 当前问题必须保留，超出预算时截断结尾
+        String message = context.getMessage();
+        boolean truncated = false;
+        int messageTokens = estimator.countMessage(message);
+        if (budget > 0 && used + messageTokens > budget) {
+            int allowed = Math.max(MIN_TRUNCATED_TOKENS, budget - used) - estimator.messageOverhead();
+            message = estimator.truncate(message, allowed, false);
+            messageTokens = estimator.countMessage(message);
+            truncated = true;
+        }
+        used += messageTokens;
+
+        // 从最新的一轮开始向前填充历史记录
+        List<Turn> history = context.getHistory();
+        List<List<Turn>> turns = new ArrayList<>();
+        int kept = 0;
+        int end = history.size();
+        while (end > 0) {
+            int start = Math.max(0, end - 2);
+            List<Turn> turn = history.subList(start, end);
+            int cost = 0;
+            for (Turn msg : turn) {
+                cost += msg.tokens(estimator, estimator::countMessage);
+            }
+
+            if (budget <= 0 || used + cost <= budget) {
+                turns.add(turn);
+                used += cost;
+                kept += turn.size();
+                end = start;
+                continue;
+            }
+
+            int remaining = budget - used;
+            if (remaining >= MIN_TRUNCATED_TOKENS) {
+                int perMessage = remaining / turn.size() - estimator.messageOverhead();
+                List<Turn> shortened = new ArrayList<>();
+                for (Turn msg : turn) {
+                    Turn copy = msg.withContent(estimator.truncate(msg.content(), perMessage, true));
+                    used += estimator.countMessage(copy.content());
+                    shortened.add(copy);
+                }
+                turns.add(shortened);
+                kept += turn.size();
+                truncated = true;
+            }
+            break;
+        }
+
+        List<Turn> packed = new ArrayList<>(kept);
+        for (int i = turns.size() - 1; i >= 0; i--) {
+            packed.addAll(turns.get(i));
+        }
+        return new PackedPrompt(packed, message, used, history.size() - kept, truncated);
+    }
+}
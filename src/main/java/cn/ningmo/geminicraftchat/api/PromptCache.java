@@ -0,0 +1,134 @@
+package cn.ningmo.geminicraftchat.api;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * 服务商提示词缓存配置，对应模型下的 prompt_cache 配置节
+ * 人设系统消息和历史记录前缀在连续的请求之间保持不变，服务商可缓存这部分前缀以降低延迟和费用：
+ * anthropic 模式在人设消息和最后一条历史消息上添加 cache_control 断点；
+ * openai 模式在请求体中添加按人设区分的 prompt_cache_key，使相同前缀的请求路由到同一缓存。
+ * 响应中的 usage 按 usage_paths 解析缓存命中与写入的令牌数，计入模型统计；
+ * 流式响应从包含 usage 的事件中解析，openai 模式会在流式请求中添加 stream_options.include_usage。
+ *
+ * @param keyPrefix openai 模式下 prompt_cache_key 的前缀，实际取值为 前缀:人设
+ * @param promptTokensPath 未命中缓存（anthropic）或全部（openai）输入令牌数的路径
+ * @param cachedTokensPath 命中缓存的令牌数的路径
+ * @param cacheWriteTokensPath 写入缓存的令牌数的路径，服务商不提供时为 null
+ */
+public record PromptCache(Mode mode, String keyPrefix, JsonPath promptTokensPath, JsonPath cachedTokensPath,
+                          JsonPath cacheWriteTokensPath) {
+    public static final PromptCache DISABLED = new PromptCache(Mode.NONE, "", null, null, null);
+
+    public enum Mode {
+        NONE, ANTHROPIC, OPENAI
+    }
+
+    /**
+     * 单次响应的提示词令牌用量
+     * @param promptTokens 全部输入令牌数，包含命中和写入缓存的部分
+     */
+    public record Usage(long promptTokens, long cachedTokens, long cacheWriteTokens) {
+    }
+
+    public static PromptCache load(ConfigurationSection config) {
+        if (config == null) {
+            return DISABLED;
+        }
+        Mode mode;
+        try {
+            mode = Mode.valueOf(config.getString("mode", "none").trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("无效的提示词缓存模式: " + config.getString("mode"));
+        }
+        if (mode == Mode.NONE) {
+            return DISABLED;
+        }
+
+        ConfigurationSection paths = config.getConfigurationSection("usage_paths");
+        boolean anthropic = mode == Mode.ANTHROPIC;
+        return new PromptCache(
+            mode,
+            config.getString("key_prefix", "geminicraftchat"),
+            path(paths, "prompt_tokens", anthropic ? "usage.input_tokens" : "usage.prompt_tokens"),
+            path(paths, "cached_tokens", anthropic ? "usage.cache_read_input_tokens" : "usage.prompt_tokens_details.cached_tokens"),
+            path(paths, "cache_write_tokens", anthropic ? "usage.cache_creation_input_tokens" : "")
+        );
+    }
+
+    private static JsonPath path(ConfigurationSection paths, String name, String defaultPath) {
+        String path = paths != null ? paths.getString(name, defaultPath) : defaultPath;
+        return path == null || path.isBlank() ? null : JsonPath.compile(path);
+    }
+
+    public boolean enabled() {
+        return mode != Mode.NONE;
+    }
+
+    /**
+     * 是否在消息上添加 cache_control 断点
+     */
+    public boolean marksBreakpoints() {
+        return mode == Mode.ANTHROPIC;
+    }
+
+    /**
+     * 请求体中的 prompt_cache_key 取值
+     */
+    public String keyFor(String personaKey) {
+        return keyPrefix + ":" + personaKey;
+    }
+
+    /**
+     * 从响应体解析提示词令牌用量，响应中没有 usage 时返回 null
+     */
+    public Usage parseUsage(String responseBody) {
+        if (!enabled()) {
+            return null;
+        }
+        long prompt = read(promptTokensPath, responseBody);
+        if (prompt < 0) {
+            return null;
+        }
+        long cached = Math.max(0, read(cachedTokensPath, responseBody));
+        long written = Math.max(0, read(cacheWriteTokensPath, responseBody));
+        // Anthropic 的 input_tokens 不包含命中和写入缓存的令牌
+        if (mode == Mode.ANTHROPIC) {
+            prompt += cached + written;
+        }
+        return new Usage(prompt, cached, written);
+    }
+
+    /**
+     * 从流式响应的单个事件解析提示词令牌用量，事件中没有输入令牌用量时返回 null
+     * Anthropic 的输入令牌用量位于 message_start 事件的 message.usage 中
+     */
+    public Usage parseStreamUsage(String event) {
+        if (!enabled() || !event.contains("\"usage\"")) {
+            return null;
+        }
+        Usage usage = parseUsage(event);
+        if (usage == null && mode == Mode.ANTHROPIC && event.contains("\"message_start\"")) {
+            try {
+                JsonElement message = JsonParser.parseString(event).getAsJsonObject().get("message");
+                usage = message != null && message.isJsonObject() ? parseUsage(message.toString()) : null;
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+        return usage;
+    }
+
+    private static long read(JsonPath path, String responseBody) {
+        if (path == null) {
+            return -1;
+        }
+        try {
+            String value = path.extract(responseBody);
+            return value == null || value.isEmpty() ? -1 : Long.parseLong(value.trim());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
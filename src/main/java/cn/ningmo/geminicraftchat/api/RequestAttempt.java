@@ -0,0 +1,66 @@
+package cn.ningmo.geminicraftchat.api;
+
+import okhttp3.Call;
+
+/**
+ * 对某个模型的一次HTTP请求尝试
+ * 保存正在执行的 OkHttp Call，以便在其他尝试胜出时取消
+ */
+public class RequestAttempt {
+    private final String modelKey;
+    private final boolean hedge;
+    private volatile Call call;
+    private volatile boolean cancelled;
+    private volatile long responseLatency = -1;
+
+    public RequestAttempt(String modelKey, boolean hedge) {
+        this.modelKey = modelKey;
+        this.hedge = hedge;
+    }
+
+    /**
+     * 绑定实际发出的 Call，若尝试已被取消则立即取消该 Call
+     */
+    public void bind(Call call) {
+        this.call = call;
+        if (cancelled) {
+            call.cancel();
+        }
+    }
+
+    public void cancel() {
+        cancelled = true;
+        Call current = call;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    /**
+     * 记录取得 Key 之后到收到响应头的耗时，供隔离舱调整并发上限
+     */
+    public void recordResponseLatency(long millis) {
+        responseLatency = millis;
+    }
+
+    /**
+     * 取出最近一次记录的响应头耗时并清除，未收到响应头时返回 -1
+     */
+    public long takeResponseLatency() {
+        long latency = responseLatency;
+        responseLatency = -1;
+        return latency;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public String getModelKey() {
+        return modelKey;
+    }
+
+    public boolean isHedge() {
+        return hedge;
+    }
+}
@@ -0,0 +1,74 @@
+package cn.ningmo.geminicraftchat.api;
+
+import cn.ningmo.geminicraftchat.history.Turn;
+import cn.ningmo.geminicraftchat.persona.Persona;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * 一次玩家提问的请求上下文
+ * 在提交时固定历史记录快照，故障转移和对冲请求共享同一份上下文
+ * deadline 为整个请求的截止时间（毫秒时间戳），0 表示不限制；summary 为较早对话的摘要，可为 null
+ */
+public class RequestContext {
+    private final String playerId;
+    private final String message;
+    private final Optional<Persona> persona;
+    private final List<Turn> history;
+    private final Consumer<String> deltaListener;
+    private final long deadline;
+    private final String summary;
+
+    public RequestContext(String playerId, String message, Optional<Persona> persona,
+                          List<Turn> history, Consumer<String> deltaListener, long deadline,
+                          String summary) {
+        this.playerId = playerId;
+        this.message = message;
+        this.persona = persona;
+        this.history = history;
+        this.deltaListener = deltaListener;
+        this.deadline = deadline;
+        this.summary = summary;
+    }
+
+    public String getPlayerId() {
+        return playerId;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public Optional<Persona> getPersona() {
+        return persona;
+    }
+
+    public List<Turn> getHistory() {
+        return history;
+    }
+
+    public Consumer<String> getDeltaListener() {
+        return deltaListener;
+    }
+
+    public String getSummary() {
+        return summary;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public boolean isPastDeadline() {
+        return deadline > 0 && System.currentTimeMillis() >= deadline;
+    }
+
+    /**
+     * 距离截止时间的剩余毫秒数，不限制时返回 Long.MAX_VALUE
+     */
+    public long remainingMillis() {
+        return deadline > 0 ? deadline - System.currentTimeMillis() : Long.MAX_VALUE;
+    }
+}
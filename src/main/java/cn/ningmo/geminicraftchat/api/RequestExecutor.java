@@ -0,0 +1,141 @@
+package cn.ningmo.geminicraftchat.api;
+
+import cn.ningmo.geminicraftchat.GeminiCraftChat;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AI请求专用执行器
+ * 默认使用虚拟线程执行阻塞的HTTP调用，并通过信号量限制同时进行的请求数，
+ * 避免占用 ForkJoinPool.commonPool 影响服务器上的其他插件
+ */
+public class RequestExecutor {
+    private final GeminiCraftChat plugin;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService scheduler;
+    private final Semaphore permits;
+    private final AtomicInteger activeRequests;
+    private final String type;
+    private final int maxConcurrent;
+
+    public RequestExecutor(GeminiCraftChat plugin) {
+        this.plugin = plugin;
+        ConfigurationSection config = plugin.getConfigManager().getConfig().getConfigurationSection("api.executor");
+
+        this.type = config != null ? config.getString("type", "virtual") : "virtual";
+        this.maxConcurrent = Math.max(1, config != null ? config.getInt("max_concurrent", 256) : 256);
+        int poolSize = Math.max(1, config != null ? config.getInt("pool_size", 8) : 8);
+        String threadName = config != null ? config.getString("thread_name", "GeminiCraftChat-Request") : "GeminiCraftChat-Request";
+
+        if ("platform".equalsIgnoreCase(type)) {
+            this.executor = Executors.newFixedThreadPool(poolSize, platformThreadFactory(threadName));
+            plugin.debug("请求执行器: 平台线程池，线程数 " + poolSize + "，最大并发 " + maxConcurrent);
+        } else {
+            ThreadFactory factory = Thread.ofVirtual().name(threadName + "-", 0).factory();
+            this.executor = Executors.newThreadPerTaskExecutor(factory);
+            plugin.debug("请求执行器: 虚拟线程，最大并发 " + maxConcurrent);
+        }
+
+        // 单线程定时器，只用于触发对冲等延迟动作，不执行阻塞任务
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(platformThreadFactory("GeminiCraftChat-Scheduler"));
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.activeRequests = new AtomicInteger(0);
+    }
+
+    /**
+     * 提交一个阻塞任务，返回在任务完成时结束的 Future
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> runTask(task, future));
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new IllegalStateException("请求执行器已关闭", e));
+        }
+        return future;
+    }
+
+    /**
+     * 延迟执行一个轻量动作，执行器关闭后返回 null
+     */
+    public ScheduledFuture<?> schedule(Runnable action, long delayMillis) {
+        try {
+            return scheduler.schedule(action, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    private <T> void runTask(Callable<T> task, CompletableFuture<T> future) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return;
+        }
+
+        activeRequests.incrementAndGet();
+        try {
+            future.complete(task.call());
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+        } finally {
+            activeRequests.decrementAndGet();
+            permits.release();
+        }
+    }
+
+    public int getActiveRequests() {
+        return activeRequests.get();
+    }
+
+    public int getQueuedRequests() {
+        return permits.getQueueLength();
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * 关闭执行器，等待正在执行的请求结束
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        plugin.debug("请求执行器已关闭");
+    }
+
+    private static ThreadFactory platformThreadFactory(String threadName) {
+        AtomicInteger counter = new AtomicInteger(0);
+        return runnable -> {
+            Thread thread = new Thread(runnable, threadName + "-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,141 @@
+package cn.ningmo.geminicraftchat.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * 可取消的请求句柄
+ * 每次玩家提问对应一个句柄，玩家退出或插件重载时取消句柄，
+ * 排队中的请求被移出队列，进行中的 OkHttp Call 被取消。
+ * 多个玩家共享同一个合并请求时，句柄按引用计数释放，最后一个参与者取消时才真正取消请求。
+ * 句柄可带有截止时间，到期时以 {@link DeadlineExceededException} 取消。
+ */
+public class RequestHandle {
+    private final String playerId;
+    private final long deadline;
+    private final List<Runnable> cancelActions = new ArrayList<>();
+    private int references = 1;
+    private boolean cancelled;
+    private boolean expired;
+    private String reason;
+
+    public RequestHandle(String playerId) {
+        this(playerId, 0);
+    }
+
+    /**
+     * @param deadline 截止时间（毫秒时间戳），0 表示不限制
+     */
+    public RequestHandle(String playerId, long deadline) {
+        this.playerId = playerId;
+        this.deadline = deadline;
+    }
+
+    /**
+     * 增加一个共享该请求的参与者，句柄已取消时返回 false
+     */
+    public synchronized boolean retain() {
+        if (cancelled) {
+            return false;
+        }
+        references++;
+        return true;
+    }
+
+    /**
+     * 一个参与者放弃该请求，没有参与者时取消请求
+     */
+    public void release(String reason) {
+        synchronized (this) {
+            if (cancelled || --references > 0) {
+                return;
+            }
+        }
+        cancel(reason);
+    }
+
+    /**
+     * 截止时间已到，取消请求
+     * @return 请求此前尚未取消时返回 true
+     */
+    public boolean expire() {
+        synchronized (this) {
+            if (cancelled) {
+                return false;
+            }
+            expired = true;
+        }
+        cancel("已超过截止时间");
+        return true;
+    }
+
+    /**
+     * 立即取消请求
+     */
+    public void cancel(String reason) {
+        List<Runnable> actions;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            this.reason = reason;
+            actions = new ArrayList<>(cancelActions);
+            cancelActions.clear();
+        }
+        for (Runnable action : actions) {
+            action.run();
+        }
+    }
+
+    /**
+     * 注册取消时执行的动作，句柄已取消时立即执行
+     */
+    public void onCancel(Runnable action) {
+        synchronized (this) {
+            if (!cancelled) {
+                cancelActions.add(action);
+                return;
+            }
+        }
+        action.run();
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    public synchronized String getReason() {
+        return reason;
+    }
+
+    public synchronized boolean isExpired() {
+        return expired;
+    }
+
+    /**
+     * 创建表示本次取消的异常，超过截止时间时为 {@link DeadlineExceededException}
+     */
+    public synchronized CancellationException cancellationException() {
+        if (expired) {
+            return new DeadlineExceededException("请求超时，" + reason);
+        }
+        return new CancellationException(reason != null ? reason : "请求已取消");
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * 距离截止时间的剩余毫秒数，不限制时返回 Long.MAX_VALUE
+     */
+    public long remainingMillis() {
+        return deadline > 0 ? deadline - System.currentTimeMillis() : Long.MAX_VALUE;
+    }
+
+    public String getPlayerId() {
+        return playerId;
+    }
+}
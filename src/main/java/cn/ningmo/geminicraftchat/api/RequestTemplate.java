@@ -0,0 +1,282 @@
+package cn.ningmo.geminicraftchat.api;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 预编译的请求体模板
+ * body_template 在加载时解析一次，额外参数合并进模板，结果切分为固定的 UTF-8 字节片段和占位符，
+ * 发送请求时按顺序写入 HTTP 输出流，不再进行字符串替换和 JSON 重新解析
+ */
+public class RequestTemplate {
+    public static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private static final Gson TEMPLATE_GSON = new GsonBuilder().disableHtmlEscaping().create();
+    // 字符串内的占位符以 \u0001 包裹，独立值占位符以 \u0002 包裹；Gson 输出时会转义为 \\u0001 / \\u0002
+    private static final char IN_STRING_MARK = '\u0001';
+    private static final char VALUE_MARK = '\u0002';
+    private static final Pattern SLOT_PATTERN = Pattern.compile(
+        "\"\\\\u0002(\\w+)\\\\u0002\"|\\\\u0001(\\w+)\\\\u0001");
+
+    public enum Placeholder {
+        MODEL("model"),
+        MESSAGES("messages"),
+        TEMPERATURE("temperature"),
+        MAX_TOKENS("max_tokens"),
+        API_KEY("api_key"),
+        PROMPT_CACHE_KEY("prompt_cache_key");
+
+        private final String name;
+
+        Placeholder(String name) {
+            this.name = name;
+        }
+
+        static Placeholder byName(String name) {
+            for (Placeholder placeholder : values()) {
+                if (placeholder.name.equals(name)) {
+                    return placeholder;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 写入消息数组的回调，直接向输出流写出 JSON 数组
+     */
+    @FunctionalInterface
+    public interface MessagesWriter {
+        void write(BufferedSink sink) throws IOException;
+    }
+
+    /**
+     * 单次请求的变量取值
+     */
+    public record Values(String model, double temperature, int maxTokens, String apiKey, String promptCacheKey,
+                         MessagesWriter messages) {
+    }
+
+    private record Segment(byte[] literal, Placeholder placeholder, boolean inString) {
+    }
+
+    private final List<Segment> segments;
+
+    private RequestTemplate(List<Segment> segments) {
+        this.segments = segments;
+    }
+
+    /**
+     * 编译请求体模板
+     * @param bodyTemplate 配置中的 body_template
+     * @param parameters 额外参数，合并到请求体顶层
+     * @param stream 是否为流式请求
+     * @param promptCache 提示词缓存配置，openai 模式下添加 prompt_cache_key
+     */
+    public static RequestTemplate compile(String bodyTemplate, ConfigurationSection parameters, boolean stream,
+                                          PromptCache promptCache) {
+        JsonObject bodyJson;
+        try {
+            bodyJson = JsonParser.parseString(markPlaceholders(bodyTemplate)).getAsJsonObject();
+        } catch (Exception e) {
+            throw new IllegalStateException("请求体模板无效: " + e.getMessage(), e);
+        }
+
+        if (parameters != null) {
+            for (String key : parameters.getKeys(false)) {
+                addParameterToJson(bodyJson, key, parameters.get(key));
+            }
+        }
+
+        // 流式模式：请求服务端以 SSE 逐段返回
+        if (stream && !bodyJson.has("stream")) {
+            bodyJson.addProperty("stream", true);
+        }
+
+        // 提示词缓存：按人设区分缓存键，使相同前缀的请求命中同一缓存
+        if (promptCache.mode() == PromptCache.Mode.OPENAI && !bodyJson.has("prompt_cache_key")) {
+            bodyJson.addProperty("prompt_cache_key", VALUE_MARK + Placeholder.PROMPT_CACHE_KEY.name + VALUE_MARK);
+        }
+
+        // 流式响应默认不包含 usage，openai 模式下要求在最后一个事件中返回，用于统计缓存命中
+        if (stream && promptCache.mode() == PromptCache.Mode.OPENAI && !bodyJson.has("stream_options")) {
+            JsonObject streamOptions = new JsonObject();
+            streamOptions.addProperty("include_usage", true);
+            bodyJson.add("stream_options", streamOptions);
+        }
+
+        String compiled = TEMPLATE_GSON.toJson(bodyJson);
+        List<Segment> segments = new ArrayList<>();
+        Matcher matcher = SLOT_PATTERN.matcher(compiled);
+        int last = 0;
+        while (matcher.find()) {
+            boolean inString = matcher.group(1) == null;
+            Placeholder placeholder = Placeholder.byName(inString ? matcher.group(2) : matcher.group(1));
+            if (matcher.start() > last) {
+                segments.add(literal(compiled.substring(last, matcher.start())));
+            }
+            segments.add(new Segment(null, placeholder, inString));
+            last = matcher.end();
+        }
+        if (last < compiled.length()) {
+            segments.add(literal(compiled.substring(last)));
+        }
+
+        return new RequestTemplate(List.copyOf(segments));
+    }
+
+    /**
+     * 将模板中的占位符替换为标记，使模板成为合法 JSON
+     */
+    private static String markPlaceholders(String template) {
+        StringBuilder result = new StringBuilder(template.length() + 16);
+        boolean inString = false;
+        int i = 0;
+        while (i < template.length()) {
+            char c = template.charAt(i);
+            if (inString && c == '\\' && i + 1 < template.length()) {
+                result.append(c).append(template.charAt(i + 1));
+                i += 2;
+                continue;
+            }
+            if (c == '"') {
+                inString = !inString;
+            } else if (c == '{') {
+                int end = template.indexOf('}', i);
+                if (end > i && Placeholder.byName(template.substring(i + 1, end)) != null) {
+                    String name = template.substring(i + 1, end);
+                    if (inString) {
+                        result.append(IN_STRING_MARK).append(name).append(IN_STRING_MARK);
+                    } else {
+                        result.append('"').append(VALUE_MARK).append(name).append(VALUE_MARK).append('"');
+                    }
+                    i = end + 1;
+                    continue;
+                }
+            }
+            result.append(c);
+            i++;
+        }
+        return result.toString();
+    }
+
+    private static Segment literal(String text) {
+        return new Segment(text.getBytes(StandardCharsets.UTF_8), null, false);
+    }
+
+    // 辅助方法：添加参数到JSON
+    private static void addParameterToJson(JsonObject json, String key, Object value) {
+        if (value != null) {
+            if (value instanceof Boolean) {
+                json.addProperty(key, (Boolean) value);
+            } else if (value instanceof Number) {
+                json.addProperty(key, (Number) value);
+            } else if (value instanceof String) {
+                json.addProperty(key, (String) value);
+            }
+        }
+    }
+
+    /**
+     * 将请求体写入输出流
+     */
+    public void writeTo(BufferedSink sink, Values values) throws IOException {
+        for (Segment segment : segments) {
+            if (segment.literal != null) {
+                sink.write(segment.literal);
+            } else if (segment.inString) {
+                sink.writeUtf8(escape(textValue(segment.placeholder, values)));
+            } else {
+                writeValue(sink, segment.placeholder, values);
+            }
+        }
+    }
+
+    private void writeValue(BufferedSink sink, Placeholder placeholder, Values values) throws IOException {
+        switch (placeholder) {
+            case MESSAGES -> values.messages().write(sink);
+            case TEMPERATURE, MAX_TOKENS -> sink.writeUtf8(textValue(placeholder, values));
+            default -> sink.writeUtf8("\"").writeUtf8(escape(textValue(placeholder, values))).writeUtf8("\"");
+        }
+    }
+
+    private String textValue(Placeholder placeholder, Values values) {
+        return switch (placeholder) {
+            case MODEL -> values.model() != null ? values.model() : "";
+            case TEMPERATURE -> String.valueOf(values.temperature());
+            case MAX_TOKENS -> String.valueOf(values.maxTokens());
+            case API_KEY -> values.apiKey() != null ? values.apiKey() : "";
+            case PROMPT_CACHE_KEY -> values.promptCacheKey() != null ? values.promptCacheKey() : "";
+            case MESSAGES -> "";
+        };
+    }
+
+    /**
+     * 渲染为字符串，仅在需要记录请求体时使用
+     */
+    public String render(Values values) throws IOException {
+        Buffer buffer = new Buffer();
+        writeTo(buffer, values);
+        return buffer.readUtf8();
+    }
+
+    /**
+     * 创建直接从模板写出的请求体，不产生中间字符串
+     */
+    public RequestBody toRequestBody(Values values) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return JSON;
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                RequestTemplate.this.writeTo(sink, values);
+            }
+        };
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement = null;
+            if (c == '"' || c == '\\') {
+                replacement = "\\" + c;
+            } else if (c == '\n') {
+                replacement = "\\n";
+            } else if (c == '\r') {
+                replacement = "\\r";
+            } else if (c == '\t') {
+                replacement = "\\t";
+            } else if (c < 0x20) {
+                replacement = String.format("\\u%04x", (int) c);
+            }
+
+            if (replacement != null) {
+                if (escaped == null) {
+                    escaped = new StringBuilder(value.length() + 16).append(value, 0, i);
+                }
+                escaped.append(replacement);
+            } else if (escaped != null) {
+                escaped.append(c);
+            }
+        }
+        return escaped != null ? escaped.toString() : value;
+    }
+}
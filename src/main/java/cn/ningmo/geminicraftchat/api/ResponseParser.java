@@ -0,0 +1,110 @@
+package cn.ningmo.geminicraftchat.api;
+
+import com.google.gson.JsonParser;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * 模型响应解析器
+ * 加载时将 response 配置中的 content_path / error_path / delta_path 编译为 JsonPath
+ */
+public class ResponseParser {
+    private final JsonPath contentPath;
+    private final JsonPath errorPath;
+    private final JsonPath deltaPath;
+
+    public ResponseParser(JsonPath contentPath, JsonPath errorPath, JsonPath deltaPath) {
+        this.contentPath = contentPath;
+        this.errorPath = errorPath;
+        this.deltaPath = deltaPath;
+    }
+
+    /**
+     * 从模型的 response 配置编译解析器
+     */
+    public static ResponseParser compile(ConfigurationSection responseConfig) {
+        if (responseConfig == null) {
+            throw new IllegalStateException("响应配置不存在");
+        }
+        return new ResponseParser(
+            JsonPath.compile(responseConfig.getString("content_path", "choices[0].message.content")),
+            JsonPath.compile(responseConfig.getString("error_path", "error.message")),
+            JsonPath.compile(responseConfig.getString("delta_path", "choices[0].delta.content"))
+        );
+    }
+
+    /**
+     * 提取回复内容，流式解析找不到路径时回退到完整解析以给出具体错误
+     */
+    public String parseContent(String responseBody) throws IOException {
+        String content;
+        try {
+            content = contentPath.extract(responseBody);
+        } catch (Exception e) {
+            content = null;
+        }
+
+        if (content == null) {
+            try {
+                content = contentPath.extract(JsonParser.parseString(responseBody));
+            } catch (Exception e) {
+                throw new IOException("响应解析失败: " + e.getMessage());
+            }
+        }
+        return content;
+    }
+
+    /**
+     * 直接从响应体字符流提取回复内容，不缓冲完整响应
+     * 字符流只能读取一次，找不到路径时无法回退到完整解析，只报告配置的路径
+     */
+    public String parseContent(Reader responseBody) throws IOException {
+        String content;
+        try {
+            content = contentPath.extract(responseBody);
+        } catch (IOException | RuntimeException e) {
+            throw new IOException("响应解析失败: " + e.getMessage());
+        }
+        if (content == null) {
+            throw new IOException("响应解析失败: 路径不存在: " + contentPath.getPath());
+        }
+        return content;
+    }
+
+    /**
+     * 提取错误信息，响应中没有错误字段时返回 null
+     */
+    public String parseError(String responseBody) {
+        try {
+            String error = errorPath.extract(responseBody);
+            return error == null || error.isEmpty() ? null : error;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * 提取流式事件中的增量内容，事件中不包含增量时返回 null
+     */
+    public String parseDelta(String eventData) {
+        try {
+            return deltaPath.extract(eventData);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public JsonPath getContentPath() {
+        return contentPath;
+    }
+
+    public JsonPath getErrorPath() {
+        return errorPath;
+    }
+
+    public JsonPath getDeltaPath() {
+        return deltaPath;
+    }
+}
@@ -0,0 +1,66 @@
+package cn.ningmo.geminicraftchat.api;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 请求重试策略
+ * 可重试的失败按指数退避加随机抖动重试，总耗时不超过 max_elapsed_ms
+ *
+ * @param maxAttempts 单个模型最多尝试的次数（含首次请求）
+ * @param baseDelayMillis 首次重试的基础延迟
+ * @param maxDelayMillis 单次重试延迟上限
+ * @param maxElapsedMillis 单个模型所有尝试的总耗时上限，超过后不再重试
+ */
+public record RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, long maxElapsedMillis) {
+    public static RetryPolicy load(ConfigurationSection config) {
+        if (config == null) {
+            return new RetryPolicy(3, 500, 4000, 30000);
+        }
+        return new RetryPolicy(
+            Math.max(1, config.getInt("max_attempts", 3)),
+            Math.max(0, config.getLong("base_delay_ms", 500)),
+            Math.max(0, config.getLong("max_delay_ms", 4000)),
+            Math.max(0, config.getLong("max_elapsed_ms", 30000))
+        );
+    }
+
+    /**
+     * 计算第 n 次失败后的等待时间：上限的一半固定，另一半随机
+     */
+    public long backoffMillis(int failedAttempts) {
+        long ceiling = baseDelayMillis << Math.min(failedAttempts - 1, 20);
+        ceiling = Math.min(maxDelayMillis, Math.max(0, ceiling));
+        long half = ceiling / 2;
+        return half + (half > 0 ? ThreadLocalRandom.current().nextLong(half + 1) : 0);
+    }
+
+    /**
+     * 判断失败是否值得重试：服务端错误、限流、超时与网络异常可重试；
+     * 客户端错误、解析失败、熔断、隔离舱已满以及 Key 额度等待超时不重试
+     */
+    public static boolean isRetryable(Throwable failure) {
+        if (failure instanceof ApiException apiException) {
+            return apiException.isRetryable();
+        }
+        if (failure instanceof ApiKeyPool.KeyThrottledException) {
+            return true;
+        }
+        if (failure instanceof ApiKeyPool.RateLimitedException
+            || failure instanceof ModelBulkhead.BulkheadFullException
+            || failure instanceof CircuitBreaker.CircuitOpenException) {
+            return false;
+        }
+        if (failure instanceof SocketTimeoutException) {
+            return true;
+        }
+        if (failure instanceof InterruptedIOException) {
+            return false;
+        }
+        return failure instanceof IOException;
+    }
+}
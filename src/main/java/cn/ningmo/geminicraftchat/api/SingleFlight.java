@@ -0,0 +1,73 @@
+package cn.ningmo.geminicraftchat.api;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 相同请求合并
+ * 同一个键在请求进行期间到达的后续调用共享首个调用的 Future，只向API发送一次请求。
+ * 每个合并请求带有一个按引用计数的共享句柄，与 Future 一起登记，
+ * 加入的调用在返回前即已持有引用，所有参与者都释放后才取消实际请求。
+ */
+public class SingleFlight<T> {
+    /**
+     * 一次调用的结果
+     * @param future 共享的结果 Future
+     * @param handle 共享句柄，本次调用已持有一个引用，放弃请求时应调用 release
+     * @param leader 是否由本次调用实际发起请求
+     */
+    public record Flight<T>(CompletableFuture<T> future, RequestHandle handle, boolean leader) {
+    }
+
+    private record InFlight<T>(CompletableFuture<T> future, RequestHandle handle) {
+    }
+
+    private final Map<String, InFlight<T>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * 执行或加入一个进行中的请求
+     * @param key 请求键，为 null 时不合并
+     * @param ownerId 发起请求的玩家，用于创建共享句柄
+     * @param request 实际发起请求的回调，参数为共享句柄
+     */
+    public Flight<T> execute(String key, String ownerId, Function<RequestHandle, CompletableFuture<T>> request) {
+        RequestHandle handle = new RequestHandle(ownerId);
+        if (key == null) {
+            return new Flight<>(start(request, handle), handle, true);
+        }
+
+        InFlight<T> created = new InFlight<>(new CompletableFuture<>(), handle);
+        InFlight<T> existing;
+        while ((existing = inFlight.putIfAbsent(key, created)) != null) {
+            if (existing.handle().retain()) {
+                return new Flight<>(existing.future(), existing.handle(), false);
+            }
+            // 共享句柄已被全部参与者放弃，请求即将以取消结束，由本次调用重新发起
+            inFlight.remove(key, existing);
+        }
+
+        start(request, handle).whenComplete((result, throwable) -> {
+            inFlight.remove(key, created);
+            if (throwable != null) {
+                created.future().completeExceptionally(throwable);
+            } else {
+                created.future().complete(result);
+            }
+        });
+        return new Flight<>(created.future(), handle, true);
+    }
+
+    private CompletableFuture<T> start(Function<RequestHandle, CompletableFuture<T>> request, RequestHandle handle) {
+        try {
+            return request.apply(handle);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public int size() {
+        return inFlight.size();
+    }
+}
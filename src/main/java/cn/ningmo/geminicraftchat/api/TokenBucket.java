@@ -0,0 +1,93 @@
+package cn.ningmo.geminicraftchat.api;
+
+/**
+ * 令牌桶
+ * 按每分钟额度匀速补充令牌；服务商返回限额响应头时以服务商的剩余额度与重置时间为准。
+ * 额度为 0 表示不限制。
+ */
+public class TokenBucket {
+    private static final long MINUTE_MILLIS = 60_000;
+
+    private double capacity;
+    private double tokens;
+    private double refillPerMilli;
+    private long lastRefill;
+
+    public TokenBucket(long perMinute) {
+        this.capacity = perMinute;
+        this.tokens = perMinute;
+        this.refillPerMilli = perMinute / (double) MINUTE_MILLIS;
+        this.lastRefill = System.currentTimeMillis();
+    }
+
+    public synchronized boolean isUnlimited() {
+        return capacity <= 0;
+    }
+
+    /**
+     * 当前可用额度占总额度的比例，不限制时为 1
+     */
+    public synchronized double headroom() {
+        if (capacity <= 0) {
+            return 1.0;
+        }
+        refill();
+        return tokens / capacity;
+    }
+
+    /**
+     * 距离可用额度达到 amount 还需等待的毫秒数
+     */
+    public synchronized long millisUntil(double amount) {
+        if (capacity <= 0) {
+            return 0;
+        }
+        refill();
+        double needed = Math.min(amount, capacity) - tokens;
+        if (needed <= 0) {
+            return 0;
+        }
+        return refillPerMilli > 0 ? (long) Math.ceil(needed / refillPerMilli) : Long.MAX_VALUE;
+    }
+
+    /**
+     * 扣除额度，额度超过桶容量的请求在桶满时也允许通过
+     */
+    public synchronized void consume(double amount) {
+        if (capacity <= 0) {
+            return;
+        }
+        refill();
+        tokens -= Math.min(amount, capacity);
+    }
+
+    /**
+     * 使用服务商返回的额度信息校准令牌桶
+     * @param limit 总额度，未知时传入 -1
+     * @param remaining 剩余额度
+     * @param resetMillis 距离额度完全恢复的毫秒数，未知时传入 -1
+     */
+    public synchronized void sync(long limit, long remaining, long resetMillis) {
+        long now = System.currentTimeMillis();
+        if (limit > 0) {
+            capacity = limit;
+        } else if (capacity <= 0) {
+            capacity = Math.max(remaining, 1);
+        }
+        tokens = Math.min(remaining, capacity);
+        // 按重置时间恢复，但不慢于每分钟额度的匀速补充
+        refillPerMilli = capacity / (double) MINUTE_MILLIS;
+        if (resetMillis > 0) {
+            refillPerMilli = Math.max(refillPerMilli, (capacity - tokens) / resetMillis);
+        }
+        lastRefill = now;
+    }
+
+    private void refill() {
+        long now = System.currentTimeMillis();
+        if (now > lastRefill) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * refillPerMilli);
+            lastRefill = now;
+        }
+    }
+}
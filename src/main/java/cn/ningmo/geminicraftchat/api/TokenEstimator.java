@@ -0,0 +1,111 @@
+package cn.ningmo.geminicraftchat.api;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * 本地令牌数估算器
+ * 按 BPE 分词器的典型切分规律估算：连续的字母数字按每个令牌的平均字符数计算，
+ * 中日韩字符按每字令牌数计算，标点符号各占一个令牌，空白并入后一个词。
+ * 不同模型的分词器差异通过模型下的 tokenizer 配置节校准。
+ *
+ * @param charsPerToken 英文等字母文字平均每个令牌的字符数
+ * @param cjkTokensPerChar 中日韩字符每个字对应的令牌数
+ * @param messageOverhead 每条消息的角色、分隔符等固定开销
+ */
+public record TokenEstimator(double charsPerToken, double cjkTokensPerChar, int messageOverhead) {
+    public static final TokenEstimator DEFAULT = new TokenEstimator(4.0, 1.0, 4);
+
+    public static TokenEstimator load(ConfigurationSection config) {
+        if (config == null) {
+            return DEFAULT;
+        }
+        return new TokenEstimator(
+            Math.max(1.0, config.getDouble("chars_per_token", DEFAULT.charsPerToken())),
+            Math.max(0.1, config.getDouble("cjk_tokens_per_char", DEFAULT.cjkTokensPerChar())),
+            Math.max(0, config.getInt("message_overhead", DEFAULT.messageOverhead()))
+        );
+    }
+
+    /**
+     * 估算一段文本的令牌数
+     */
+    public int count(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+
+        double tokens = 0;
+        int wordLength = 0;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+
+            if (Character.isLetterOrDigit(codePoint) && !isCjk(codePoint)) {
+                wordLength++;
+                continue;
+            }
+            if (wordLength > 0) {
+                tokens += Math.ceil(wordLength / charsPerToken);
+                wordLength = 0;
+            }
+            if (isCjk(codePoint)) {
+                tokens += cjkTokensPerChar;
+            } else if (!Character.isWhitespace(codePoint)) {
+                tokens += 1;
+            }
+        }
+        if (wordLength > 0) {
+            tokens += Math.ceil(wordLength / charsPerToken);
+        }
+        return (int) Math.ceil(tokens);
+    }
+
+    /**
+     * 估算一条消息的令牌数，包含固定开销
+     */
+    public int countMessage(String content) {
+        return count(content) + messageOverhead;
+    }
+
+    /**
+     * 截断文本使其不超过指定令牌数
+     * @param keepEnd true 保留结尾（用于较早的历史记录），false 保留开头
+     */
+    public String truncate(String text, int maxTokens, boolean keepEnd) {
+        if (text == null || count(text) <= maxTokens) {
+            return text;
+        }
+        if (maxTokens <= 0) {
+            return "";
+        }
+
+        // 按码点二分查找能保留的最大长度，不会拆开代理对
+        int low = 0;
+        int high = text.codePointCount(0, text.length());
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (count(slice(text, mid, keepEnd)) + 1 <= maxTokens) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return keepEnd ? "…" + slice(text, low, keepEnd) : slice(text, low, keepEnd) + "…";
+    }
+
+    // 取开头或结尾的若干个码点
+    private static String slice(String text, int codePoints, boolean fromEnd) {
+        return fromEnd
+            ? text.substring(text.offsetByCodePoints(text.length(), -codePoints))
+            : text.substring(0, text.offsetByCodePoints(0, codePoints));
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+            || script == Character.UnicodeScript.HIRAGANA
+            || script == Character.UnicodeScript.KATAKANA
+            || script == Character.UnicodeScript.HANGUL
+            || codePoint >= 0xFF00 && codePoint <= 0xFFEF;
+    }
+}
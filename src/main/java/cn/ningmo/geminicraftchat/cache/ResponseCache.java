@@ -0,0 +1,423 @@
+package cn.ningmo.geminicraftchat.cache;
+
+import cn.ningmo.geminicraftchat.GeminiCraftChat;
+import cn.ningmo.geminicraftchat.history.Turn;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * AI回复精确匹配缓存
+ * 以 模型 + 人设 + 规范化问题 + 历史指纹 为键，按条目数和字节数限制容量，
+ * 过期条目按 TTL 淘汰，超出容量时淘汰最久未使用的条目，可选在关闭时保存快照以便重启后直接命中
+ */
+public class ResponseCache {
+    private static final int SNAPSHOT_MAGIC = 0x47434352; // "GCCR"
+    private static final int SNAPSHOT_VERSION = 1;
+    // 每个条目除字符串内容外的估算开销
+    private static final int ENTRY_OVERHEAD = 96;
+
+    /**
+     * 历史记录参与缓存键的方式
+     */
+    public enum HistoryPolicy {
+        // 仅在玩家没有对话历史时使用缓存
+        STATELESS,
+        // 忽略对话历史
+        IGNORE,
+        // 对话历史完全一致时才命中
+        EXACT;
+
+        static HistoryPolicy parse(String value) {
+            try {
+                return valueOf(value.toUpperCase(Locale.ROOT));
+            } catch (Exception e) {
+                return STATELESS;
+            }
+        }
+    }
+
+    private record Entry(String response, long expiresAt, int weight) {
+    }
+
+    private record PersonaPolicy(boolean enabled, long ttlMillis) {
+    }
+
+    private final GeminiCraftChat plugin;
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlMillis;
+    private final HistoryPolicy historyPolicy;
+    private final boolean snapshotEnabled;
+    private final File snapshotFile;
+    private final Map<String, PersonaPolicy> personaPolicies;
+    private final LinkedHashMap<String, Entry> entries;
+
+    // 快照已交给重载后的新缓存，关闭时不再覆盖快照文件
+    private volatile boolean handedOver;
+
+    private long currentBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    public ResponseCache(GeminiCraftChat plugin) {
+        this.plugin = plugin;
+        ConfigurationSection config = plugin.getConfigManager().getConfig().getConfigurationSection("cache");
+
+        this.enabled = config != null && config.getBoolean("enabled", false);
+        this.maxEntries = Math.max(1, config != null ? config.getInt("max_entries", 1000) : 1000);
+        this.maxBytes = Math.max(1024, config != null ? config.getLong("max_bytes", 4L * 1024 * 1024) : 4L * 1024 * 1024);
+        this.ttlMillis = Math.max(1, config != null ? config.getLong("ttl_seconds", 3600) : 3600) * 1000L;
+        this.historyPolicy = HistoryPolicy.parse(config != null ? config.getString("history_policy", "stateless") : "stateless");
+        this.snapshotEnabled = config != null && config.getBoolean("snapshot.enabled", false);
+        this.snapshotFile = new File(plugin.getDataFolder(),
+            config != null ? config.getString("snapshot.file", "response_cache.dat") : "response_cache.dat");
+        this.personaPolicies = loadPersonaPolicies();
+        this.entries = new LinkedHashMap<>(64, 0.75f, true);
+
+        if (enabled && snapshotEnabled) {
+            loadSnapshot();
+        }
+    }
+
+    private Map<String, PersonaPolicy> loadPersonaPolicies() {
+        Map<String, PersonaPolicy> policies = new HashMap<>();
+        ConfigurationSection personas = plugin.getConfigManager().getConfig().getConfigurationSection("personas");
+        if (personas != null) {
+            for (String key : personas.getKeys(false)) {
+                ConfigurationSection persona = personas.getConfigurationSection(key);
+                if (persona == null) {
+                    continue;
+                }
+                long ttl = persona.getLong("cache_ttl_seconds", ttlMillis / 1000L) * 1000L;
+                policies.put(key, new PersonaPolicy(persona.getBoolean("cache", true), Math.max(1000L, ttl)));
+            }
+        }
+        return policies;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 计算缓存键，不可缓存时返回 null
+     * @param modelKey 模型标识
+     * @param personaKey 人设标识，可为 null
+     * @param question 玩家问题
+     * @param history 当前对话历史（按 role、content 交替）
+     */
+    public String createKey(String modelKey, String personaKey, String question, List<Turn> history) {
+        if (!enabled) {
+            return null;
+        }
+        if (personaKey != null) {
+            PersonaPolicy policy = personaPolicies.get(personaKey);
+            if (policy != null && !policy.enabled()) {
+                return null;
+            }
+        }
+
+        String fingerprint;
+        switch (historyPolicy) {
+            case STATELESS:
+                if (!history.isEmpty()) {
+                    return null;
+                }
+                fingerprint = "";
+                break;
+            case EXACT:
+                fingerprint = fingerprint(history);
+                break;
+            default:
+                fingerprint = "";
+                break;
+        }
+
+        return modelKey + '\u0000' + (personaKey != null ? personaKey : "") + '\u0000'
+            + normalize(question) + '\u0000' + fingerprint;
+    }
+
+    /**
+     * 规范化问题：去除首尾空白和句末标点，合并连续空白，统一为小写
+     */
+    public static String normalize(String question) {
+        StringBuilder normalized = new StringBuilder(question.length());
+        boolean lastSpace = false;
+        for (int i = 0; i < question.length(); i++) {
+            char c = question.charAt(i);
+            if (Character.isWhitespace(c)) {
+                if (!lastSpace && normalized.length() > 0) {
+                    normalized.append(' ');
+                }
+                lastSpace = true;
+            } else {
+                normalized.append(Character.toLowerCase(c));
+                lastSpace = false;
+            }
+        }
+
+        int end = normalized.length();
+        while (end > 0 && "?？!！.。~～ ".indexOf(normalized.charAt(end - 1)) >= 0) {
+            end--;
+        }
+        normalized.setLength(end);
+        return normalized.toString();
+    }
+
+    private static String fingerprint(List<Turn> history) {
+        long hash = 0xcbf29ce484222325L;
+        for (Turn message : history) {
+            // 转义后的内容与原内容一一对应，直接按其计算，无需解析内容
+            hash = fnv(hash, message.role().apiName());
+            hash = fnv(hash, message.escaped());
+        }
+        return Long.toHexString(hash) + ":" + history.size();
+    }
+
+    private static long fnv(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= 0xff;
+        return hash * 0x100000001b3L;
+    }
+
+    /**
+     * 查询缓存，未命中或已过期返回 null
+     */
+    public synchronized String get(String key) {
+        if (key == null) {
+            return null;
+        }
+
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (entry.expiresAt() <= System.currentTimeMillis()) {
+            removeEntry(key, entry);
+            expirations++;
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return entry.response();
+    }
+
+    /**
+     * 写入缓存
+     * @param personaKey 用于确定人设单独配置的 TTL
+     */
+    public synchronized void put(String key, String personaKey, String response) {
+        if (key == null || response == null || response.isEmpty()) {
+            return;
+        }
+
+        int weight = ENTRY_OVERHEAD + (key.length() + response.length()) * 2;
+        if (weight > maxBytes) {
+            return;
+        }
+
+        PersonaPolicy policy = personaKey != null ? personaPolicies.get(personaKey) : null;
+        long ttl = policy != null ? policy.ttlMillis() : ttlMillis;
+        Entry previous = entries.put(key, new Entry(response, System.currentTimeMillis() + ttl, weight));
+        if (previous != null) {
+            currentBytes -= previous.weight();
+        }
+        currentBytes += weight;
+        evictIfNeeded();
+    }
+
+    private void evictIfNeeded() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext() && (entries.size() > maxEntries || currentBytes > maxBytes)) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            iterator.remove();
+            currentBytes -= eldest.getValue().weight();
+            if (eldest.getValue().expiresAt() <= now) {
+                expirations++;
+            } else {
+                evictions++;
+            }
+        }
+    }
+
+    private void removeEntry(String key, Entry entry) {
+        entries.remove(key);
+        currentBytes -= entry.weight();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    /**
+     * 获取缓存统计信息
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("entries", entries.size());
+        stats.put("maxEntries", maxEntries);
+        stats.put("bytes", currentBytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        stats.put("expirations", expirations);
+        stats.put("historyPolicy", historyPolicy.name().toLowerCase(Locale.ROOT));
+        long lookups = hits + misses;
+        if (lookups > 0) {
+            stats.put("hitRate", (double) hits / lookups * 100);
+        }
+        return stats;
+    }
+
+    /**
+     * 重载时在新缓存加载快照之前保存快照，此后本缓存关闭时不再写入快照文件，
+     * 避免排空结束的旧缓存覆盖新缓存的数据
+     */
+    public void handOverSnapshot() {
+        saveSnapshot();
+        handedOver = true;
+    }
+
+    /**
+     * 保存缓存快照，仅保存未过期的条目
+     */
+    public void saveSnapshot() {
+        if (!enabled || !snapshotEnabled || handedOver) {
+            return;
+        }
+
+        Map<String, Entry> copy;
+        synchronized (this) {
+            copy = new LinkedHashMap<>(entries);
+        }
+
+        long now = System.currentTimeMillis();
+        File parent = snapshotFile.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            plugin.getLogger().warning("无法创建缓存快照目录: " + parent.getPath());
+            return;
+        }
+
+        File tempFile = new File(snapshotFile.getPath() + ".tmp");
+        int written = 0;
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            int count = 0;
+            for (Entry entry : copy.values()) {
+                if (entry.expiresAt() > now) {
+                    count++;
+                }
+            }
+            out.writeInt(count);
+            // 按最近使用顺序写出，加载时保持相同的淘汰顺序
+            for (Map.Entry<String, Entry> item : copy.entrySet()) {
+                Entry entry = item.getValue();
+                if (entry.expiresAt() <= now) {
+                    continue;
+                }
+                writeString(out, item.getKey());
+                writeString(out, entry.response());
+                out.writeLong(entry.expiresAt());
+                written++;
+            }
+        } catch (IOException e) {
+            plugin.getLogger().warning("保存缓存快照失败: " + e.getMessage());
+            tempFile.delete();
+            return;
+        }
+
+        if (snapshotFile.exists() && !snapshotFile.delete()) {
+            plugin.getLogger().warning("无法替换旧的缓存快照");
+            tempFile.delete();
+            return;
+        }
+        if (!tempFile.renameTo(snapshotFile)) {
+            plugin.getLogger().warning("无法写入缓存快照文件");
+            return;
+        }
+        plugin.debug("已保存 " + written + " 条缓存到快照");
+    }
+
+    private void loadSnapshot() {
+        if (!snapshotFile.exists()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        int loaded = 0;
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new FileInputStream(snapshotFile)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                plugin.getLogger().warning("缓存快照格式不兼容，已忽略");
+                return;
+            }
+
+            int count = in.readInt();
+            synchronized (this) {
+                for (int i = 0; i < count; i++) {
+                    String key = readString(in);
+                    String response = readString(in);
+                    long expiresAt = in.readLong();
+                    if (expiresAt <= now) {
+                        continue;
+                    }
+                    int weight = ENTRY_OVERHEAD + (key.length() + response.length()) * 2;
+                    Entry previous = entries.put(key, new Entry(response, expiresAt, weight));
+                    if (previous != null) {
+                        currentBytes -= previous.weight();
+                    }
+                    currentBytes += weight;
+                    loaded++;
+                }
+                evictIfNeeded();
+            }
+        } catch (IOException e) {
+            plugin.getLogger().warning("加载缓存快照失败: " + e.getMessage());
+            return;
+        }
+        plugin.debug("已从快照加载 " + loaded + " 条缓存");
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > 16 * 1024 * 1024) {
+            throw new IOException("无效的字符串长度: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -1,7 +1,11 @@
 package cn.ningmo.geminicraftchat.chat;
 
 import cn.ningmo.geminicraftchat.GeminiCraftChat;
+import cn.ningmo.geminicraftchat.api.DeadlineExceededException;
 import cn.ningmo.geminicraftchat.api.GeminiService;
+import cn.ningmo.geminicraftchat.api.ModelBulkhead;
+import cn.ningmo.geminicraftchat.api.RequestHandle;
+import cn.ningmo.geminicraftchat.cache.ResponseCache;
 import cn.ningmo.geminicraftchat.config.ConfigManager;
 import cn.ningmo.geminicraftchat.persona.Persona;
 import net.kyori.adventure.text.Component;
@@ -9,67 +13,171 @@ import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
 import org.bukkit.entity.Player;
 
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ChatManager {
     private final GeminiCraftChat plugin;
     private final GeminiService geminiService;
+    private final RequestScheduler scheduler;
     private final ConfigManager configManager;
     private final Map<String, String> playerPersonas;
     private final Map<String, Long> cooldowns;
+    private final Map<RequestHandle, CompletableFuture<String>> activeRequests;
+    private final Map<String, PlayerMailbox> mailboxes;
+    private volatile boolean draining;
 
     public ChatManager(GeminiCraftChat plugin) {
         this.plugin = plugin;
         this.geminiService = new GeminiService(plugin);
+        this.scheduler = new RequestScheduler(plugin);
         this.configManager = plugin.getConfigManager();
         this.playerPersonas = new ConcurrentHashMap<>();
         this.cooldowns = new ConcurrentHashMap<>();
+        this.activeRequests = new ConcurrentHashMap<>();
+        this.mailboxes = new ConcurrentHashMap<>();
     }
 
     public void handleChat(Player player, String message) {
         String playerId = player.getName();
-        
-        // 检查冷却时间
-        if (isOnCooldown(playerId)) {
+
+        // 同一玩家同时只发送一个请求，进行中收到的消息合并到下一次请求；
+        // 冷却时间只限制发起新的请求，请求进行期间的追问直接合并
+        PlayerMailbox.Offer[] offer = new PlayerMailbox.Offer[1];
+        mailboxes.compute(playerId, (key, mailbox) -> {
+            PlayerMailbox target = mailbox != null ? mailbox : new PlayerMailbox();
+            if (!target.isBusy() && isOnCooldown(playerId)) {
+                return mailbox;
+            }
+            offer[0] = target.offer(message, configManager.getMaxMergedMessages());
+            return target;
+        });
+        if (offer[0] == null) {
             long remainingTime = getRemainingCooldown(playerId);
             player.sendMessage(Component.text("请等待 " + (remainingTime / 1000) + " 秒后再次发送消息")
                     .color(net.kyori.adventure.text.format.NamedTextColor.RED));
             return;
         }
+        switch (offer[0]) {
+            case MERGED -> player.sendMessage(LegacyComponentSerializer.legacySection().deserialize(configManager.getMergedFormat()));
+            case FULL -> player.sendMessage(LegacyComponentSerializer.legacySection().deserialize(configManager.getMailboxFullFormat()));
+            case DISPATCH -> {
+                dispatch(player, message);
+                setCooldown(playerId);
+            }
+        }
+    }
 
-        // 发送思考消息
-        player.sendMessage(LegacyComponentSerializer.legacySection().deserialize(configManager.getThinkingFormat()));
+    /**
+     * 发送一次请求，请求结束后继续发送信箱中合并的追问
+     */
+    private void dispatch(Player player, String message) {
+        String playerId = player.getName();
 
         // 获取当前人设
         Optional<Persona> persona = getCurrentPersona(playerId);
 
+        // 流式模式下按句子分段推送给玩家
+        SentenceChunker chunker = new SentenceChunker(configManager.getStreamMinChunkLength(),
+            configManager.getStreamMaxChunkLength());
+        AtomicBoolean streamStarted = new AtomicBoolean(false);
+
+        // 交给调度器排队，轮到该玩家时才发送请求；玩家退出、插件重载或超过截止时间时通过句柄取消
+        long budget = configManager.getRequestDeadline(persona.map(Persona::getKey).orElse("default"));
+        RequestHandle handle = new RequestHandle(playerId, budget > 0 ? System.currentTimeMillis() + budget : 0);
+        RequestScheduler.Ticket ticket = scheduler.submit(playerId, scheduler.getWeight(player), handle,
+            () -> geminiService.sendMessage(playerId, message, persona, delta -> {
+                for (String chunk : chunker.offer(delta)) {
+                    sendResponseChunk(player, chunk, !streamStarted.getAndSet(true));
+                }
+            }, handle));
+        activeRequests.put(handle, ticket.future());
+        // 截止时间由请求执行器的定时线程触发，请求结束时取消定时器，不再持有句柄
+        ScheduledFuture<?> deadlineTimer = budget > 0
+            ? geminiService.getRequestExecutor().schedule(() -> {
+                if (activeRequests.containsKey(handle)) {
+                    handle.expire();
+                }
+            }, budget)
+            : null;
+        ticket.future().whenComplete((response, throwable) -> {
+            if (deadlineTimer != null) {
+                deadlineTimer.cancel(false);
+            }
+            activeRequests.remove(handle);
+            dispatchNext(player);
+        });
+
+        // 发送思考消息，需要排队时显示排队位置
+        String thinking = ticket.position() > 0
+            ? String.format(configManager.getQueuedFormat(), ticket.position())
+            : configManager.getThinkingFormat();
+        player.sendMessage(LegacyComponentSerializer.legacySection().deserialize(thinking));
+
         // 广播问题
         if (shouldBroadcast(player, persona)) {
             broadcastQuestion(player, message);
         }
 
-        // 发送请求
-        geminiService.sendMessage(playerId, message, persona)
-            .thenAccept(response -> runOnMainThread(() -> {
-                if (!player.isOnline()) {
-                    return;
+        ticket.future()
+            .thenAccept(response -> {
+                if (chunker.hasEmitted()) {
+                    String remaining = chunker.flush();
+                    if (!remaining.isEmpty()) {
+                        sendResponseChunk(player, remaining, false);
+                    }
                 }
 
-                Component formattedResponse = LegacyComponentSerializer.legacySection().deserialize(
-                    String.format(configManager.getResponseFormat(), response));
-                player.sendMessage(formattedResponse);
+                runOnMainThread(() -> {
+                    if (!player.isOnline()) {
+                        return;
+                    }
+
+                    if (!streamStarted.get()) {
+                        Component formattedResponse = LegacyComponentSerializer.legacySection().deserialize(
+                            String.format(configManager.getResponseFormat(), response));
+                        player.sendMessage(formattedResponse);
+                    }
 
-                // 广播回答
-                if (shouldBroadcast(player, persona)) {
-                    broadcastAnswer(player, response);
-                }
-            }))
+                    // 广播回答
+                    if (shouldBroadcast(player, persona)) {
+                        broadcastAnswer(player, response);
+                    }
+                });
+            })
             .exceptionally(throwable -> {
+                if (isDeadlineExceeded(throwable) && plugin.getLogManager() != null) {
+                    plugin.getLogManager().recordDeadlineExceeded(playerId, budget);
+                }
                 runOnMainThread(() -> {
                     if (!player.isOnline()) {
                         return;
                     }
 
+                    if (isDeadlineExceeded(throwable)) {
+                        player.sendMessage(LegacyComponentSerializer.legacySection().deserialize(
+                            String.format(configManager.getDeadlineFormat(), Math.max(1, budget / 1000))));
+                        return;
+                    }
+
+                    if (isCancelled(throwable)) {
+                        player.sendMessage(LegacyComponentSerializer.legacySection().deserialize(
+                            String.format(configManager.getCancelledFormat(), resolveErrorMessage(throwable))));
+                        return;
+                    }
+
+                    // 所有模型都已满载时提示稍后再试，而不是显示错误
+                    if (isOverloaded(throwable)) {
+                        player.sendMessage(LegacyComponentSerializer.legacySection().deserialize(
+                            configManager.getOverloadedFormat()));
+                        return;
+                    }
+
                     String errorMessage = resolveErrorMessage(throwable);
                     Component error = LegacyComponentSerializer.legacySection().deserialize(
                         String.format(configManager.getErrorFormat(), errorMessage));
@@ -77,9 +185,46 @@ public class ChatManager {
                 });
                 return null;
             });
+    }
+
+    /**
+     * 当前请求结束后发送信箱中合并的追问，没有追问时释放信箱
+     */
+    private void dispatchNext(Player player) {
+        String playerId = player.getName();
+        String[] merged = new String[1];
+        mailboxes.computeIfPresent(playerId, (key, mailbox) -> {
+            merged[0] = mailbox.next();
+            return merged[0] != null ? mailbox : null;
+        });
+        if (merged[0] == null) {
+            return;
+        }
+
+        runOnMainThread(() -> {
+            if (player.isOnline() && !draining) {
+                dispatch(player, merged[0]);
+                return;
+            }
+            // 玩家已离线或插件正在重载，丢弃合并的追问
+            mailboxes.remove(playerId);
+            if (player.isOnline()) {
+                player.sendMessage(LegacyComponentSerializer.legacySection().deserialize(
+                    String.format(configManager.getCancelledFormat(), "插件正在重载，请稍后重试")));
+            }
+        });
+    }
 
-        // 设置冷却时间
-        setCooldown(playerId);
+    /**
+     * 推送一段流式回复，首段使用回复格式，后续片段使用续行格式
+     */
+    private void sendResponseChunk(Player player, String chunk, boolean first) {
+        String format = first ? configManager.getResponseFormat() : configManager.getStreamChunkFormat();
+        runOnMainThread(() -> {
+            if (player.isOnline()) {
+                player.sendMessage(LegacyComponentSerializer.legacySection().deserialize(String.format(format, chunk)));
+            }
+        });
     }
 
     public boolean switchPersona(Player player, String personaName) {
@@ -106,7 +251,7 @@ public class ChatManager {
             String name = configManager.getConfig().getString("personas." + personaName + ".name");
             String description = configManager.getConfig().getString("personas." + personaName + ".description");
             String context = configManager.getConfig().getString("personas." + personaName + ".context");
-            return Optional.of(new Persona(name, description, context));
+            return Optional.of(new Persona(personaName, name, description, context));
         }
         
         return Optional.empty();
@@ -135,6 +280,10 @@ public class ChatManager {
         geminiService.clearAllHistory();
     }
 
+    public void playerDeparted(String playerId) {
+        geminiService.playerDeparted(playerId);
+    }
+
     private boolean shouldBroadcast(Player player, Optional<Persona> persona) {
         // 检查是否启用广播
         if (!configManager.getConfig().getBoolean("chat.broadcast.enabled", true)) {
@@ -203,10 +352,64 @@ public class ChatManager {
         }
     }
 
+    /**
+     * 取消玩家所有排队中和进行中的请求，玩家退出时调用
+     */
+    public void cancelPlayerRequests(String playerId, String reason) {
+        PlayerMailbox mailbox = mailboxes.get(playerId);
+        int cancelled = mailbox != null ? mailbox.clear() : 0;
+        for (RequestHandle handle : new ArrayList<>(activeRequests.keySet())) {
+            if (handle.getPlayerId().equals(playerId) && !handle.isCancelled()) {
+                handle.cancel(reason);
+                cancelled++;
+            }
+        }
+        if (cancelled > 0) {
+            plugin.debug("已取消玩家 " + playerId + " 的 " + cancelled + " 个请求: " + reason);
+            if (plugin.getLogManager() != null) {
+                plugin.getLogManager().recordCancelledRequests(cancelled);
+            }
+        }
+    }
+
+    /**
+     * 等待进行中的请求完成后再关闭，插件重载时调用，不阻塞调用线程
+     * 超过等待时间仍未完成的请求会被取消并通知玩家
+     */
+    public CompletableFuture<Void> drain(long timeoutMillis) {
+        draining = true;
+        List<CompletableFuture<String>> pending = new ArrayList<>(activeRequests.values());
+        if (!pending.isEmpty()) {
+            plugin.getLogger().info("等待 " + pending.size() + " 个进行中的请求完成...");
+        }
+
+        return CompletableFuture.allOf(pending.toArray(new CompletableFuture[0]))
+            .handle((ignored, throwable) -> (Void) null)
+            .orTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+            .whenCompleteAsync((ignored, throwable) -> {
+                if (throwable instanceof TimeoutException) {
+                    int cancelled = 0;
+                    for (RequestHandle handle : new ArrayList<>(activeRequests.keySet())) {
+                        if (!handle.isCancelled()) {
+                            handle.cancel("插件正在重载，请稍后重试");
+                            cancelled++;
+                        }
+                    }
+                    plugin.getLogger().warning("等待超时，已取消 " + cancelled + " 个未完成的请求");
+                    if (plugin.getLogManager() != null) {
+                        plugin.getLogManager().recordCancelledRequests(cancelled);
+                    }
+                }
+                shutdown();
+            }, this::runAsync)
+            .handle((ignored, throwable) -> null);
+    }
+
     /**
      * 关闭ChatManager，释放资源
      */
     public void shutdown() {
+        scheduler.shutdown();
         if (geminiService != null) {
             geminiService.shutdown();
         }
@@ -216,6 +419,29 @@ public class ChatManager {
         geminiService.invalidateModelClient(modelKey);
     }
 
+    public ResponseCache getResponseCache() {
+        return geminiService.getResponseCache();
+    }
+
+    public void refreshModelProfiles() {
+        geminiService.refreshModelProfiles();
+    }
+
+    public GeminiService getGeminiService() {
+        return geminiService;
+    }
+
+    /**
+     * 在插件的异步任务线程上执行，插件已停用时在当前线程执行
+     */
+    private void runAsync(Runnable task) {
+        if (!plugin.isEnabled()) {
+            task.run();
+            return;
+        }
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, task);
+    }
+
     private void runOnMainThread(Runnable task) {
         if (!plugin.isEnabled()) {
             return;
@@ -223,6 +449,33 @@ public class ChatManager {
         plugin.getServer().getScheduler().runTask(plugin, task);
     }
 
+    private boolean isDeadlineExceeded(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DeadlineExceededException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isCancelled(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CancellationException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isOverloaded(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ModelBulkhead.BulkheadFullException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private String resolveErrorMessage(Throwable throwable) {
         Throwable root = throwable;
         while (root.getCause() != null) {
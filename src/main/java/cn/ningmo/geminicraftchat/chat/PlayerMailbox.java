@@ -0,0 +1,73 @@
+package cn.ningmo.geminicraftchat.chat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 单个玩家的对话信箱
+ * 同一玩家同时只有一个请求在进行，保证对话历史按顺序追加；
+ * 请求进行期间收到的消息暂存在信箱中，请求完成后合并为一条追问发送，减少请求次数。
+ */
+final class PlayerMailbox {
+    /**
+     * 投递结果
+     */
+    enum Offer {
+        /** 信箱空闲，调用方应立即发送该消息 */
+        DISPATCH,
+        /** 已有请求在进行，消息已暂存，将合并到下一次请求 */
+        MERGED,
+        /** 暂存的消息已达上限，消息被丢弃 */
+        FULL
+    }
+
+    private final List<String> pending = new ArrayList<>();
+    private boolean busy;
+
+    /**
+     * 投递一条消息
+     * @param maxPending 最多暂存的消息数
+     */
+    synchronized Offer offer(String message, int maxPending) {
+        if (!busy) {
+            busy = true;
+            return Offer.DISPATCH;
+        }
+        if (pending.size() >= maxPending) {
+            return Offer.FULL;
+        }
+        pending.add(message);
+        return Offer.MERGED;
+    }
+
+    /**
+     * 是否有请求在进行
+     */
+    synchronized boolean isBusy() {
+        return busy;
+    }
+
+    /**
+     * 当前请求完成后取出暂存的消息
+     * @return 合并后的追问，没有暂存消息时返回 null 并将信箱置为空闲
+     */
+    synchronized String next() {
+        if (pending.isEmpty()) {
+            busy = false;
+            return null;
+        }
+        String merged = String.join("\n", pending);
+        pending.clear();
+        return merged;
+    }
+
+    /**
+     * 丢弃暂存的消息
+     * @return 丢弃的消息数
+     */
+    synchronized int clear() {
+        int dropped = pending.size();
+        pending.clear();
+        return dropped;
+    }
+}
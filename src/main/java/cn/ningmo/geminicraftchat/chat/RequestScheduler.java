@@ -0,0 +1,282 @@
+package cn.ningmo.geminicraftchat.chat;
+
+import cn.ningmo.geminicraftchat.GeminiCraftChat;
+import cn.ningmo.geminicraftchat.api.RequestHandle;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * 玩家请求公平调度器
+ * 每个玩家拥有独立的请求队列，按赤字轮询（DRR）依次放行，每轮放行数与玩家权重成正比；
+ * 全局同时进行的请求数受 max_in_flight 限制，单个玩家无法占满服务商的处理能力。
+ * 玩家权重由 gcc.priority.<名称> 权限对应的配置决定。
+ */
+public class RequestScheduler {
+    /**
+     * 提交结果
+     * @param future 请求完成时结束的 Future
+     * @param position 提交时前面等待的请求数，0 表示立即执行
+     */
+    public record Ticket(CompletableFuture<String> future, int position) {
+    }
+
+    private static final class Job {
+        private final Supplier<CompletableFuture<String>> task;
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private volatile boolean started;
+
+        private Job(Supplier<CompletableFuture<String>> task) {
+            this.task = task;
+        }
+    }
+
+    private static final class PlayerQueue {
+        private final String playerId;
+        private final double weight;
+        private final Deque<Job> jobs = new ArrayDeque<>();
+        private double deficit;
+        private boolean credited;
+
+        private PlayerQueue(String playerId, double weight) {
+            this.playerId = playerId;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * 调度器配置，对应 chat.scheduler
+     * @param priorities 权限名称到权重的映射，按配置顺序保存
+     */
+    record Settings(boolean enabled, int maxInFlight, double defaultWeight, Map<String, Double> priorities) {
+        static Settings load(ConfigurationSection config) {
+            boolean enabled = config == null || config.getBoolean("enabled", true);
+            int maxInFlight = Math.max(1, config != null ? config.getInt("max_in_flight", 16) : 16);
+            double defaultWeight = Math.max(0.1, config != null ? config.getDouble("default_weight", 1.0) : 1.0);
+            Map<String, Double> priorities = new LinkedHashMap<>();
+
+            ConfigurationSection priorityConfig = config != null ? config.getConfigurationSection("priorities") : null;
+            if (priorityConfig != null) {
+                for (String name : priorityConfig.getKeys(false)) {
+                    double weight = priorityConfig.getDouble(name, defaultWeight);
+                    if (weight > 0) {
+                        priorities.put(name, weight);
+                    }
+                }
+            }
+            return new Settings(enabled, maxInFlight, defaultWeight, priorities);
+        }
+    }
+
+    private final boolean enabled;
+    private final int maxInFlight;
+    private final double defaultWeight;
+    private final Map<String, Double> priorities;
+
+    private final Object lock = new Object();
+    private final Map<String, PlayerQueue> queues = new HashMap<>();
+    private final Deque<PlayerQueue> activeQueues = new ArrayDeque<>();
+    private int inFlight;
+    private boolean shutdown;
+
+    public RequestScheduler(GeminiCraftChat plugin) {
+        this(Settings.load(plugin.getConfigManager().getConfig().getConfigurationSection("chat.scheduler")));
+        plugin.debug("请求调度器: " + (enabled ? "启用" : "禁用") + "，全局并发上限 " + maxInFlight + "，优先级 " + priorities);
+    }
+
+    RequestScheduler(Settings settings) {
+        this.enabled = settings.enabled();
+        this.maxInFlight = settings.maxInFlight();
+        this.defaultWeight = settings.defaultWeight();
+        this.priorities = new LinkedHashMap<>(settings.priorities());
+    }
+
+    /**
+     * 根据 gcc.priority.<名称> 权限计算玩家权重，拥有多个权限时取最大值
+     */
+    public double getWeight(Player player) {
+        double weight = defaultWeight;
+        for (Map.Entry<String, Double> entry : priorities.entrySet()) {
+            if (player.hasPermission("gcc.priority." + entry.getKey())) {
+                weight = Math.max(weight, entry.getValue());
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * 提交一个请求，轮到该玩家时才调用 task 发起实际请求
+     * @param handle 请求句柄，排队期间取消时请求直接移出队列
+     */
+    public Ticket submit(String playerId, double weight, RequestHandle handle,
+                         Supplier<CompletableFuture<String>> task) {
+        if (!enabled) {
+            return new Ticket(task.get(), 0);
+        }
+
+        Job job = new Job(task);
+        int position;
+        synchronized (lock) {
+            if (shutdown) {
+                job.result.completeExceptionally(new IllegalStateException("请求调度器已关闭"));
+                return new Ticket(job.result, 0);
+            }
+
+            PlayerQueue queue = queues.get(playerId);
+            if (queue == null) {
+                queue = new PlayerQueue(playerId, weight);
+                queues.put(playerId, queue);
+                activeQueues.addLast(queue);
+            }
+            queue.jobs.addLast(job);
+            position = estimatePosition(queue);
+        }
+
+        handle.onCancel(() -> cancel(playerId, job, handle.cancellationException()));
+        dispatch();
+        return new Ticket(job.result, job.started ? 0 : position);
+    }
+
+    /**
+     * 估算新请求前面的等待数：本玩家已排队的请求，加上其他玩家在这段轮次内按权重可放行的请求
+     */
+    private int estimatePosition(PlayerQueue queue) {
+        int ownAhead = queue.jobs.size() - 1;
+        double rounds = (ownAhead + 1) / queue.weight;
+        int position = ownAhead;
+        for (PlayerQueue other : activeQueues) {
+            if (other != queue) {
+                position += (int) Math.min(other.jobs.size(), Math.ceil(rounds * other.weight));
+            }
+        }
+        return position + 1;
+    }
+
+    /**
+     * 在并发上限内按 DRR 放行请求
+     */
+    private void dispatch() {
+        List<Job> ready = new ArrayList<>();
+        synchronized (lock) {
+            while (inFlight < maxInFlight && !activeQueues.isEmpty()) {
+                PlayerQueue queue = activeQueues.peekFirst();
+                // 每轮只为队首玩家增加一次额度，因并发上限中断时保留剩余额度
+                if (!queue.credited) {
+                    queue.deficit += queue.weight;
+                    queue.credited = true;
+                }
+
+                if (queue.deficit >= 1 && !queue.jobs.isEmpty()) {
+                    queue.deficit -= 1;
+                    inFlight++;
+                    Job job = queue.jobs.pollFirst();
+                    job.started = true;
+                    ready.add(job);
+                }
+
+                if (queue.jobs.isEmpty()) {
+                    activeQueues.pollFirst();
+                    queues.remove(queue.playerId);
+                } else if (queue.deficit < 1) {
+                    queue.credited = false;
+                    activeQueues.pollFirst();
+                    activeQueues.addLast(queue);
+                }
+            }
+        }
+
+        for (Job job : ready) {
+            start(job);
+        }
+    }
+
+    /**
+     * 将尚未放行的请求移出队列，已放行的请求由 GeminiService 取消
+     */
+    private void cancel(String playerId, Job job, CancellationException exception) {
+        synchronized (lock) {
+            if (job.started) {
+                return;
+            }
+            PlayerQueue queue = queues.get(playerId);
+            if (queue == null || !queue.jobs.remove(job)) {
+                return;
+            }
+            if (queue.jobs.isEmpty()) {
+                activeQueues.remove(queue);
+                queues.remove(playerId);
+            }
+        }
+        job.result.completeExceptionally(exception);
+    }
+
+    private void start(Job job) {
+        CompletableFuture<String> future;
+        try {
+            future = job.task.get();
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+
+        future.whenComplete((response, throwable) -> {
+            synchronized (lock) {
+                inFlight--;
+            }
+            if (throwable != null) {
+                job.result.completeExceptionally(throwable);
+            } else {
+                job.result.complete(response);
+            }
+            dispatch();
+        });
+    }
+
+    public int getInFlight() {
+        synchronized (lock) {
+            return inFlight;
+        }
+    }
+
+    public int getQueuedRequests() {
+        synchronized (lock) {
+            int total = 0;
+            for (PlayerQueue queue : activeQueues) {
+                total += queue.jobs.size();
+            }
+            return total;
+        }
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * 关闭调度器，尚未放行的请求以异常结束
+     */
+    public void shutdown() {
+        List<Job> pending = new ArrayList<>();
+        synchronized (lock) {
+            shutdown = true;
+            for (PlayerQueue queue : activeQueues) {
+                pending.addAll(queue.jobs);
+                queue.jobs.clear();
+            }
+            activeQueues.clear();
+            queues.clear();
+        }
+        for (Job job : pending) {
+            job.result.completeExceptionally(new IllegalStateException("插件正在重载，请稍后重试"));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package cn.ningmo.geminicraftchat.chat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 将流式返回的增量文本聚合为句子大小的片段
+ * 遇到句末标点且长度达到下限时输出，超过上限时强制切分（不拆开代理对）
+ * 英文句号后需紧跟空白才视为句末，避免切断小数和网址；句号恰好位于增量末尾时，等下一个字符到达后再判断
+ */
+public class SentenceChunker {
+    private static final String SENTENCE_ENDINGS = "。！？；!?;\n";
+
+    private final int minLength;
+    private final int maxLength;
+    private final StringBuilder buffer;
+    private boolean emitted;
+    private boolean pendingPeriod;
+
+    public SentenceChunker(int minLength, int maxLength) {
+        this.minLength = Math.max(1, minLength);
+        this.maxLength = Math.max(this.minLength, maxLength);
+        this.buffer = new StringBuilder();
+    }
+
+    /**
+     * 追加增量文本，返回已经可以发送的完整片段
+     */
+    public List<String> offer(String delta) {
+        List<String> chunks = new ArrayList<>();
+        for (int i = 0; i < delta.length(); i++) {
+            char c = delta.charAt(i);
+            // 上一个字符是英文句号，当前字符为空白时句号才是句末
+            if (pendingPeriod) {
+                pendingPeriod = false;
+                if (Character.isWhitespace(c) && buffer.length() >= minLength) {
+                    addChunk(chunks);
+                }
+            }
+            buffer.append(c);
+
+            // 强制切分不能拆开代理对，否则表情和扩展区汉字会显示为两个乱码字符，推迟到低位代理之后再切
+            if ((SENTENCE_ENDINGS.indexOf(c) >= 0 && buffer.length() >= minLength)
+                || (buffer.length() >= maxLength && !Character.isHighSurrogate(c))) {
+                addChunk(chunks);
+            } else if (c == '.') {
+                pendingPeriod = true;
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * 取出缓冲区中剩余的文本
+     */
+    public String flush() {
+        List<String> chunks = new ArrayList<>(1);
+        addChunk(chunks);
+        return chunks.isEmpty() ? "" : chunks.get(0);
+    }
+
+    /**
+     * 是否已经输出过片段，用于判断回复是否以流式方式送达
+     */
+    public boolean hasEmitted() {
+        return emitted;
+    }
+
+    private void addChunk(List<String> chunks) {
+        String chunk = buffer.toString().trim();
+        buffer.setLength(0);
+        pendingPeriod = false;
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+            emitted = true;
+        }
+    }
+}
@@ -1,8 +1,18 @@
 package cn.ningmo.geminicraftchat.commands;
 
 import cn.ningmo.geminicraftchat.GeminiCraftChat;
+import cn.ningmo.geminicraftchat.api.ApiKeyPool;
+import cn.ningmo.geminicraftchat.api.CircuitBreaker;
+import cn.ningmo.geminicraftchat.api.GeminiService;
+import cn.ningmo.geminicraftchat.api.ModelBulkhead;
+import cn.ningmo.geminicraftchat.api.ModelProfile;
+import cn.ningmo.geminicraftchat.api.ModelProfileRegistry;
+import cn.ningmo.geminicraftchat.api.ModelRouter;
+import cn.ningmo.geminicraftchat.api.ModelStats;
+import cn.ningmo.geminicraftchat.cache.ResponseCache;
 import cn.ningmo.geminicraftchat.chat.ChatManager;
 import cn.ningmo.geminicraftchat.config.ConfigManager;
+import cn.ningmo.geminicraftchat.history.ConversationStore;
 import cn.ningmo.geminicraftchat.logging.LogManager;
 import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
@@ -73,6 +83,14 @@ public class MainCommand implements CommandExecutor {
                 handleTimeout(sender, args);
                 break;
 
+            case "cache":
+                handleCache(sender, args);
+                break;
+
+            case "memory":
+                handleMemory(sender);
+                break;
+
             default:
                 sendHelpMessage(sender);
                 break;
@@ -146,6 +164,18 @@ public class MainCommand implements CommandExecutor {
     }
 
     private void handleModelSwitch(CommandSender sender, String[] args) {
+        if (args.length >= 2 && "list".equalsIgnoreCase(args[1])) {
+            if (sender instanceof Player) {
+                Player player = (Player) sender;
+                if (!player.hasPermission(configManager.getPermission("admin"))) {
+                    sender.sendMessage(ChatColor.RED + "你没有权限查看模型状态！");
+                    return;
+                }
+            }
+            showModelList(sender);
+            return;
+        }
+
         if (sender instanceof Player) {
             Player player = (Player) sender;
             if (!player.hasPermission(configManager.getPermission("model_switch"))) {
@@ -164,6 +194,7 @@ public class MainCommand implements CommandExecutor {
         String senderName = sender instanceof Player ? sender.getName() : "CONSOLE";
 
         if (configManager.switchModel(modelName)) {
+            getChatManager().refreshModelProfiles();
             String modelDisplayName = configManager.getModelDisplayName(modelName);
             sender.sendMessage(ChatColor.GREEN + "已切换到模型: " + modelDisplayName);
             getLogManager().logModelChange(senderName, modelName);
@@ -172,6 +203,78 @@ public class MainCommand implements CommandExecutor {
         }
     }
 
+    private void showModelList(CommandSender sender) {
+        GeminiService geminiService = getChatManager().getGeminiService();
+        ModelRouter router = geminiService.getRouter();
+        ModelProfileRegistry.Snapshot snapshot = geminiService.getProfileSnapshot();
+        Map<String, Double> liveWeights = router.getLiveWeights(snapshot);
+
+        sender.sendMessage(ChatColor.GREEN + "=== 模型列表 ===");
+        sender.sendMessage(ChatColor.YELLOW + "路由模式: " + ChatColor.WHITE + router.getMode().name().toLowerCase()
+            + ChatColor.YELLOW + "  当前模型: " + ChatColor.WHITE + snapshot.currentModel());
+
+        for (String modelKey : configManager.getAvailableModels()) {
+            ModelStats stats = router.stats(modelKey);
+            String marker = modelKey.equals(snapshot.currentModel()) ? ChatColor.GREEN + "* " : ChatColor.GRAY + "- ";
+            sender.sendMessage(marker + ChatColor.YELLOW + configManager.getModelDisplayName(modelKey) + " (" + modelKey + ")");
+
+            StringBuilder line = new StringBuilder(ChatColor.GRAY + "  ");
+            if (router.getWeights().containsKey(modelKey)) {
+                line.append("权重:").append(router.getWeights().get(modelKey)).append(", ");
+            }
+            if (liveWeights.containsKey(modelKey)) {
+                line.append("实时占比:").append(String.format("%.1f%%", liveWeights.get(modelKey) * 100)).append(", ");
+            }
+            line.append("延迟:").append(stats.getEwmaLatency() < 0 ? "-" : String.format("%.0fms", stats.getEwmaLatency()));
+            line.append(", 错误率:").append(String.format("%.1f%%", stats.getEwmaErrorRate() * 100));
+            line.append(", 进行中:").append(stats.getOutstanding());
+            line.append(", 成功/失败:").append(stats.getSuccessCount()).append("/").append(stats.getFailureCount());
+            sender.sendMessage(line.toString());
+
+            ModelProfile profile = snapshot.profiles().get(modelKey);
+            if (stats.getPromptTokens() > 0) {
+                sender.sendMessage(ChatColor.GRAY + "  提示词缓存: 命中 " + stats.getCachedPromptTokens() + "/" + stats.getPromptTokens()
+                    + " 令牌 (" + String.format("%.1f%%", stats.getPromptCacheHitRate() * 100) + "), 写入 " + stats.getCacheWriteTokens());
+            } else if (profile != null && profile.promptCache().enabled() && stats.getSuccessCount() > 0) {
+                // 服务商没有返回 usage（常见于流式响应）时无法统计，不显示为 0%
+                sender.sendMessage(ChatColor.GRAY + "  提示词缓存: n/a（响应中没有 usage，请检查 usage_paths"
+                    + (profile.stream() ? " 或服务商是否在流式响应中返回用量" : "") + "）");
+            }
+
+            ApiKeyPool keyPool = geminiService.getKeyPools().get(modelKey);
+            if (keyPool != null && keyPool.size() > 1) {
+                long parked = keyPool.getKeys().stream().filter(ApiKeyPool.KeyState::isParked).count();
+                sender.sendMessage(ChatColor.GRAY + "  API Key: " + keyPool.size() + " 个, 限流暂停中: " + parked);
+                for (ApiKeyPool.KeyState key : keyPool.getKeys()) {
+                    StringBuilder keyLine = new StringBuilder(ChatColor.GRAY + "    #" + (key.getIndex() + 1) + " ");
+                    keyLine.append("固定/转入:").append(key.getStickyRequests()).append("/").append(key.getFallbackRequests());
+                    keyLine.append(", 延迟:").append(key.getEwmaLatency() < 0 ? "-" : String.format("%.0fms", key.getEwmaLatency()));
+                    if (key.getPromptCacheHitRate() >= 0) {
+                        keyLine.append(", 缓存命中:").append(String.format("%.1f%%", key.getPromptCacheHitRate() * 100));
+                    }
+                    if (key.isParked()) {
+                        keyLine.append(ChatColor.RED).append(" 限流中");
+                    }
+                    sender.sendMessage(keyLine.toString());
+                }
+            }
+
+            CircuitBreaker breaker = geminiService.getCircuitBreakers().get(modelKey);
+            if (breaker != null && breaker.getState() != CircuitBreaker.State.CLOSED) {
+                sender.sendMessage(ChatColor.RED + "  熔断器: " + breaker.getState().getDisplayName());
+            }
+
+            ModelBulkhead bulkhead = geminiService.getBulkheads().get(modelKey);
+            if (bulkhead != null && bulkhead.isEnabled()) {
+                sender.sendMessage(ChatColor.GRAY + "  并发上限:" + bulkhead.getLimit() + ", 执行中:" + bulkhead.getInFlight()
+                    + ", 排队:" + bulkhead.getQueued() + ", 已拒绝:" + bulkhead.getRejected());
+            }
+        }
+
+        String senderName = sender instanceof Player ? sender.getName() : "CONSOLE";
+        getLogManager().logCommand(senderName, "model list");
+    }
+
     private void handleTemperature(CommandSender sender, String[] args) {
         if (sender instanceof Player) {
             Player player = (Player) sender;
@@ -194,6 +297,7 @@ public class MainCommand implements CommandExecutor {
             }
 
             configManager.setTemperature(temp);
+            getChatManager().refreshModelClient(configManager.getCurrentModel());
             sender.sendMessage(ChatColor.GREEN + "已将温度设置为: " + temp);
 
             String senderName = sender instanceof Player ? sender.getName() : "CONSOLE";
@@ -290,6 +394,14 @@ public class MainCommand implements CommandExecutor {
         sender.sendMessage(ChatColor.YELLOW + "总错误次数: " + ChatColor.WHITE + stats.getOrDefault("totalErrors", 0));
         sender.sendMessage(ChatColor.YELLOW + "活跃玩家数: " + ChatColor.WHITE + stats.getOrDefault("activePlayerCount", 0));
         sender.sendMessage(ChatColor.YELLOW + "使用的模型数: " + ChatColor.WHITE + stats.getOrDefault("modelCount", 0));
+        sender.sendMessage(ChatColor.YELLOW + "合并请求次数: " + ChatColor.WHITE + stats.getOrDefault("coalescedRequests", 0));
+        sender.sendMessage(ChatColor.YELLOW + "对冲请求次数: " + ChatColor.WHITE + stats.getOrDefault("hedgedRequests", 0));
+        sender.sendMessage(ChatColor.YELLOW + "故障转移次数: " + ChatColor.WHITE + stats.getOrDefault("failoverRequests", 0));
+        sender.sendMessage(ChatColor.YELLOW + "重试次数: " + ChatColor.WHITE + stats.getOrDefault("retriedRequests", 0));
+        sender.sendMessage(ChatColor.YELLOW + "熔断次数: " + ChatColor.WHITE + stats.getOrDefault("circuitOpenCount", 0));
+        sender.sendMessage(ChatColor.YELLOW + "取消请求数: " + ChatColor.WHITE + stats.getOrDefault("cancelledRequests", 0));
+        sender.sendMessage(ChatColor.YELLOW + "超时请求数: " + ChatColor.WHITE + stats.getOrDefault("deadlineExceeded", 0));
+        sender.sendMessage(ChatColor.YELLOW + "平均提示词令牌: " + ChatColor.WHITE + stats.getOrDefault("averagePromptTokens", 0));
 
         if (stats.containsKey("successRate")) {
             double successRate = (Double) stats.get("successRate");
@@ -453,6 +565,74 @@ public class MainCommand implements CommandExecutor {
         getLogManager().logCommand(senderName, "timeout toggle " + modelKey + " -> " + status);
     }
 
+    private void handleCache(CommandSender sender, String[] args) {
+        if (sender instanceof Player) {
+            Player player = (Player) sender;
+            if (!player.hasPermission(configManager.getPermission("admin"))) {
+                sender.sendMessage(ChatColor.RED + "你没有权限管理回复缓存！");
+                return;
+            }
+        }
+
+        if (args.length < 2) {
+            sender.sendMessage(ChatColor.RED + "用法: /gcc cache <stats|clear>");
+            return;
+        }
+
+        String senderName = sender instanceof Player ? sender.getName() : "CONSOLE";
+        ResponseCache cache = getChatManager().getResponseCache();
+
+        switch (args[1].toLowerCase()) {
+            case "stats":
+                Map<String, Object> stats = cache.getStats();
+                sender.sendMessage(ChatColor.GREEN + "=== 回复缓存统计 ===");
+                sender.sendMessage(ChatColor.YELLOW + "缓存状态: " + ((Boolean) stats.get("enabled") ? ChatColor.GREEN + "启用" : ChatColor.RED + "禁用"));
+                sender.sendMessage(ChatColor.YELLOW + "条目数: " + ChatColor.WHITE + stats.get("entries") + "/" + stats.get("maxEntries"));
+                sender.sendMessage(ChatColor.YELLOW + "占用: " + ChatColor.WHITE + ((Long) stats.get("bytes") / 1024) + "KB/" + ((Long) stats.get("maxBytes") / 1024) + "KB");
+                sender.sendMessage(ChatColor.YELLOW + "命中/未命中: " + ChatColor.WHITE + stats.get("hits") + "/" + stats.get("misses"));
+                if (stats.containsKey("hitRate")) {
+                    sender.sendMessage(ChatColor.YELLOW + "命中率: " + ChatColor.WHITE + String.format("%.2f%%", (Double) stats.get("hitRate")));
+                }
+                sender.sendMessage(ChatColor.YELLOW + "淘汰/过期: " + ChatColor.WHITE + stats.get("evictions") + "/" + stats.get("expirations"));
+                sender.sendMessage(ChatColor.YELLOW + "历史策略: " + ChatColor.WHITE + stats.get("historyPolicy"));
+                getLogManager().logCommand(senderName, "cache stats");
+                break;
+
+            case "clear":
+                cache.clear();
+                sender.sendMessage(ChatColor.GREEN + "回复缓存已清空！");
+                getLogManager().logCommand(senderName, "cache clear");
+                break;
+
+            default:
+                sender.sendMessage(ChatColor.RED + "未知的缓存命令！用法: /gcc cache <stats|clear>");
+                break;
+        }
+    }
+
+    private void handleMemory(CommandSender sender) {
+        if (sender instanceof Player) {
+            Player player = (Player) sender;
+            if (!player.hasPermission(configManager.getPermission("admin"))) {
+                sender.sendMessage(ChatColor.RED + "你没有权限查看对话历史内存！");
+                return;
+            }
+        }
+
+        ConversationStore conversations = getChatManager().getGeminiService().getConversations();
+        sender.sendMessage(ChatColor.GREEN + "=== 对话历史内存 ===");
+        sender.sendMessage(ChatColor.YELLOW + "玩家数: " + ChatColor.WHITE + conversations.getPlayerCount()
+            + ChatColor.GRAY + "（离线待淘汰 " + conversations.getDepartedCount() + "）");
+        long maxBytes = conversations.getMaxBytes();
+        sender.sendMessage(ChatColor.YELLOW + "占用: " + ChatColor.WHITE + (conversations.getWeight() / 1024) + "KB/"
+            + (maxBytes > 0 ? (maxBytes / 1024) + "KB" : "不限制"));
+        sender.sendMessage(ChatColor.YELLOW + "淘汰玩家数: " + ChatColor.WHITE + conversations.getEvictions()
+            + ChatColor.GRAY + "（其中离线玩家 " + conversations.getDepartedEvictions() + "）");
+
+        String senderName = sender instanceof Player ? sender.getName() : "CONSOLE";
+        getLogManager().logCommand(senderName, "memory");
+    }
+
     private void sendHelpMessage(CommandSender sender) {
         sender.sendMessage(ChatColor.GREEN + "=== GeminiCraftChat 命令帮助 ===");
         sender.sendMessage(ChatColor.YELLOW + "/gcc reload " + ChatColor.GRAY + "- 重新加载配置文件");
@@ -478,12 +658,16 @@ public class MainCommand implements CommandExecutor {
 
         if (hasAdminPerm) {
             sender.sendMessage(ChatColor.YELLOW + "/gcc debug " + ChatColor.GRAY + "- 切换调试模式");
+            sender.sendMessage(ChatColor.YELLOW + "/gcc model list " + ChatColor.GRAY + "- 查看模型列表与路由权重");
             sender.sendMessage(ChatColor.YELLOW + "/gcc logs stats " + ChatColor.GRAY + "- 查看日志统计信息");
             sender.sendMessage(ChatColor.YELLOW + "/gcc logs reset " + ChatColor.GRAY + "- 重置统计数据");
             sender.sendMessage(ChatColor.YELLOW + "/gcc logs export " + ChatColor.GRAY + "- 导出玩家统计到日志");
             sender.sendMessage(ChatColor.YELLOW + "/gcc timeout list " + ChatColor.GRAY + "- 查看所有模型的超时设置");
             sender.sendMessage(ChatColor.YELLOW + "/gcc timeout info <模型> " + ChatColor.GRAY + "- 查看指定模型的详细超时信息");
             sender.sendMessage(ChatColor.YELLOW + "/gcc timeout toggle <模型> " + ChatColor.GRAY + "- 切换模型的长思考模式");
+            sender.sendMessage(ChatColor.YELLOW + "/gcc cache stats " + ChatColor.GRAY + "- 查看回复缓存统计");
+            sender.sendMessage(ChatColor.YELLOW + "/gcc cache clear " + ChatColor.GRAY + "- 清空回复缓存");
+            sender.sendMessage(ChatColor.YELLOW + "/gcc memory " + ChatColor.GRAY + "- 查看对话历史内存占用");
         }
 
         if (!(sender instanceof Player)) {
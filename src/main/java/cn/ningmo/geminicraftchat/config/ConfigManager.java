@@ -95,6 +95,20 @@ public class ConfigManager {
         return config.getInt("chat.max_history", 10);
     }
 
+    /**
+     * 所有玩家对话历史的内存预算（字节），0 表示不限制
+     */
+    public long getMemoryBudgetBytes() {
+        return Math.max(0, config.getLong("chat.memory_budget_kb", 16384)) * 1024;
+    }
+
+    /**
+     * 内容超过该大小（字节）的历史消息压缩保存，0 表示不压缩
+     */
+    public int getHistoryCompressThreshold() {
+        return Math.max(0, config.getInt("chat.compress_history_above_bytes", 0));
+    }
+
     public String getThinkingFormat() {
         return config.getString("chat.format.thinking", "§7[AI] §f正在思考中...");
     }
@@ -107,6 +121,64 @@ public class ConfigManager {
         return config.getString("chat.format.error", "§c[AI] 发生错误：%s");
     }
 
+    public String getQueuedFormat() {
+        return config.getString("chat.format.queued", "§7[AI] §f正在排队，前面还有 %d 个请求...");
+    }
+
+    public String getOverloadedFormat() {
+        return config.getString("chat.format.overloaded", "§e[AI] 当前提问人数较多，请稍后再试");
+    }
+
+    public String getMergedFormat() {
+        return config.getString("chat.format.merged", "§7[AI] §f已收到，将在当前回复结束后一并回答");
+    }
+
+    public String getMailboxFullFormat() {
+        return config.getString("chat.format.mailbox_full", "§c[AI] 消息太多了，请等待当前回复结束");
+    }
+
+    /**
+     * 请求进行期间最多暂存的追问数，超出的消息被丢弃
+     */
+    public int getMaxMergedMessages() {
+        return Math.max(0, config.getInt("chat.max_merged_messages", 3));
+    }
+
+    public String getCancelledFormat() {
+        return config.getString("chat.format.cancelled", "§e[AI] 请求已取消: %s");
+    }
+
+    public String getDeadlineFormat() {
+        return config.getString("chat.format.deadline", "§e[AI] 回复超时（%d 秒），请稍后再试");
+    }
+
+    /**
+     * 获取请求截止时间（毫秒），人设的 deadline_ms 优先于 api.deadline_ms，0 表示不限制
+     */
+    public long getRequestDeadline(String personaKey) {
+        long deadline = config.getLong("personas." + personaKey + ".deadline_ms", 0);
+        if (deadline <= 0) {
+            deadline = config.getLong("api.deadline_ms", 120000);
+        }
+        return Math.max(0, deadline);
+    }
+
+    public long getReloadDrainTimeout() {
+        return Math.max(0, config.getLong("api.reload_drain_timeout_ms", 30000));
+    }
+
+    public String getStreamChunkFormat() {
+        return config.getString("chat.format.stream_chunk", "§f%s");
+    }
+
+    public int getStreamMinChunkLength() {
+        return config.getInt("chat.stream.min_chunk_length", 16);
+    }
+
+    public int getStreamMaxChunkLength() {
+        return config.getInt("chat.stream.max_chunk_length", 200);
+    }
+
     public long getCooldown() {
         return config.getLong("chat.cooldown", 10000);
     }
@@ -0,0 +1,253 @@
+package cn.ningmo.geminicraftchat.history;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongConsumer;
+
+/**
+ * 单个玩家的定长环形对话缓冲区
+ * 追加与淘汰最早消息均为 O(1)；读取快照使用乐观读，不与写入互斥，
+ * 只有读取期间恰好发生写入时才退回读锁重试。
+ * 缓冲区同时保存较早对话的滚动摘要，摘要与被压缩的消息在同一次写入中替换。
+ * 缓冲区维护自身的内存占用（含摘要），每次变化通过 weightListener 通知存储汇总。
+ */
+final class ConversationBuffer {
+    private final StampedLock lock = new StampedLock();
+    private final Turn[] turns;
+    private final LongConsumer weightListener;
+    private int head;
+    private int size;
+    private String summary;
+    private long weight;
+    private boolean detached;
+    private volatile long lastAccess = System.nanoTime();
+
+    ConversationBuffer(int capacity, LongConsumer weightListener) {
+        this.turns = new Turn[Math.max(2, capacity)];
+        this.weightListener = weightListener;
+    }
+
+    /**
+     * 追加一轮对话，超出容量时淘汰最早的消息
+     * @return 追加后的消息数
+     */
+    int append(Turn question, Turn answer) {
+        touch();
+        long stamp = lock.writeLock();
+        long before = weight;
+        try {
+            push(question);
+            push(answer);
+            return size;
+        } finally {
+            report(weight - before);
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 在已有消息之前插入从日志加载的消息，超出容量时丢弃其中最早的部分
+     * @param loadedSummary 日志中的摘要，缓冲区已有更新的摘要时忽略
+     */
+    void prependAll(List<Turn> loaded, String loadedSummary) {
+        long stamp = lock.writeLock();
+        long before = weight;
+        try {
+            if (summary == null && loadedSummary != null) {
+                summary = loadedSummary;
+                weight += summaryWeight(loadedSummary);
+            }
+            List<Turn> existing = Arrays.asList(copy());
+            Arrays.fill(turns, null);
+            head = 0;
+            size = 0;
+            weight = summary != null ? summaryWeight(summary) : 0;
+            for (Turn turn : loaded) {
+                push(turn);
+            }
+            for (Turn turn : existing) {
+                push(turn);
+            }
+        } finally {
+            report(weight - before);
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void push(Turn turn) {
+        if (size == turns.length) {
+            weight -= turns[head].weight();
+            turns[head] = null;
+            head = (head + 1) % turns.length;
+            size--;
+        }
+        turns[(head + size) % turns.length] = turn;
+        weight += turn.weight();
+        size++;
+    }
+
+    /**
+     * 读取按时间顺序排列的不可变快照
+     */
+    List<Turn> snapshot() {
+        touch();
+        long stamp = lock.tryOptimisticRead();
+        Turn[] copy = copy();
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                copy = copy();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return Arrays.asList(copy);
+    }
+
+    private Turn[] copy() {
+        int currentHead = head;
+        int currentSize = Math.min(size, turns.length);
+        Turn[] copy = new Turn[currentSize];
+        // 环形数组最多分为两段，分别整段复制
+        int first = Math.min(currentSize, turns.length - currentHead);
+        System.arraycopy(turns, currentHead, copy, 0, first);
+        System.arraycopy(turns, 0, copy, first, currentSize - first);
+        return copy;
+    }
+
+    /**
+     * 移除最早的若干条消息，仅当它们仍是 expected 中的同一批消息时才移除
+     * @return 实际移除的消息数
+     */
+    int removeOldest(List<Turn> expected) {
+        long stamp = lock.writeLock();
+        long before = weight;
+        try {
+            return removeOldestLocked(expected);
+        } finally {
+            report(weight - before);
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 用新的摘要替换被压缩的最早消息，仅当它们仍是 expected 中的同一批消息时才替换
+     * 消息已被淘汰、清除或重新加载时不做任何修改
+     * @return 实际移除的消息数，未替换时为 0
+     */
+    int summarize(String newSummary, List<Turn> expected) {
+        long stamp = lock.writeLock();
+        long before = weight;
+        try {
+            int removed = removeOldestLocked(expected);
+            if (removed > 0) {
+                if (summary != null) {
+                    weight -= summaryWeight(summary);
+                }
+                summary = newSummary;
+                weight += summaryWeight(newSummary);
+            }
+            return removed;
+        } finally {
+            report(weight - before);
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private int removeOldestLocked(List<Turn> expected) {
+        if (expected.size() > size) {
+            return 0;
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            if (turns[(head + i) % turns.length] != expected.get(i)) {
+                return 0;
+            }
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            weight -= turns[head].weight();
+            turns[head] = null;
+            head = (head + 1) % turns.length;
+        }
+        size -= expected.size();
+        return expected.size();
+    }
+
+    /**
+     * 较早对话的摘要，没有时返回 null
+     */
+    String summary() {
+        long stamp = lock.tryOptimisticRead();
+        String current = summary;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                current = summary;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 摘要的估算占用：按 UTF-16 计算字符数据与对象头
+     */
+    private static long summaryWeight(String summary) {
+        return summary.length() * 2L + 64;
+    }
+
+    /**
+     * 报告占用变化，需持有写锁；已从存储中移除的缓冲区不再报告
+     */
+    private void report(long delta) {
+        if (!detached && delta != 0) {
+            weightListener.accept(delta);
+        }
+    }
+
+    /**
+     * 从存储中移除缓冲区，之后的写入不再计入总占用
+     * @return 移除时的占用
+     */
+    long detach() {
+        long stamp = lock.writeLock();
+        try {
+            detached = true;
+            return weight;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void touch() {
+        lastAccess = System.nanoTime();
+    }
+
+    long getLastAccess() {
+        return lastAccess;
+    }
+
+    long weight() {
+        long stamp = lock.readLock();
+        try {
+            return weight;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    int size() {
+        long stamp = lock.tryOptimisticRead();
+        int current = size;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                current = size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return current;
+    }
+}
@@ -0,0 +1,720 @@
+package cn.ningmo.geminicraftchat.history;
+
+import cn.ningmo.geminicraftchat.GeminiCraftChat;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * 对话历史日志
+ * 以只追加的分段文件保存在插件数据目录下，每条记录带长度与 CRC32 校验，
+ * 写入先进入内存队列，由后台线程按批写出；段数超过上限时在后台压缩为每个玩家一条记录。
+ * 压缩分批进行，每批之间让出日志线程，玩家加载历史记录不需要等待整个压缩完成。
+ * 读取按玩家索引定位记录，可选使用内存映射。所有磁盘操作都在日志线程执行，聊天流程不会等待磁盘。
+ */
+public class ConversationJournal {
+    /**
+     * 日志配置，对应 chat.journal
+     * @param flushIntervalMillis 批量写出的间隔
+     * @param segmentBytes 单个分段的大小上限
+     * @param maxSegments 分段数超过该值时压缩
+     * @param mmapReads 读取已封存的分段时是否使用内存映射
+     * @param fsync 每批写出后是否强制刷盘
+     */
+    public record Settings(boolean enabled, String directory, long flushIntervalMillis, long segmentBytes,
+                           int maxSegments, boolean mmapReads, boolean fsync) {
+        public static Settings load(ConfigurationSection config) {
+            if (config == null) {
+                return new Settings(true, "history", 200, 1024 * 1024, 8, false, false);
+            }
+            return new Settings(
+                config.getBoolean("enabled", true),
+                config.getString("directory", "history"),
+                Math.max(10, config.getLong("flush_interval_ms", 200)),
+                Math.max(16, config.getLong("segment_size_kb", 1024)) * 1024,
+                Math.max(2, config.getInt("max_segments", 8)),
+                config.getBoolean("mmap_reads", false),
+                config.getBoolean("fsync", false)
+            );
+        }
+    }
+
+    private static final int MAGIC = 0x47434A31;
+    private static final int HEADER_BYTES = 4;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)\\.log");
+    /**
+     * 压缩时每批处理的玩家数
+     */
+    private static final int COMPACT_BATCH = 32;
+
+    private static final byte OP_APPEND = 1;
+    private static final byte OP_CLEAR = 2;
+    private static final byte OP_REMOVE_OLDEST = 3;
+    private static final byte OP_CLEAR_ALL = 4;
+    private static final byte OP_SUMMARIZE = 5;
+
+    /**
+     * 一条日志记录
+     * @param count REMOVE_OLDEST 与 SUMMARIZE 移除的最早消息数
+     * @param summary SUMMARIZE 写入的摘要
+     */
+    private record Entry(byte op, String playerId, List<Turn> turns, int count, String summary) {
+        Entry(byte op, String playerId, List<Turn> turns, int count) {
+            this(op, playerId, turns, count, null);
+        }
+    }
+
+    /**
+     * 重放得到的玩家历史
+     * @param summary 较早对话的摘要，没有时为 null
+     */
+    record History(List<Turn> turns, String summary) {
+        static final History EMPTY = new History(List.of(), null);
+
+        boolean isEmpty() {
+            return turns.isEmpty() && summary == null;
+        }
+    }
+
+    /**
+     * 记录在分段中的位置
+     */
+    private record Position(long segment, long offset) {
+    }
+
+    /**
+     * 进行中的分批压缩，只在日志线程中访问
+     */
+    private static final class Compaction {
+        // 被压缩的最后一个分段，压缩结果写入同名分段替换它
+        final long id;
+        final File target;
+        final File temp;
+        final FileChannel channel;
+        final Iterator<String> players;
+        // 已压缩的玩家在新分段中的记录位置
+        final Map<String, List<Position>> index = new HashMap<>();
+        // 压缩期间被清除的玩家，其已压缩的记录不再使用
+        final Set<String> cleared = new HashSet<>();
+        final long started = System.currentTimeMillis();
+        boolean clearedAll;
+        long offset;
+
+        Compaction(long id, File target, File temp, FileChannel channel, Iterator<String> players) {
+            this.id = id;
+            this.target = target;
+            this.temp = temp;
+            this.channel = channel;
+            this.players = players;
+        }
+    }
+
+    private final Logger logger;
+    private final Consumer<String> debug;
+    private final Settings settings;
+    private final File directory;
+    private final ScheduledExecutorService executor;
+    private final ConcurrentLinkedQueue<Entry> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private volatile boolean closed;
+
+    // 以下字段只在日志线程中访问
+    private final Map<String, List<Position>> index = new HashMap<>();
+    private final TreeMap<Long, File> segments = new TreeMap<>();
+    private final Map<Long, MappedByteBuffer> mapped = new HashMap<>();
+    private FileChannel active;
+    private long activeId;
+    private Compaction compaction;
+    // 最近一次加载时存储的容量（消息数），压缩时只保留这些消息；加载前不裁剪
+    private int capacity = Integer.MAX_VALUE;
+
+    public ConversationJournal(GeminiCraftChat plugin, Settings settings) {
+        this(new File(plugin.getDataFolder(), settings.directory()), plugin.getLogger(), plugin::debug, settings);
+    }
+
+    ConversationJournal(File directory, Logger logger, Consumer<String> debug, Settings settings) {
+        this.logger = logger;
+        this.debug = debug;
+        this.settings = settings;
+        this.directory = directory;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "GeminiCraftChat-Journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::open);
+    }
+
+    public void append(String playerId, List<Turn> turns) {
+        enqueue(new Entry(OP_APPEND, playerId, turns, turns.size()));
+    }
+
+    /**
+     * 记录摘要替换了最早的 count 条消息
+     */
+    public void summarize(String playerId, String summary, int count) {
+        enqueue(new Entry(OP_SUMMARIZE, playerId, List.of(), count, summary));
+    }
+
+    public void clear(String playerId) {
+        enqueue(new Entry(OP_CLEAR, playerId, List.of(), 0));
+    }
+
+    public void clearAll() {
+        enqueue(new Entry(OP_CLEAR_ALL, "", List.of(), 0));
+    }
+
+    /**
+     * 在日志线程中读取玩家的历史记录，读取前先写出队列中的记录
+     * 读取失败时以空列表完成
+     * @param capacity 存储中每个玩家的容量（消息数），只返回最近的这些消息，之后的压缩也按该容量裁剪
+     */
+    CompletableFuture<History> load(String playerId, int capacity) {
+        CompletableFuture<History> future = new CompletableFuture<>();
+        load(playerId, capacity, future, future::complete);
+        return future;
+    }
+
+    /**
+     * 在日志线程中读取玩家的历史记录，并在持有 lock 时以读取结果调用 callback
+     * 写出队列与读取也在持有 lock 时进行：调用方在同一锁内写入的记录，
+     * 要么已包含在读取结果中，要么在 callback 之后才写入
+     * @param capacity 存储中每个玩家的容量（消息数），只返回最近的这些消息，之后的压缩也按该容量裁剪
+     * @return 调用 callback 并释放 lock 之后完成
+     */
+    CompletableFuture<Void> load(String playerId, int capacity, Object lock, Consumer<History> callback) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                synchronized (lock) {
+                    History history;
+                    try {
+                        this.capacity = capacity;
+                        flush();
+                        history = replay(index.getOrDefault(playerId, List.of()), capacity);
+                    } catch (IOException | RuntimeException e) {
+                        logger.warning("读取玩家 " + playerId + " 的对话历史失败: " + e.getMessage());
+                        history = History.EMPTY;
+                    }
+                    callback.accept(history);
+                }
+                done.complete(null);
+            });
+        } catch (RejectedExecutionException e) {
+            synchronized (lock) {
+                callback.accept(History.EMPTY);
+            }
+            done.complete(null);
+        }
+        return done;
+    }
+
+    private void enqueue(Entry entry) {
+        if (closed) {
+            return;
+        }
+        pending.add(entry);
+        if (flushScheduled.compareAndSet(false, true)) {
+            try {
+                executor.schedule(this::flushSafely, settings.flushIntervalMillis(), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                flushScheduled.set(false);
+            }
+        }
+    }
+
+    // ---- 以下方法只在日志线程中执行 ----
+
+    private void open() {
+        try {
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IOException("无法创建目录 " + directory);
+            }
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+                    if (matcher.matches()) {
+                        segments.put(Long.parseLong(matcher.group(1)), file);
+                    }
+                }
+            }
+            for (Map.Entry<Long, File> segment : segments.entrySet()) {
+                scan(segment.getKey(), segment.getValue(), segment.getKey().equals(segments.lastKey()));
+            }
+            openActive(segments.isEmpty() ? 1 : segments.lastKey() + 1);
+            debug.accept("对话历史日志已加载: " + segments.size() + " 个分段，" + index.size() + " 个玩家");
+        } catch (IOException e) {
+            logger.severe("打开对话历史日志失败，本次运行不会保存对话历史: " + e.getMessage());
+            closed = true;
+        }
+    }
+
+    /**
+     * 扫描分段建立索引，最后一个分段末尾不完整的记录会被截断
+     */
+    private void scan(long id, File file, boolean last) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(channel.size(), Integer.MAX_VALUE));
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // 读满整个分段
+            }
+            buffer.flip();
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) {
+                logger.warning("忽略无效的对话历史分段: " + file.getName());
+                return;
+            }
+
+            long offset = HEADER_BYTES;
+            while (buffer.remaining() >= RECORD_HEADER_BYTES) {
+                int length = buffer.getInt();
+                int crc = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                buffer.get(payload);
+                if (crc(payload) != crc) {
+                    break;
+                }
+                apply(decode(payload), new Position(id, offset));
+                offset += RECORD_HEADER_BYTES + length;
+            }
+
+            if (offset < channel.size()) {
+                if (last) {
+                    logger.warning("对话历史分段 " + file.getName() + " 末尾有不完整的记录，已截断");
+                    channel.truncate(offset);
+                } else {
+                    logger.warning("对话历史分段 " + file.getName() + " 已损坏，忽略 " + offset + " 字节之后的内容");
+                }
+            }
+        }
+    }
+
+    private void apply(Entry entry, Position position) {
+        switch (entry.op()) {
+            case OP_APPEND, OP_REMOVE_OLDEST, OP_SUMMARIZE -> index.computeIfAbsent(entry.playerId(), k -> new ArrayList<>()).add(position);
+            case OP_CLEAR -> {
+                index.remove(entry.playerId());
+                if (compaction != null) {
+                    compaction.cleared.add(entry.playerId());
+                }
+            }
+            case OP_CLEAR_ALL -> {
+                index.clear();
+                if (compaction != null) {
+                    compaction.clearedAll = true;
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (IOException | RuntimeException e) {
+            logger.warning("写入对话历史失败: " + e.getMessage());
+        }
+    }
+
+    private void flush() throws IOException {
+        flushScheduled.set(false);
+        if (active == null || pending.isEmpty()) {
+            return;
+        }
+
+        List<Entry> batch = new ArrayList<>();
+        Entry entry;
+        while ((entry = pending.poll()) != null) {
+            batch.add(entry);
+        }
+
+        long offset = active.size();
+        for (Entry item : batch) {
+            byte[] record = encodeRecord(item);
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            while (buffer.hasRemaining()) {
+                active.write(buffer, offset + buffer.position());
+            }
+            apply(item, new Position(activeId, offset));
+            offset += record.length;
+        }
+        if (settings.fsync()) {
+            active.force(false);
+        }
+
+        if (offset >= settings.segmentBytes()) {
+            openActive(activeId + 1);
+            if (compaction == null && segments.size() > settings.maxSegments()) {
+                startCompaction();
+            }
+        }
+    }
+
+    private void openActive(long id) throws IOException {
+        if (active != null) {
+            active.close();
+        }
+        File file = new File(directory, String.format("segment-%08d.log", id));
+        active = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (active.size() == 0) {
+            active.write(ByteBuffer.allocate(HEADER_BYTES).putInt(0, MAGIC), 0);
+        }
+        activeId = id;
+        segments.put(id, file);
+    }
+
+    /**
+     * 开始将已封存的分段压缩为一个分段：以 CLEAR_ALL 开头，之后每个玩家一条摘要记录（如有）和一条消息记录
+     * 压缩覆盖当前活动分段之前的全部分段，之后的写入进入新的分段；压缩分批执行，批次之间处理其他任务
+     * 新分段写入完成并改名后才删除旧分段，中途崩溃时重放结果不变
+     */
+    private void startCompaction() throws IOException {
+        long compactedId = activeId - 1;
+        File target = new File(directory, String.format("segment-%08d.log", compactedId));
+        File temp = new File(directory, target.getName() + ".tmp");
+        FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        Compaction started = new Compaction(compactedId, target, temp, channel, new ArrayList<>(index.keySet()).iterator());
+        try {
+            started.offset += writeFully(channel, ByteBuffer.allocate(HEADER_BYTES).putInt(0, MAGIC), 0);
+            started.offset += writeFully(channel,
+                ByteBuffer.wrap(encodeRecord(new Entry(OP_CLEAR_ALL, "", List.of(), 0))), started.offset);
+        } catch (IOException e) {
+            abortCompaction(started);
+            throw e;
+        }
+        compaction = started;
+        executor.execute(this::compactBatch);
+    }
+
+    /**
+     * 压缩一批玩家，还有剩余时重新提交到日志线程末尾
+     */
+    private void compactBatch() {
+        Compaction current = compaction;
+        if (current == null) {
+            return;
+        }
+        try {
+            if (closed) {
+                abortCompaction(current);
+                return;
+            }
+            for (int i = 0; i < COMPACT_BATCH && current.players.hasNext(); i++) {
+                compactPlayer(current, current.players.next());
+            }
+            if (current.players.hasNext()) {
+                executor.execute(this::compactBatch);
+            } else {
+                finishCompaction(current);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warning("压缩对话历史日志失败: " + e.getMessage());
+            abortCompaction(current);
+        }
+    }
+
+    private void compactPlayer(Compaction current, String playerId) throws IOException {
+        // 只压缩已封存分段中的记录，压缩开始后的写入保留在新分段中
+        List<Position> sealed = new ArrayList<>();
+        for (Position position : index.getOrDefault(playerId, List.of())) {
+            if (position.segment() <= current.id) {
+                sealed.add(position);
+            }
+        }
+        if (sealed.isEmpty()) {
+            return;
+        }
+        History history = replay(sealed, capacity);
+        if (history.isEmpty()) {
+            return;
+        }
+        List<Position> positions = new ArrayList<>();
+        if (history.summary() != null) {
+            byte[] record = encodeRecord(new Entry(OP_SUMMARIZE, playerId, List.of(), 0, history.summary()));
+            positions.add(new Position(current.id, current.offset));
+            current.offset += writeFully(current.channel, ByteBuffer.wrap(record), current.offset);
+        }
+        if (!history.turns().isEmpty()) {
+            List<Turn> turns = history.turns();
+            byte[] record = encodeRecord(new Entry(OP_APPEND, playerId, turns, turns.size()));
+            positions.add(new Position(current.id, current.offset));
+            current.offset += writeFully(current.channel, ByteBuffer.wrap(record), current.offset);
+        }
+        current.index.put(playerId, positions);
+    }
+
+    private void finishCompaction(Compaction current) throws IOException {
+        current.channel.force(true);
+        current.channel.close();
+        Files.move(current.temp.toPath(), current.target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        compaction = null;
+
+        int removed = 0;
+        for (Map.Entry<Long, File> segment : new ArrayList<>(segments.headMap(current.id).entrySet())) {
+            if (segment.getValue().delete()) {
+                removed++;
+            }
+            segments.remove(segment.getKey());
+        }
+        segments.put(current.id, current.target);
+        mapped.clear();
+
+        // 已压缩的记录在前，压缩期间写入新分段的记录在后；压缩期间被清除的玩家只保留清除之后的记录
+        Map<String, List<Position>> merged = new HashMap<>();
+        if (!current.clearedAll) {
+            current.index.forEach((playerId, positions) -> {
+                if (!current.cleared.contains(playerId)) {
+                    merged.put(playerId, new ArrayList<>(positions));
+                }
+            });
+        }
+        index.forEach((playerId, positions) -> {
+            for (Position position : positions) {
+                if (position.segment() > current.id) {
+                    merged.computeIfAbsent(playerId, k -> new ArrayList<>()).add(position);
+                }
+            }
+        });
+        index.clear();
+        index.putAll(merged);
+
+        debug.accept("对话历史日志压缩完成: 合并 " + removed + " 个分段，" + index.size() + " 个玩家，耗时 "
+            + (System.currentTimeMillis() - current.started) + "ms");
+    }
+
+    private void abortCompaction(Compaction current) {
+        compaction = null;
+        try {
+            current.channel.close();
+            Files.deleteIfExists(current.temp.toPath());
+        } catch (IOException e) {
+            logger.warning("清理对话历史压缩临时文件失败: " + e.getMessage());
+        }
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, offset + buffer.position());
+        }
+        return length;
+    }
+
+    /**
+     * 按顺序重放玩家的记录，得到最近的 capacity 条消息和最新的摘要
+     */
+    private History replay(List<Position> positions, int capacity) throws IOException {
+        ArrayDeque<Turn> turns = new ArrayDeque<>();
+        String summary = null;
+        Map<Long, FileChannel> channels = new HashMap<>();
+        try {
+            for (Position position : positions) {
+                Entry entry = decode(read(position, channels));
+                if (entry.op() == OP_APPEND) {
+                    turns.addAll(entry.turns());
+                    while (turns.size() > capacity) {
+                        turns.pollFirst();
+                    }
+                } else if (entry.op() == OP_REMOVE_OLDEST || entry.op() == OP_SUMMARIZE) {
+                    for (int i = 0; i < entry.count() && !turns.isEmpty(); i++) {
+                        turns.pollFirst();
+                    }
+                    if (entry.op() == OP_SUMMARIZE) {
+                        summary = entry.summary();
+                    }
+                }
+            }
+        } finally {
+            for (FileChannel channel : channels.values()) {
+                channel.close();
+            }
+        }
+        return new History(List.copyOf(turns), summary);
+    }
+
+    private byte[] read(Position position, Map<Long, FileChannel> channels) throws IOException {
+        ByteBuffer view;
+        if (settings.mmapReads() && position.segment() != activeId) {
+            MappedByteBuffer buffer = mapped.get(position.segment());
+            if (buffer == null) {
+                try (FileChannel channel = FileChannel.open(segments.get(position.segment()).toPath(), StandardOpenOption.READ)) {
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+                mapped.put(position.segment(), buffer);
+            }
+            view = buffer.duplicate();
+            view.position((int) position.offset());
+        } else {
+            FileChannel channel = position.segment() == activeId ? active : channels.get(position.segment());
+            if (channel == null) {
+                channel = FileChannel.open(segments.get(position.segment()).toPath(), StandardOpenOption.READ);
+                channels.put(position.segment(), channel);
+            }
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+            readFully(channel, header, position.offset());
+            header.flip();
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + header.getInt(0));
+            readFully(channel, record, position.offset());
+            record.flip();
+            view = record;
+        }
+
+        int length = view.getInt();
+        int crc = view.getInt();
+        byte[] payload = new byte[length];
+        view.get(payload);
+        if (crc(payload) != crc) {
+            throw new IOException("对话历史记录校验失败");
+        }
+        return payload;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("对话历史记录不完整");
+            }
+        }
+    }
+
+    private static byte[] encodeRecord(Entry entry) throws IOException {
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(payloadBytes)) {
+            out.writeByte(entry.op());
+            out.writeUTF(entry.playerId());
+            if (entry.op() == OP_APPEND) {
+                out.writeShort(entry.turns().size());
+                for (Turn turn : entry.turns()) {
+                    byte[] content = turn.content().getBytes(StandardCharsets.UTF_8);
+                    out.writeByte(turn.role().ordinal());
+                    out.writeInt(content.length);
+                    out.write(content);
+                }
+            } else if (entry.op() == OP_REMOVE_OLDEST) {
+                out.writeInt(entry.count());
+            } else if (entry.op() == OP_SUMMARIZE) {
+                byte[] summary = entry.summary().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(entry.count());
+                out.writeInt(summary.length);
+                out.write(summary);
+            }
+        }
+        byte[] payload = payloadBytes.toByteArray();
+        return ByteBuffer.allocate(RECORD_HEADER_BYTES + payload.length)
+            .putInt(payload.length)
+            .putInt(crc(payload))
+            .put(payload)
+            .array();
+    }
+
+    private static Entry decode(byte[] payload) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            byte op = in.readByte();
+            String playerId = in.readUTF();
+            if (op == OP_APPEND) {
+                int count = in.readUnsignedShort();
+                List<Turn> turns = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    Turn.Role role = Turn.Role.values()[in.readByte()];
+                    byte[] content = new byte[in.readInt()];
+                    in.readFully(content);
+                    turns.add(new Turn(role, new String(content, StandardCharsets.UTF_8)));
+                }
+                return new Entry(op, playerId, turns, count);
+            }
+            if (op == OP_SUMMARIZE) {
+                int count = in.readInt();
+                byte[] summary = new byte[in.readInt()];
+                in.readFully(summary);
+                return new Entry(op, playerId, List.of(), count, new String(summary, StandardCharsets.UTF_8));
+            }
+            return new Entry(op, playerId, List.of(), op == OP_REMOVE_OLDEST ? in.readInt() : 0);
+        }
+    }
+
+    private static int crc(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 写出队列中的记录并关闭日志，最多等待 5 秒
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            executor.execute(() -> {
+                try {
+                    flush();
+                    if (active != null) {
+                        active.force(true);
+                        active.close();
+                        active = null;
+                    }
+                } catch (IOException e) {
+                    logger.warning("关闭对话历史日志失败: " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException ignored) {
+            // 已关闭
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isEnabled() {
+        return settings.enabled();
+    }
+}
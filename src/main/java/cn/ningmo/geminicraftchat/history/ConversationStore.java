@@ -0,0 +1,284 @@
+package cn.ningmo.geminicraftchat.history;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 玩家对话历史存储
+ * 每个玩家一个定长环形缓冲区，容量为 max_history 轮（每轮一问一答），
+ * 超出容量时自动淘汰最早的消息，构建请求时读取不可变快照。
+ * 较早对话的滚动摘要与消息一起保存在缓冲区中，同样计入内存预算、随玩家淘汰并写入日志。
+ * 配置了对话历史日志时，所有修改都会写入日志，玩家首次提问时再从日志异步加载历史记录。
+ * 所有玩家的历史记录共享一个内存预算，超出预算时优先淘汰已离线的玩家，
+ * 其次淘汰最久未对话的玩家；被淘汰的历史记录在下次提问时从日志重新加载。
+ */
+public class ConversationStore {
+    /**
+     * 超出预算后淘汰到预算的该比例，避免每次追加都触发淘汰
+     */
+    private static final double EVICTION_TARGET = 0.9;
+
+    private final int capacity;
+    private final long maxBytes;
+    private final int compressThreshold;
+    private final ConversationJournal journal;
+    private final Map<String, ConversationBuffer> buffers = new ConcurrentHashMap<>();
+    private final Map<String, Load> loads = new ConcurrentHashMap<>();
+    private final Set<String> departed = ConcurrentHashMap.newKeySet();
+    private final AtomicLong totalWeight = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong departedEvictions = new AtomicLong();
+
+    /**
+     * @param maxTurns 每个玩家保留的最大轮数
+     * @param maxBytes 所有玩家历史记录的内存预算（字节），0 表示不限制
+     * @param compressThreshold 超过该长度（字节）的消息压缩保存，0 表示不压缩
+     * @param journal 对话历史日志，为 null 时只保存在内存中
+     */
+    public ConversationStore(int maxTurns, long maxBytes, int compressThreshold, ConversationJournal journal) {
+        this.capacity = Math.max(1, maxTurns) * 2;
+        this.maxBytes = Math.max(0, maxBytes);
+        this.compressThreshold = Math.max(0, compressThreshold);
+        this.journal = journal;
+    }
+
+    /**
+     * 一次从日志加载，同时作为该玩家内存与日志写入的锁
+     * applied 之前的追加只写入日志，由加载结果带入内存
+     */
+    private static final class Load {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        boolean applied;
+    }
+
+    /**
+     * 确保玩家的历史记录已从日志加载，已加载时返回已完成的 Future
+     */
+    public CompletableFuture<Void> ensureLoaded(String playerId) {
+        departed.remove(playerId);
+        if (journal == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return startLoad(playerId).future;
+    }
+
+    private Load startLoad(String playerId) {
+        Load existing = loads.get(playerId);
+        if (existing != null) {
+            return existing;
+        }
+        Load load = new Load();
+        existing = loads.putIfAbsent(playerId, load);
+        if (existing != null) {
+            return existing;
+        }
+        journal.load(playerId, capacity, load, history -> {
+            // 加载期间历史记录被清除或淘汰时丢弃加载结果
+            if (loads.get(playerId) != load) {
+                return;
+            }
+            if (!history.isEmpty()) {
+                buffer(playerId).prependAll(history.turns().stream().map(turn -> turn.compact(compressThreshold)).toList(),
+                    history.summary());
+            }
+            load.applied = true;
+        }).thenRun(() -> {
+            evictIfNeeded();
+            load.future.complete(null);
+        });
+        return load;
+    }
+
+    /**
+     * 追加一轮对话
+     * 启用日志且历史记录尚未加载（例如请求进行期间被淘汰）时只写入日志，下次加载时带入内存，避免重复
+     * @return 追加后该玩家内存中的消息数，只写入日志时为 0
+     */
+    public int append(String playerId, String question, String answer) {
+        Turn user = Turn.user(question).compact(compressThreshold);
+        Turn assistant = Turn.assistant(answer).compact(compressThreshold);
+        departed.remove(playerId);
+        if (journal == null) {
+            int size = buffer(playerId).append(user, assistant);
+            evictIfNeeded();
+            return size;
+        }
+
+        int size;
+        while (true) {
+            Load load = startLoad(playerId);
+            synchronized (load) {
+                // 取得锁之前已被清除或淘汰时重新开始加载
+                if (loads.get(playerId) != load) {
+                    continue;
+                }
+                size = load.applied ? buffer(playerId).append(user, assistant) : 0;
+                journal.append(playerId, List.of(user, assistant));
+                break;
+            }
+        }
+        evictIfNeeded();
+        return size;
+    }
+
+    private ConversationBuffer buffer(String playerId) {
+        return buffers.computeIfAbsent(playerId, k -> new ConversationBuffer(capacity, totalWeight::addAndGet));
+    }
+
+    /**
+     * 获取玩家历史记录的快照，没有历史时返回空列表
+     */
+    public List<Turn> snapshot(String playerId) {
+        ConversationBuffer buffer = buffers.get(playerId);
+        return buffer != null ? buffer.snapshot() : List.of();
+    }
+
+    public boolean isEmpty(String playerId) {
+        ConversationBuffer buffer = buffers.get(playerId);
+        return buffer == null || buffer.size() == 0;
+    }
+
+    /**
+     * 获取玩家较早对话的摘要，没有时返回 null
+     */
+    public String getSummary(String playerId) {
+        ConversationBuffer buffer = buffers.get(playerId);
+        return buffer != null ? buffer.summary() : null;
+    }
+
+    /**
+     * 用摘要替换最早的一批消息，这些消息已被其他写入淘汰、清除或重新加载时不做任何操作
+     * @return 是否已替换
+     */
+    public boolean summarize(String playerId, String summary, List<Turn> expected) {
+        ConversationBuffer buffer = buffers.get(playerId);
+        int removed = buffer != null ? buffer.summarize(summary, expected) : 0;
+        if (removed == 0) {
+            return false;
+        }
+        if (journal != null) {
+            journal.summarize(playerId, summary, removed);
+        }
+        evictIfNeeded();
+        return true;
+    }
+
+    public void clear(String playerId) {
+        discard(playerId);
+        departed.remove(playerId);
+        if (journal != null) {
+            journal.clear(playerId);
+        }
+    }
+
+    public void clearAll() {
+        for (String playerId : new ArrayList<>(buffers.keySet())) {
+            discard(playerId);
+        }
+        departed.clear();
+        if (journal != null) {
+            journal.clearAll();
+        }
+    }
+
+    /**
+     * 标记玩家已离线，内存不足时优先淘汰其历史记录
+     */
+    public void markDeparted(String playerId) {
+        if (buffers.containsKey(playerId)) {
+            departed.add(playerId);
+        }
+    }
+
+    /**
+     * 超出内存预算时按离线优先、最久未对话优先的顺序淘汰玩家的历史记录
+     * 淘汰只释放内存，不写入日志，玩家下次提问时从日志重新加载；未启用日志时被淘汰的历史记录会丢失
+     */
+    private void evictIfNeeded() {
+        if (maxBytes <= 0 || totalWeight.get() <= maxBytes) {
+            return;
+        }
+        synchronized (this) {
+            long target = (long) (maxBytes * EVICTION_TARGET);
+            if (totalWeight.get() <= target) {
+                return;
+            }
+            // 先记录排序依据，避免排序期间访问时间变化
+            List<Candidate> candidates = new ArrayList<>();
+            buffers.forEach((playerId, buffer) ->
+                candidates.add(new Candidate(playerId, departed.contains(playerId), buffer.getLastAccess())));
+            candidates.sort(Comparator.comparing((Candidate candidate) -> !candidate.departed())
+                .thenComparingLong(Candidate::lastAccess));
+            for (Candidate candidate : candidates) {
+                if (totalWeight.get() <= target) {
+                    break;
+                }
+                String playerId = candidate.playerId();
+                // 只剩一名玩家时保留其历史记录，由环形缓冲区的容量限制
+                if (buffers.size() <= 1) {
+                    break;
+                }
+                if (departed.remove(playerId)) {
+                    departedEvictions.incrementAndGet();
+                }
+                discard(playerId);
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private record Candidate(String playerId, boolean departed, long lastAccess) {
+    }
+
+    private void discard(String playerId) {
+        Load load = loads.remove(playerId);
+        if (load == null) {
+            removeBuffer(playerId);
+            return;
+        }
+        // 与追加互斥，避免追加在淘汰之后重新创建只含新消息的缓冲区
+        synchronized (load) {
+            removeBuffer(playerId);
+        }
+    }
+
+    private void removeBuffer(String playerId) {
+        ConversationBuffer buffer = buffers.remove(playerId);
+        if (buffer != null) {
+            totalWeight.addAndGet(-buffer.detach());
+        }
+    }
+
+    public int getPlayerCount() {
+        return buffers.size();
+    }
+
+    /**
+     * 当前所有历史记录的估算内存占用（字节）
+     */
+    public long getWeight() {
+        return totalWeight.get();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public int getDepartedCount() {
+        return departed.size();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getDepartedEvictions() {
+        return departedEvictions.get();
+    }
+}
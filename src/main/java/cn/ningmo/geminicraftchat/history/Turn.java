@@ -0,0 +1,276 @@
+package cn.ningmo.geminicraftchat.history;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import okio.BufferedSink;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.function.ToIntFunction;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 一条对话消息
+ * 不可变，快照读取时可直接共享引用。创建时即完成 JSON 转义，只保存转义后的内容字符串，
+ * 构建请求体时写出 {"role":..,"content":"<转义内容>"}，历史记录不会在每次请求时重新转义。
+ * 内容以 String 保存而不是 UTF-8 字节：JVM 的紧凑字符串对中文使用 UTF-16（每字 2 字节，UTF-8 需要 3 字节），
+ * 对纯英文使用 Latin-1（每字 1 字节）。代价是每次写出请求体都要把内容转码为 UTF-8，不是直接拼接预先编码的字节。
+ * 读取内容时从转义字符串解析；令牌数按估算器缓存，构建提示词时无需重复解析。
+ * 启用压缩时超过阈值的较长消息用 Deflate 压缩保存，每次写出都要重新解压。
+ */
+public final class Turn {
+    public enum Role {
+        USER("user"), ASSISTANT("assistant");
+
+        private final String apiName;
+        private final byte[] prefix;
+
+        Role(String apiName) {
+            this.apiName = apiName;
+            this.prefix = ("{\"role\":\"" + apiName + "\",\"content\":\"").getBytes(StandardCharsets.UTF_8);
+        }
+
+        /**
+         * 请求体中使用的角色名
+         */
+        public String apiName() {
+            return apiName;
+        }
+    }
+
+    private static final byte[] SUFFIX = {'"', '}'};
+
+    private final Role role;
+    /**
+     * JSON 转义后不含引号的内容（String），或其 UTF-8 字节的压缩数据（byte[]）
+     */
+    private final Object data;
+    /**
+     * 压缩前的 UTF-8 字节数，未压缩时为 -1
+     */
+    private final int inflatedLength;
+    /**
+     * 按估算器缓存的令牌数：高 32 位为估算器的 hashCode，低 32 位为令牌数，0 表示未计算
+     * 打包为一个 long，避免每条消息再分配一个缓存对象
+     */
+    private volatile long tokenCount;
+
+    public Turn(Role role, String content) {
+        this(role, escape(content), -1);
+    }
+
+    private Turn(Role role, Object data, int inflatedLength) {
+        this.role = role;
+        this.data = data;
+        this.inflatedLength = inflatedLength;
+    }
+
+    public static Turn user(String content) {
+        return new Turn(Role.USER, content);
+    }
+
+    public static Turn assistant(String content) {
+        return new Turn(Role.ASSISTANT, content);
+    }
+
+    public Turn withContent(String newContent) {
+        return new Turn(role, newContent);
+    }
+
+    /**
+     * 保存的内容超过阈值时返回压缩保存的副本，压缩后没有明显变小时返回自身
+     * @param threshold 压缩阈值（字节，按内容在堆中占用的大小计算），0 表示不压缩
+     */
+    public Turn compact(int threshold) {
+        if (threshold <= 0 || !(data instanceof String escaped) || storedBytes(escaped) < threshold) {
+            return this;
+        }
+        byte[] utf8 = escaped.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(utf8);
+            deflater.finish();
+            byte[] buffer = new byte[utf8.length];
+            int length = deflater.deflate(buffer);
+            // 与未压缩时的堆占用比较：中文内容在堆中按 UTF-16 保存
+            if (!deflater.finished() || length >= storedBytes(escaped) * 9 / 10) {
+                return this;
+            }
+            byte[] compressed = new byte[length];
+            System.arraycopy(buffer, 0, compressed, 0, length);
+            return new Turn(role, compressed, utf8.length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public Role role() {
+        return role;
+    }
+
+    /**
+     * 从转义内容解析消息内容，热路径应优先使用 {@link #writeTo} 与 {@link #tokens}
+     */
+    public String content() {
+        String value = escaped();
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        try (JsonReader reader = new JsonReader(new StringReader("\"" + value + "\""))) {
+            return reader.nextString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * JSON 转义后的内容，不含引号，压缩保存时解压出新的字符串
+     */
+    public String escaped() {
+        return data instanceof String escaped ? escaped : new String(inflate(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 获取消息的令牌数，同一估算器只计算一次
+     * @param estimator 估算器，按 hashCode 判断是否命中缓存
+     * @param counter 根据消息内容计算令牌数
+     */
+    public int tokens(Object estimator, ToIntFunction<String> counter) {
+        long cached = tokenCount;
+        int key = Objects.hashCode(estimator);
+        if (cached != 0 && (int) (cached >>> 32) == key) {
+            return (int) cached;
+        }
+        int tokens = counter.applyAsInt(content());
+        tokenCount = ((long) key << 32) | (tokens & 0xFFFFFFFFL);
+        return tokens;
+    }
+
+    /**
+     * 估算的内存占用：保存的内容与对象头
+     */
+    public long weight() {
+        return (data instanceof String escaped ? storedBytes(escaped) : ((byte[]) data).length) + 64;
+    }
+
+    public boolean isCompressed() {
+        return inflatedLength >= 0;
+    }
+
+    /**
+     * 以 JSON 消息对象写出到请求体
+     * 每次调用都会重新编码：未压缩时把转义内容从 String 转码为 UTF-8（不产生中间数组），压缩时先解压
+     */
+    public void writeTo(BufferedSink sink) throws IOException {
+        sink.write(role.prefix);
+        if (data instanceof String escaped) {
+            sink.writeUtf8(escaped);
+        } else {
+            sink.write(inflate());
+        }
+        sink.write(SUFFIX);
+    }
+
+    /**
+     * JSON 消息对象的 UTF-8 字节，每次调用生成新的数组
+     */
+    public byte[] json() {
+        byte[] content = data instanceof String escaped ? escaped.getBytes(StandardCharsets.UTF_8) : inflate();
+        byte[] json = new byte[role.prefix.length + content.length + SUFFIX.length];
+        System.arraycopy(role.prefix, 0, json, 0, role.prefix.length);
+        System.arraycopy(content, 0, json, role.prefix.length, content.length);
+        System.arraycopy(SUFFIX, 0, json, role.prefix.length + content.length, SUFFIX.length);
+        return json;
+    }
+
+    private byte[] inflate() {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput((byte[]) data);
+            byte[] data = new byte[inflatedLength];
+            int length = inflater.inflate(data);
+            if (length != inflatedLength) {
+                throw new IllegalStateException("对话消息解压长度不一致: " + length + "/" + inflatedLength);
+            }
+            return data;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("对话消息解压失败", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * 字符串内容在堆中占用的字节数：全部为 Latin-1 字符时每字 1 字节，否则每字 2 字节
+     */
+    private static int storedBytes(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 0xFF) {
+                return value.length() * 2;
+            }
+        }
+        return value.length();
+    }
+
+    private static String escape(String content) {
+        if (content == null) {
+            content = "";
+        }
+        StringWriter output = new StringWriter(content.length() + 2);
+        try (JsonWriter writer = new JsonWriter(output)) {
+            writer.setHtmlSafe(false);
+            writer.value(content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        StringBuffer quoted = output.getBuffer();
+        return quoted.substring(1, quoted.length() - 1);
+    }
+
+    /**
+     * 序列化一条消息为 UTF-8 JSON 对象
+     */
+    public static byte[] encode(String role, String content) {
+        return encode(role, content, false);
+    }
+
+    /**
+     * 序列化一条消息为 UTF-8 JSON 对象
+     * @param cacheBreakpoint 是否以内容块形式写出并添加 cache_control 断点，服务商缓存到该消息为止的前缀
+     */
+    public static byte[] encode(String role, String content, boolean cacheBreakpoint) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(content != null ? content.length() + 32 : 32);
+        try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+            writer.setHtmlSafe(false);
+            writer.beginObject();
+            writer.name("role").value(role);
+            if (cacheBreakpoint) {
+                writer.name("content").beginArray().beginObject();
+                writer.name("type").value("text");
+                writer.name("text").value(content);
+                writer.name("cache_control").beginObject().name("type").value("ephemeral").endObject();
+                writer.endObject().endArray();
+            } else {
+                writer.name("content").value(content);
+            }
+            writer.endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return output.toByteArray();
+    }
+
+    @Override
+    public String toString() {
+        return "Turn[role=" + role + ", content=" + content() + "]";
+    }
+}
@@ -11,6 +11,7 @@ import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
 
 import java.util.List;
 
@@ -36,6 +37,24 @@ public class ChatListener implements Listener {
         plugin.getServer().getScheduler().runTask(plugin, () -> processChatMessage(player, message, aiTrigger));
     }
 
+    /**
+     * 玩家退出时取消其排队中和进行中的请求，避免继续消耗配额，
+     * 并将其历史记录标记为优先淘汰
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        String playerId = event.getPlayer().getName();
+        ChatManager chatManager = getChatManager();
+        if (chatManager != null) {
+            chatManager.cancelPlayerRequests(playerId, "玩家已离线");
+            chatManager.playerDeparted(playerId);
+        }
+        // 重载前发起的请求仍在旧管理器中进行
+        for (ChatManager draining : plugin.getDrainingChatManagers()) {
+            draining.cancelPlayerRequests(playerId, "玩家已离线");
+        }
+    }
+
     private String extractQuestion(String message) {
         String matchedTrigger = findMatchedTrigger(message);
         if (matchedTrigger == null) {
@@ -49,6 +49,15 @@ public class LogManager {
     private final Map<String, Long> apiResponseTimes;
     private final AtomicLong totalApiCalls;
     private final AtomicLong totalErrors;
+    private final AtomicLong coalescedRequests;
+    private final AtomicLong hedgedRequests;
+    private final AtomicLong failoverRequests;
+    private final AtomicLong retriedRequests;
+    private final AtomicLong circuitOpenCount;
+    private final AtomicLong cancelledRequests;
+    private final AtomicLong deadlineExceeded;
+    private final AtomicLong promptTokens;
+    private final AtomicLong promptRequests;
 
     public LogManager(GeminiCraftChat plugin) {
         this.plugin = plugin;
@@ -86,6 +95,15 @@ public class LogManager {
         this.apiResponseTimes = new ConcurrentHashMap<>();
         this.totalApiCalls = new AtomicLong(0);
         this.totalErrors = new AtomicLong(0);
+        this.coalescedRequests = new AtomicLong(0);
+        this.hedgedRequests = new AtomicLong(0);
+        this.failoverRequests = new AtomicLong(0);
+        this.retriedRequests = new AtomicLong(0);
+        this.circuitOpenCount = new AtomicLong(0);
+        this.cancelledRequests = new AtomicLong(0);
+        this.deadlineExceeded = new AtomicLong(0);
+        this.promptTokens = new AtomicLong(0);
+        this.promptRequests = new AtomicLong(0);
 
         if (loggingEnabled) {
             initializeLogging();
@@ -208,6 +226,79 @@ public class LogManager {
         }
     }
 
+    /**
+     * 记录一次请求的提示词令牌数
+     */
+    public void logPromptTokens(String playerName, String modelName, int tokens, int budget,
+                                int droppedMessages, boolean truncated) {
+        promptTokens.addAndGet(tokens);
+        promptRequests.incrementAndGet();
+        if (!loggingEnabled || !logApiCalls) return;
+
+        String category = separateFiles ? "api" : "general";
+        logToCategory(category, String.format("[令牌] 玩家:%s 模型:%s 提示词:%d 预算:%s 丢弃历史:%d 截断:%s",
+            playerName, modelName, tokens, budget > 0 ? String.valueOf(budget) : "不限", droppedMessages,
+            truncated ? "是" : "否"));
+    }
+
+    /**
+     * 记录一次被合并到进行中请求的调用
+     */
+    public void recordCoalescedRequest() {
+        coalescedRequests.incrementAndGet();
+    }
+
+    /**
+     * 记录一次因主模型响应过慢而发起的对冲请求
+     */
+    public void recordHedgedRequest() {
+        hedgedRequests.incrementAndGet();
+    }
+
+    /**
+     * 记录一次因模型请求失败而切换到备用模型
+     */
+    public void recordFailover() {
+        failoverRequests.incrementAndGet();
+    }
+
+    /**
+     * 记录一次失败后的重试
+     */
+    public void recordRetry() {
+        retriedRequests.incrementAndGet();
+    }
+
+    /**
+     * 记录因玩家退出或插件重载而取消的请求
+     */
+    public void recordCancelledRequests(int count) {
+        cancelledRequests.addAndGet(count);
+    }
+
+    /**
+     * 记录一次超过截止时间的请求
+     */
+    public void recordDeadlineExceeded(String playerId, long budgetMillis) {
+        deadlineExceeded.incrementAndGet();
+        if (!loggingEnabled || !logErrors) return;
+        String category = separateFiles ? "errors" : "general";
+        logToCategory(category, "[超时] 玩家:" + playerId + " 请求超过截止时间 " + budgetMillis + "ms");
+    }
+
+    /**
+     * 记录模型熔断器的状态变化
+     */
+    public void logCircuitBreaker(String modelKey, String fromState, String toState, String reason) {
+        if ("OPEN".equals(toState)) {
+            circuitOpenCount.incrementAndGet();
+        }
+        if (!loggingEnabled || !logErrors) return;
+        String category = separateFiles ? "errors" : "general";
+        logToCategory(category, "[熔断] 模型:" + modelKey + " " + fromState + " -> " + toState
+            + (reason != null ? " 原因: " + reason : ""));
+    }
+
     public void logApiRequest(String playerName, String modelName, String requestUrl,
                              Map<String, String> headers, String requestBody) {
         if (!loggingEnabled || !logApiRequests) return;
@@ -233,6 +324,17 @@ public class LogManager {
         // minimal 模式不记录详细信息
     }
 
+    /**
+     * 是否需要记录完整的请求体，未开启时请求体不会被序列化为字符串
+     */
+    public boolean isApiRequestBodyLogged() {
+        return loggingEnabled && logApiRequests && "full".equals(apiRequestDetail);
+    }
+
+    public boolean isApiResponseBodyLogged() {
+        return loggingEnabled && logApiResponses && "full".equals(apiResponseDetail);
+    }
+
     public void logApiResponse(String playerName, String modelName, int statusCode,
                               String responseBody, String extractedContent) {
         if (!loggingEnabled || !logApiResponses) return;
@@ -310,6 +412,14 @@ public class LogManager {
         logToCategory(category, "=== 最终统计信息 ===");
         logToCategory(category, "总API调用次数: " + totalApiCalls.get());
         logToCategory(category, "总错误次数: " + totalErrors.get());
+        logToCategory(category, "合并请求次数: " + coalescedRequests.get());
+        logToCategory(category, "对冲请求次数: " + hedgedRequests.get());
+        logToCategory(category, "故障转移次数: " + failoverRequests.get());
+        logToCategory(category, "重试次数: " + retriedRequests.get());
+        logToCategory(category, "熔断次数: " + circuitOpenCount.get());
+        logToCategory(category, "取消请求数: " + cancelledRequests.get());
+        logToCategory(category, "超时请求数: " + deadlineExceeded.get());
+        logToCategory(category, "平均提示词令牌: " + averagePromptTokens());
 
         if (totalApiCalls.get() > 0) {
             double successRate = ((double)(totalApiCalls.get() - totalErrors.get()) / totalApiCalls.get()) * 100;
@@ -370,6 +480,14 @@ public class LogManager {
         stats.put("totalErrors", totalErrors.get());
         stats.put("activePlayerCount", playerCallCounts.size());
         stats.put("modelCount", modelUsageCounts.size());
+        stats.put("coalescedRequests", coalescedRequests.get());
+        stats.put("hedgedRequests", hedgedRequests.get());
+        stats.put("failoverRequests", failoverRequests.get());
+        stats.put("retriedRequests", retriedRequests.get());
+        stats.put("circuitOpenCount", circuitOpenCount.get());
+        stats.put("cancelledRequests", cancelledRequests.get());
+        stats.put("deadlineExceeded", deadlineExceeded.get());
+        stats.put("averagePromptTokens", averagePromptTokens());
 
         if (totalApiCalls.get() > 0) {
             double successRate = ((double)(totalApiCalls.get() - totalErrors.get()) / totalApiCalls.get()) * 100;
@@ -394,8 +512,22 @@ public class LogManager {
         apiResponseTimes.clear();
         totalApiCalls.set(0);
         totalErrors.set(0);
+        coalescedRequests.set(0);
+        hedgedRequests.set(0);
+        failoverRequests.set(0);
+        retriedRequests.set(0);
+        circuitOpenCount.set(0);
+        cancelledRequests.set(0);
+        deadlineExceeded.set(0);
+        promptTokens.set(0);
+        promptRequests.set(0);
 
         String category = separateFiles ? "stats" : "general";
         logToCategory(category, "[统计] 统计数据已重置");
     }
+
+    private long averagePromptTokens() {
+        long requests = promptRequests.get();
+        return requests > 0 ? promptTokens.get() / requests : 0;
+    }
 } 
\ No newline at end of file
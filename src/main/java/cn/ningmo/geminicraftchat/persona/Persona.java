@@ -1,16 +1,26 @@
 package cn.ningmo.geminicraftchat.persona;
 
 public class Persona {
+    private final String key;
     private String name;
     private String description;
     private String context;
 
     public Persona(String name, String description, String context) {
+        this(name, name, description, context);
+    }
+
+    public Persona(String key, String name, String description, String context) {
+        this.key = key;
         this.name = name;
         this.description = description;
         this.context = context;
     }
 
+    public String getKey() {
+        return key;
+    }
+
     public String getName() {
         return name;
     }
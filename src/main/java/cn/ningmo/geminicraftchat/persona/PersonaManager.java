@@ -30,6 +30,7 @@ public class PersonaManager {
             if (personaSection == null) continue;
 
             Persona persona = new Persona(
+                key,
                 personaSection.getString("name", key),
                 personaSection.getString("description", ""),
                 personaSection.getString("context", "")
@@ -54,7 +55,7 @@ public class PersonaManager {
         if (personas.containsKey(key)) {
             return false;
         }
-        personas.put(key, new Persona(name, description, context));
+        personas.put(key, new Persona(key, name, description, context));
         savePersonas();
         return true;
     }
@@ -0,0 +1,146 @@
+package cn.ningmo.geminicraftchat.api;
+
+import okhttp3.Headers;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ApiKeyPoolTest {
+    private static final ApiKeyPool.Settings UNLIMITED = new ApiKeyPool.Settings(0, 0, 0, 20000, true);
+    private static final int PLAYERS = 2000;
+
+    private static Map<String, String> assign(ApiKeyPool pool) throws Exception {
+        Map<String, String> assignment = new HashMap<>();
+        for (int i = 0; i < PLAYERS; i++) {
+            String player = "player-" + i;
+            assignment.put(player, pool.acquire(1, player).getApiKey());
+        }
+        return assignment;
+    }
+
+    @Test
+    void playersStickToTheSameKey() throws Exception {
+        ApiKeyPool pool = new ApiKeyPool("api1", List.of("k1", "k2", "k3"), UNLIMITED);
+        String first = pool.acquire(1, "Steve").getApiKey();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(first, pool.acquire(1, "Steve").getApiKey());
+        }
+        assertEquals(11, pool.getKeys().stream().mapToLong(ApiKeyPool.KeyState::getStickyRequests).sum());
+    }
+
+    @Test
+    void addingAKeyRemapsAboutAQuarterOfPlayers() throws Exception {
+        Map<String, String> before = assign(new ApiKeyPool("api1", List.of("k1", "k2", "k3"), UNLIMITED));
+        Map<String, String> after = assign(new ApiKeyPool("api1", List.of("k1", "k2", "k3", "k4"), UNLIMITED));
+
+        int moved = 0;
+        for (String player : before.keySet()) {
+            if (!before.get(player).equals(after.get(player))) {
+                moved++;
+                // 只有改用新 Key 的玩家会变化
+                assertEquals("k4", after.get(player));
+            }
+        }
+        double ratio = (double) moved / PLAYERS;
+        assertTrue(ratio > 0.15 && ratio < 0.35, "重新分配比例: " + ratio);
+    }
+
+    @Test
+    void removingAKeyOnlyMovesItsPlayers() throws Exception {
+        Map<String, String> before = assign(new ApiKeyPool("api1", List.of("k1", "k2", "k3"), UNLIMITED));
+        Map<String, String> after = assign(new ApiKeyPool("api1", List.of("k1", "k3"), UNLIMITED));
+
+        for (String player : before.keySet()) {
+            if (!before.get(player).equals("k2")) {
+                assertEquals(before.get(player), after.get(player));
+            }
+        }
+    }
+
+    @Test
+    void throttledStickyKeyFallsBackToAnotherKey() throws Exception {
+        ApiKeyPool pool = new ApiKeyPool("api1", List.of("k1", "k2", "k3"), UNLIMITED);
+        ApiKeyPool.KeyState sticky = pool.acquire(1, "Alex");
+
+        long parked = pool.update(sticky, 429, Headers.of("Retry-After", "30"));
+        assertEquals(30000, parked);
+        assertTrue(sticky.isParked());
+
+        ApiKeyPool.KeyState fallback = pool.acquire(1, "Alex");
+        assertNotEquals(sticky.getApiKey(), fallback.getApiKey());
+        assertEquals(1, fallback.getFallbackRequests());
+        assertEquals(1, sticky.getThrottledCount());
+    }
+
+    @Test
+    void allKeysThrottledFailsWithoutWaiting() throws Exception {
+        ApiKeyPool pool = new ApiKeyPool("api1", List.of("k1", "k2"), UNLIMITED);
+        for (ApiKeyPool.KeyState key : pool.getKeys()) {
+            pool.update(key, 429, Headers.of());
+        }
+        assertThrows(ApiKeyPool.RateLimitedException.class, () -> pool.acquire(1, "Alex"));
+    }
+
+    @Test
+    void cancelledAttemptStopsWaitingWithoutConsuming() throws Exception {
+        // 每分钟 6 次请求，额度用完后下一次需要等待约 10 秒
+        ApiKeyPool pool = new ApiKeyPool("api1", List.of("k1"), new ApiKeyPool.Settings(6, 0, 30000, 20000, true));
+        for (int i = 0; i < 6; i++) {
+            pool.acquire(1, "Alex");
+        }
+
+        RequestAttempt attempt = new RequestAttempt("api1", false);
+        CompletableFuture<ApiKeyPool.KeyState> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.acquire(1, "Alex", attempt, 0);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+        Thread.sleep(50);
+        long start = System.currentTimeMillis();
+        attempt.cancel();
+
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> waiting.get(2, TimeUnit.SECONDS));
+        assertInstanceOf(InterruptedIOException.class, failure.getCause());
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertThrows(InterruptedIOException.class, () -> pool.acquire(1, "Alex", attempt, 0));
+    }
+
+    @Test
+    void waitIsBoundedByRequestDeadline() throws Exception {
+        ApiKeyPool pool = new ApiKeyPool("api1", List.of("k1"), new ApiKeyPool.Settings(6, 0, 30000, 20000, true));
+        for (int i = 0; i < 6; i++) {
+            pool.acquire(1, "Alex");
+        }
+
+        long start = System.currentTimeMillis();
+        assertThrows(ApiKeyPool.RateLimitedException.class,
+            () -> pool.acquire(1, "Alex", new RequestAttempt("api1", false), start + 200));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
+    @Test
+    void parsesRateLimitDurations() {
+        assertEquals(360000, ApiKeyPool.parseDuration("6m0s"));
+        assertEquals(250, ApiKeyPool.parseDuration("250ms"));
+        assertEquals(1500, ApiKeyPool.parseDuration("1.5s"));
+        assertEquals(20000, ApiKeyPool.parseDuration("20"));
+        assertEquals(5000, ApiKeyPool.parseRetryAfter("5", 0));
+        assertEquals(-1, ApiKeyPool.parseRetryAfter("soon", 0));
+    }
+}
@@ -0,0 +1,105 @@
+package cn.ningmo.geminicraftchat.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CircuitBreakerTest {
+    private final List<String> transitions = new ArrayList<>();
+
+    private CircuitBreaker breaker(int threshold, long openMillis) {
+        return new CircuitBreaker("api1", new CircuitBreaker.Settings(true, threshold, openMillis),
+            (modelKey, from, to, reason) -> transitions.add(from + "->" + to));
+    }
+
+    @Test
+    void opensAfterConsecutiveCountableFailures() throws Exception {
+        CircuitBreaker breaker = breaker(3, 60000);
+        for (int i = 0; i < 2; i++) {
+            breaker.acquire();
+            breaker.onFailure(true, "503");
+        }
+        breaker.acquire();
+        breaker.onFailure(false, "400");
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.acquire();
+        breaker.onFailure(true, "503");
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertThrows(CircuitBreaker.CircuitOpenException.class, breaker::acquire);
+        assertEquals(List.of("CLOSED->OPEN"), transitions);
+    }
+
+    @Test
+    void successResetsFailureCount() throws Exception {
+        CircuitBreaker breaker = breaker(2, 60000);
+        breaker.acquire();
+        breaker.onFailure(true, "503");
+        breaker.acquire();
+        breaker.onSuccess();
+        breaker.acquire();
+        breaker.onFailure(true, "503");
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(1, breaker.getConsecutiveFailures());
+    }
+
+    @Test
+    void halfOpenAllowsSingleProbeAndClosesOnSuccess() throws Exception {
+        CircuitBreaker breaker = breaker(1, 20);
+        breaker.acquire();
+        breaker.onFailure(true, "timeout");
+        Thread.sleep(40);
+
+        breaker.acquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertThrows(CircuitBreaker.CircuitOpenException.class, breaker::acquire);
+
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertDoesNotThrow(breaker::acquire);
+        assertEquals(List.of("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED"), transitions);
+    }
+
+    @Test
+    void failedProbeReopens() throws Exception {
+        CircuitBreaker breaker = breaker(1, 20);
+        breaker.acquire();
+        breaker.onFailure(true, "timeout");
+        Thread.sleep(40);
+
+        breaker.acquire();
+        breaker.onFailure(true, "timeout");
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertThrows(CircuitBreaker.CircuitOpenException.class, breaker::acquire);
+    }
+
+    @Test
+    void cancelledProbeReleasesTheSlot() throws Exception {
+        CircuitBreaker breaker = breaker(1, 20);
+        breaker.acquire();
+        breaker.onFailure(true, "timeout");
+        Thread.sleep(40);
+
+        breaker.acquire();
+        breaker.onCancelled();
+        assertDoesNotThrow(breaker::acquire);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    void disabledBreakerNeverOpens() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("api1", new CircuitBreaker.Settings(false, 1, 60000),
+            (modelKey, from, to, reason) -> transitions.add(from + "->" + to));
+        for (int i = 0; i < 5; i++) {
+            breaker.acquire();
+            breaker.onFailure(true, "503");
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(List.of(), transitions);
+    }
+}
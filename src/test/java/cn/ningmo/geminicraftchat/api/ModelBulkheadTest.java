@@ -0,0 +1,74 @@
+package cn.ningmo.geminicraftchat.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ModelBulkheadTest {
+
+    private static ModelBulkhead bulkhead(int initialLimit, int maxQueue) {
+        return new ModelBulkhead("api1", new ModelBulkhead.Settings(true, initialLimit, 1, 64, maxQueue, 0, 2.0, 0.9));
+    }
+
+    private static void complete(ModelBulkhead bulkhead, long latencyMillis, Boolean overloaded) throws Exception {
+        bulkhead.acquire();
+        bulkhead.release(latencyMillis, overloaded);
+    }
+
+    @Test
+    void limitHoldsUnderMixedLatency() throws Exception {
+        ModelBulkhead bulkhead = bulkhead(8, 16);
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            // 短回复与长回复混合，响应头耗时在 200ms 到 2000ms 之间随机分布
+            complete(bulkhead, 200 + random.nextInt(1800), false);
+            if (i % 20 == 0) {
+                // 偶发的客户端错误、解析失败和 Key 额度等待超时与模型负载无关
+                complete(bulkhead, 150, null);
+            }
+        }
+        assertTrue(bulkhead.getLimit() >= 8, "混合延迟下并发上限不应下降: " + bulkhead.getLimit());
+        assertEquals(0, bulkhead.getInFlight());
+    }
+
+    @Test
+    void sustainedSlowdownShrinksLimit() throws Exception {
+        ModelBulkhead bulkhead = bulkhead(16, 16);
+        for (int i = 0; i < 200; i++) {
+            complete(bulkhead, 300, false);
+        }
+        int before = bulkhead.getLimit();
+        for (int i = 0; i < 20; i++) {
+            complete(bulkhead, 3000, false);
+        }
+        assertTrue(bulkhead.getLimit() < before, "响应头耗时持续变长时应下调上限");
+    }
+
+    @Test
+    void onlyOverloadFailuresShrinkLimit() throws Exception {
+        ModelBulkhead bulkhead = bulkhead(8, 16);
+        for (int i = 0; i < 50; i++) {
+            complete(bulkhead, -1, null);
+        }
+        assertEquals(8, bulkhead.getLimit());
+
+        complete(bulkhead, -1, true);
+        assertEquals(7, bulkhead.getLimit());
+    }
+
+    @Test
+    void rejectsWhenQueueIsFull() throws Exception {
+        ModelBulkhead bulkhead = bulkhead(1, 0);
+        bulkhead.acquire();
+        assertThrows(ModelBulkhead.BulkheadFullException.class, bulkhead::acquire);
+        assertEquals(1, bulkhead.getRejected());
+
+        bulkhead.release(100, false);
+        bulkhead.acquire();
+        assertEquals(1, bulkhead.getInFlight());
+    }
+}
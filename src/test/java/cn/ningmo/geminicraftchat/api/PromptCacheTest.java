@@ -0,0 +1,36 @@
+package cn.ningmo.geminicraftchat.api;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class PromptCacheTest {
+    private static final PromptCache OPENAI = new PromptCache(PromptCache.Mode.OPENAI, "gcc",
+        JsonPath.compile("usage.prompt_tokens"), JsonPath.compile("usage.prompt_tokens_details.cached_tokens"), null);
+    private static final PromptCache ANTHROPIC = new PromptCache(PromptCache.Mode.ANTHROPIC, "gcc",
+        JsonPath.compile("usage.input_tokens"), JsonPath.compile("usage.cache_read_input_tokens"),
+        JsonPath.compile("usage.cache_creation_input_tokens"));
+
+    @Test
+    void parsesOpenAiFinalStreamEvent() {
+        assertNull(OPENAI.parseStreamUsage("{\"choices\":[{\"delta\":{\"content\":\"hi\"}}]}"));
+        PromptCache.Usage usage = OPENAI.parseStreamUsage(
+            "{\"choices\":[],\"usage\":{\"prompt_tokens\":1200,\"prompt_tokens_details\":{\"cached_tokens\":1024}}}");
+        assertEquals(new PromptCache.Usage(1200, 1024, 0), usage);
+    }
+
+    @Test
+    void parsesAnthropicMessageStart() {
+        PromptCache.Usage usage = ANTHROPIC.parseStreamUsage("{\"type\":\"message_start\",\"message\":{\"id\":\"m\","
+            + "\"usage\":{\"input_tokens\":10,\"cache_read_input_tokens\":900,\"cache_creation_input_tokens\":90}}}");
+        assertEquals(new PromptCache.Usage(1000, 900, 90), usage);
+        // message_delta 只包含输出令牌数
+        assertNull(ANTHROPIC.parseStreamUsage("{\"type\":\"message_delta\",\"usage\":{\"output_tokens\":42}}"));
+    }
+
+    @Test
+    void disabledCacheParsesNothing() {
+        assertNull(PromptCache.DISABLED.parseStreamUsage("{\"usage\":{\"prompt_tokens\":1}}"));
+    }
+}
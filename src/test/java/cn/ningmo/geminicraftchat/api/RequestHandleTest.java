@@ -0,0 +1,53 @@
+package cn.ningmo.geminicraftchat.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestHandleTest {
+
+    @Test
+    void releaseCancelsWhenLastReferenceIsDropped() {
+        RequestHandle handle = new RequestHandle("a");
+        AtomicInteger cancelled = new AtomicInteger();
+        handle.onCancel(cancelled::incrementAndGet);
+
+        assertTrue(handle.retain());
+        handle.release("first");
+        assertFalse(handle.isCancelled());
+        handle.release("second");
+        assertTrue(handle.isCancelled());
+        assertEquals("second", handle.getReason());
+        assertEquals(1, cancelled.get());
+    }
+
+    @Test
+    void retainFailsAfterCancel() {
+        RequestHandle handle = new RequestHandle("a");
+        handle.cancel("quit");
+        assertFalse(handle.retain());
+    }
+
+    @Test
+    void actionRegisteredAfterCancelRunsImmediately() {
+        RequestHandle handle = new RequestHandle("a");
+        handle.cancel("quit");
+        AtomicInteger runs = new AtomicInteger();
+        handle.onCancel(runs::incrementAndGet);
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void expireProducesDeadlineException() {
+        RequestHandle handle = new RequestHandle("a", System.currentTimeMillis() + 1000);
+        assertTrue(handle.expire());
+        assertFalse(handle.expire());
+        assertTrue(handle.isExpired());
+        assertInstanceOf(DeadlineExceededException.class, handle.cancellationException());
+    }
+}
@@ -0,0 +1,89 @@
+package cn.ningmo.geminicraftchat.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResponseParserTest {
+    private static final String OPENAI_RESPONSE = "{\"id\":\"x\",\"choices\":[{\"index\":0,\"logprobs\":{\"content\":[1,2,3]},"
+        + "\"message\":{\"role\":\"assistant\",\"content\":\"你好\"}}],\"usage\":{\"prompt_tokens\":12}}";
+
+    private final ResponseParser parser = new ResponseParser(
+        JsonPath.compile("choices[0].message.content"),
+        JsonPath.compile("error.message"),
+        JsonPath.compile("choices[0].delta.content"));
+
+    @Test
+    void extractsContentFromString() throws IOException {
+        assertEquals("你好", parser.parseContent(OPENAI_RESPONSE));
+    }
+
+    @Test
+    void extractsContentFromReaderWithoutReadingPastValue() throws IOException {
+        CountingReader reader = new CountingReader(OPENAI_RESPONSE);
+        assertEquals("你好", parser.parseContent(reader));
+        assertTrue(reader.read < OPENAI_RESPONSE.length(), "找到内容后不应读取 usage");
+    }
+
+    @Test
+    void missingPathFromReaderReportsConfiguredPath() {
+        IOException e = assertThrows(IOException.class,
+            () -> parser.parseContent(new StringReader("{\"choices\":[]}")));
+        assertTrue(e.getMessage().contains("choices[0].message.content"));
+    }
+
+    @Test
+    void missingPathFromStringReportsSegment() {
+        IOException e = assertThrows(IOException.class,
+            () -> parser.parseContent("{\"choices\":[]}"));
+        assertTrue(e.getMessage().contains("[0]"));
+    }
+
+    @Test
+    void extractsErrorAndDelta() {
+        assertEquals("quota", parser.parseError("{\"error\":{\"message\":\"quota\"}}"));
+        assertNull(parser.parseError("{\"ok\":true}"));
+        assertEquals("字", parser.parseDelta("{\"choices\":[{\"delta\":{\"content\":\"字\"}}]}"));
+        assertNull(parser.parseDelta("{\"choices\":[{\"delta\":{}}]}"));
+    }
+
+    @Test
+    void jsonPathReadsIndexesAndNonStringValues() throws IOException {
+        String json = "{\"a\":[{\"b\":1},{\"b\":{\"c\":true}}],\"n\":null}";
+        assertEquals("1", JsonPath.compile("a[0].b").extract(json));
+        assertEquals("{\"c\":true}", JsonPath.compile("a[1].b").extract(json));
+        assertEquals("", JsonPath.compile("n").extract(json));
+        assertNull(JsonPath.compile("a[2].b").extract(json));
+    }
+
+    // 统计实际读取的字符数
+    private static final class CountingReader extends Reader {
+        private final StringReader delegate;
+        private int read;
+
+        CountingReader(String content) {
+            this.delegate = new StringReader(content);
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int count = delegate.read(buffer, offset, Math.min(length, 16));
+            if (count > 0) {
+                read += count;
+            }
+            return count;
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+    }
+}
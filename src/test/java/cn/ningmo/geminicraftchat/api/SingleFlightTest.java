@@ -0,0 +1,88 @@
+package cn.ningmo.geminicraftchat.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightTest {
+
+    @Test
+    void followersShareLeaderFutureAndHandle() {
+        SingleFlight<String> flights = new SingleFlight<>();
+        CompletableFuture<String> response = new CompletableFuture<>();
+        AtomicInteger requests = new AtomicInteger();
+
+        SingleFlight.Flight<String> leader = flights.execute("k", "a", handle -> {
+            requests.incrementAndGet();
+            return response;
+        });
+        SingleFlight.Flight<String> follower = flights.execute("k", "b", handle -> {
+            requests.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+
+        assertTrue(leader.leader());
+        assertFalse(follower.leader());
+        assertSame(leader.handle(), follower.handle());
+        assertEquals(1, requests.get());
+
+        response.complete("ok");
+        assertEquals("ok", follower.future().join());
+        assertEquals(0, flights.size());
+    }
+
+    @Test
+    void requestIsCancelledOnlyAfterEveryParticipantReleases() {
+        SingleFlight<String> flights = new SingleFlight<>();
+        SingleFlight.Flight<String> leader = flights.execute("k", "a", handle -> new CompletableFuture<>());
+        SingleFlight.Flight<String> follower = flights.execute("k", "b", handle -> new CompletableFuture<>());
+
+        leader.handle().release("a 退出");
+        assertFalse(follower.handle().isCancelled());
+        follower.handle().release("b 退出");
+        assertTrue(leader.handle().isCancelled());
+    }
+
+    @Test
+    void cancelledFlightIsReplacedInsteadOfJoined() {
+        SingleFlight<String> flights = new SingleFlight<>();
+        SingleFlight.Flight<String> first = flights.execute("k", "a", handle -> new CompletableFuture<>());
+        first.handle().release("a 退出");
+
+        AtomicInteger requests = new AtomicInteger();
+        SingleFlight.Flight<String> second = flights.execute("k", "b", handle -> {
+            requests.incrementAndGet();
+            return CompletableFuture.completedFuture("new");
+        });
+
+        assertTrue(second.leader());
+        assertNotSame(first.handle(), second.handle());
+        assertEquals(1, requests.get());
+        assertEquals("new", second.future().join());
+    }
+
+    @Test
+    void nullKeyNeverCoalesces() {
+        SingleFlight<String> flights = new SingleFlight<>();
+        assertTrue(flights.execute(null, "a", handle -> new CompletableFuture<>()).leader());
+        assertTrue(flights.execute(null, "b", handle -> new CompletableFuture<>()).leader());
+        assertEquals(0, flights.size());
+    }
+
+    @Test
+    void supplierFailureCompletesExceptionally() {
+        SingleFlight<String> flights = new SingleFlight<>();
+        SingleFlight.Flight<String> flight = flights.execute("k", "a", handle -> {
+            throw new IllegalStateException("boom");
+        });
+        assertTrue(flight.future().isCompletedExceptionally());
+        assertEquals(0, flights.size());
+    }
+}
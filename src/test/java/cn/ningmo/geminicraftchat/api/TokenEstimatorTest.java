@@ -0,0 +1,56 @@
+package cn.ningmo.geminicraftchat.api;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenEstimatorTest {
+    private final TokenEstimator estimator = TokenEstimator.DEFAULT;
+
+    @Test
+    void countsWordsCjkAndPunctuation() {
+        assertEquals(0, estimator.count(""));
+        assertEquals(4, estimator.count("hello world"));
+        assertEquals(2, estimator.count("你好"));
+        assertEquals(3, estimator.count("你好!"));
+    }
+
+    @Test
+    void shortTextIsReturnedUnchanged() {
+        String text = "你好";
+        assertSame(text, estimator.truncate(text, 10, false));
+    }
+
+    @Test
+    void truncateStaysWithinBudget() {
+        String text = "一二三四五六七八九十";
+        String head = estimator.truncate(text, 5, false);
+        String tail = estimator.truncate(text, 5, true);
+        assertEquals("一二三四…", head);
+        assertEquals("…七八九十", tail);
+        assertTrue(estimator.count(head) <= 5);
+    }
+
+    @Test
+    void truncateNeverSplitsSurrogatePairs() {
+        // 每个表情符号占两个 char
+        String text = "😀😀😀😀😀😀😀😀";
+        for (int budget = 1; budget <= 8; budget++) {
+            for (boolean keepEnd : new boolean[]{false, true}) {
+                String truncated = estimator.truncate(text, budget, keepEnd);
+                for (int i = 0; i < truncated.length(); i++) {
+                    char c = truncated.charAt(i);
+                    if (Character.isHighSurrogate(c)) {
+                        assertTrue(i + 1 < truncated.length() && Character.isLowSurrogate(truncated.charAt(i + 1)));
+                        i++;
+                    } else {
+                        assertFalse(Character.isLowSurrogate(c), "孤立的低位代理: " + truncated);
+                    }
+                }
+            }
+        }
+    }
+}
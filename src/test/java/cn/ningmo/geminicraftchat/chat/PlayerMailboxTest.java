@@ -0,0 +1,38 @@
+package cn.ningmo.geminicraftchat.chat;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlayerMailboxTest {
+
+    @Test
+    void followUpsAreMergedWhileBusy() {
+        PlayerMailbox mailbox = new PlayerMailbox();
+        assertFalse(mailbox.isBusy());
+        assertEquals(PlayerMailbox.Offer.DISPATCH, mailbox.offer("第一句", 2));
+        assertTrue(mailbox.isBusy());
+        assertEquals(PlayerMailbox.Offer.MERGED, mailbox.offer("第二句", 2));
+        assertEquals(PlayerMailbox.Offer.MERGED, mailbox.offer("第三句", 2));
+        assertEquals(PlayerMailbox.Offer.FULL, mailbox.offer("第四句", 2));
+
+        assertEquals("第二句\n第三句", mailbox.next());
+        assertTrue(mailbox.isBusy());
+        assertNull(mailbox.next());
+        assertFalse(mailbox.isBusy());
+    }
+
+    @Test
+    void clearDropsPendingMessages() {
+        PlayerMailbox mailbox = new PlayerMailbox();
+        mailbox.offer("a", 5);
+        mailbox.offer("b", 5);
+        mailbox.offer("c", 5);
+        assertEquals(2, mailbox.clear());
+        assertNull(mailbox.next());
+        assertEquals(PlayerMailbox.Offer.DISPATCH, mailbox.offer("d", 5));
+    }
+}
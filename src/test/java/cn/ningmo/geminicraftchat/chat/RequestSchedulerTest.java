@@ -0,0 +1,140 @@
+package cn.ningmo.geminicraftchat.chat;
+
+import cn.ningmo.geminicraftchat.api.RequestHandle;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestSchedulerTest {
+    private final List<String> started = new ArrayList<>();
+    private final Map<String, CompletableFuture<String>> running = new HashMap<>();
+
+    private static RequestScheduler scheduler(int maxInFlight) {
+        return new RequestScheduler(new RequestScheduler.Settings(true, maxInFlight, 1.0, Map.of()));
+    }
+
+    private RequestScheduler.Ticket submit(RequestScheduler scheduler, String playerId, double weight, String name) {
+        return submit(scheduler, playerId, weight, name, new RequestHandle(playerId));
+    }
+
+    private RequestScheduler.Ticket submit(RequestScheduler scheduler, String playerId, double weight, String name,
+                                           RequestHandle handle) {
+        return scheduler.submit(playerId, weight, handle, () -> {
+            started.add(name);
+            CompletableFuture<String> future = new CompletableFuture<>();
+            running.put(name, future);
+            return future;
+        });
+    }
+
+    private void finish(String name) {
+        running.remove(name).complete(name);
+    }
+
+    @Test
+    void respectsMaxInFlight() {
+        RequestScheduler scheduler = scheduler(2);
+        submit(scheduler, "a", 1, "a1");
+        submit(scheduler, "b", 1, "b1");
+        RequestScheduler.Ticket queued = submit(scheduler, "c", 1, "c1");
+
+        assertEquals(List.of("a1", "b1"), started);
+        assertEquals(2, scheduler.getInFlight());
+        assertEquals(1, scheduler.getQueuedRequests());
+        assertTrue(queued.position() > 0);
+
+        finish("a1");
+        assertEquals(List.of("a1", "b1", "c1"), started);
+        assertEquals(0, scheduler.getQueuedRequests());
+    }
+
+    @Test
+    void playersTakeTurnsWithEqualWeights() {
+        RequestScheduler scheduler = scheduler(1);
+        for (int i = 1; i <= 4; i++) {
+            submit(scheduler, "a", 1, "a" + i);
+        }
+        submit(scheduler, "b", 1, "b1");
+        submit(scheduler, "b", 1, "b2");
+
+        for (String name : List.of("a1", "a2", "b1", "a3", "b2")) {
+            finish(name);
+        }
+        assertEquals(List.of("a1", "a2", "b1", "a3", "b2", "a4"), started);
+    }
+
+    @Test
+    void heavierPlayersGetProportionallyMoreTurns() {
+        RequestScheduler scheduler = scheduler(1);
+        submit(scheduler, "x", 1, "x1");
+        for (int i = 1; i <= 4; i++) {
+            submit(scheduler, "vip", 2, "v" + i);
+        }
+        for (int i = 1; i <= 4; i++) {
+            submit(scheduler, "b", 1, "b" + i);
+        }
+
+        for (String name : List.of("x1", "v1", "v2", "b1", "v3", "v4", "b2", "b3")) {
+            finish(name);
+        }
+        assertEquals(List.of("x1", "v1", "v2", "b1", "v3", "v4", "b2", "b3", "b4"), started);
+    }
+
+    @Test
+    void cancelledQueuedRequestIsNeverStarted() {
+        RequestScheduler scheduler = scheduler(1);
+        submit(scheduler, "a", 1, "a1");
+        RequestHandle handle = new RequestHandle("b");
+        RequestScheduler.Ticket ticket = submit(scheduler, "b", 1, "b1", handle);
+
+        handle.cancel("玩家已退出");
+        assertThrows(CancellationException.class, () -> ticket.future().get());
+        assertEquals(0, scheduler.getQueuedRequests());
+
+        finish("a1");
+        assertEquals(List.of("a1"), started);
+        assertEquals(0, scheduler.getInFlight());
+    }
+
+    @Test
+    void failedRequestReleasesItsSlot() {
+        RequestScheduler scheduler = scheduler(1);
+        RequestScheduler.Ticket first = submit(scheduler, "a", 1, "a1");
+        submit(scheduler, "b", 1, "b1");
+
+        running.remove("a1").completeExceptionally(new IllegalStateException("503"));
+        assertTrue(first.future().isCompletedExceptionally());
+        assertEquals(List.of("a1", "b1"), started);
+    }
+
+    @Test
+    void shutdownFailsQueuedRequests() {
+        RequestScheduler scheduler = scheduler(1);
+        submit(scheduler, "a", 1, "a1");
+        RequestScheduler.Ticket queued = submit(scheduler, "b", 1, "b1");
+
+        scheduler.shutdown();
+        ExecutionException error = assertThrows(ExecutionException.class, () -> queued.future().get());
+        assertInstanceOf(IllegalStateException.class, error.getCause());
+        assertTrue(submit(scheduler, "c", 1, "c1").future().isCompletedExceptionally());
+    }
+
+    @Test
+    void disabledSchedulerStartsImmediately() {
+        RequestScheduler scheduler = new RequestScheduler(new RequestScheduler.Settings(false, 1, 1.0, Map.of()));
+        submit(scheduler, "a", 1, "a1");
+        submit(scheduler, "a", 1, "a2");
+        assertEquals(List.of("a1", "a2"), started);
+    }
+}
@@ -0,0 +1,77 @@
+package cn.ningmo.geminicraftchat.chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SentenceChunkerTest {
+
+    @Test
+    void emitsOnChineseSentenceEnding() {
+        SentenceChunker chunker = new SentenceChunker(2, 200);
+        assertEquals(List.of("你好。"), chunker.offer("你好。再"));
+        assertEquals("再", chunker.flush());
+        assertTrue(chunker.hasEmitted());
+    }
+
+    @Test
+    void periodAtEndOfDeltaIsDecidedByNextDelta() {
+        SentenceChunker chunker = new SentenceChunker(4, 200);
+        // SSE 增量通常恰好在句号处结束
+        assertEquals(List.of(), chunker.offer("Hello world."));
+        assertEquals(List.of("Hello world."), chunker.offer(" Next"));
+        assertEquals("Next", chunker.flush());
+    }
+
+    @Test
+    void periodFollowedByDigitIsNotSentenceEnd() {
+        SentenceChunker chunker = new SentenceChunker(1, 200);
+        assertEquals(List.of(), chunker.offer("Version 1."));
+        assertEquals(List.of(), chunker.offer("5 is out"));
+        assertEquals("Version 1.5 is out", chunker.flush());
+    }
+
+    @Test
+    void periodInsideDeltaFollowedBySpaceEndsSentence() {
+        SentenceChunker chunker = new SentenceChunker(4, 200);
+        assertEquals(List.of("First one."), chunker.offer("First one. Second"));
+        assertEquals("Second", chunker.flush());
+    }
+
+    @Test
+    void shortSentencesWaitForMinimumLength() {
+        SentenceChunker chunker = new SentenceChunker(6, 200);
+        assertEquals(List.of(), chunker.offer("嗯。"));
+        assertEquals(List.of("嗯。好的，明白了。"), chunker.offer("好的，明白了。"));
+    }
+
+    @Test
+    void forcesSplitAtMaximumLength() {
+        SentenceChunker chunker = new SentenceChunker(1, 5);
+        assertEquals(List.of("abcde", "fghij"), chunker.offer("abcdefghijk"));
+        assertEquals("k", chunker.flush());
+    }
+
+    @Test
+    void forcedSplitKeepsSurrogatePairsTogether() {
+        SentenceChunker chunker = new SentenceChunker(1, 5);
+        // 第 5 个 char 是表情的高位代理，切分推迟到低位代理之后
+        assertEquals(List.of("abcd\uD83D\uDE00", "efgh\uD840\uDC0B"), chunker.offer("abcd\uD83D\uDE00efgh\uD840\uDC0Bi"));
+        assertEquals("i", chunker.flush());
+
+        // 代理对被拆在两个增量中时同样不会切开
+        assertEquals(List.of(), chunker.offer("wxyz\uD83D"));
+        assertEquals(List.of("wxyz\uD83D\uDE00"), chunker.offer("\uDE00"));
+    }
+
+    @Test
+    void flushWithoutContentReturnsEmpty() {
+        SentenceChunker chunker = new SentenceChunker(1, 5);
+        assertEquals("", chunker.flush());
+        assertFalse(chunker.hasEmitted());
+    }
+}
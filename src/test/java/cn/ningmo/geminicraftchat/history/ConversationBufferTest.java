@@ -0,0 +1,152 @@
+package cn.ningmo.geminicraftchat.history;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ConversationBufferTest {
+    private final AtomicLong reported = new AtomicLong();
+
+    private ConversationBuffer buffer(int capacity) {
+        return new ConversationBuffer(capacity, reported::addAndGet);
+    }
+
+    private static List<String> contents(List<Turn> turns) {
+        return turns.stream().map(Turn::content).toList();
+    }
+
+    @Test
+    void wrapsAroundAndKeepsNewestInOrder() {
+        ConversationBuffer buffer = buffer(4);
+        for (int i = 1; i <= 5; i++) {
+            buffer.append(Turn.user("q" + i), Turn.assistant("a" + i));
+        }
+        assertEquals(List.of("q4", "a4", "q5", "a5"), contents(buffer.snapshot()));
+        assertEquals(4, buffer.size());
+    }
+
+    @Test
+    void weightTracksEvictedTurns() {
+        ConversationBuffer buffer = buffer(4);
+        for (int i = 1; i <= 7; i++) {
+            buffer.append(Turn.user("q" + i), Turn.assistant("a" + i));
+        }
+        long expected = buffer.snapshot().stream().mapToLong(Turn::weight).sum();
+        assertEquals(expected, buffer.weight());
+        assertEquals(expected, reported.get());
+    }
+
+    @Test
+    void removeOldestRemovesMatchingPrefixAcrossWrap() {
+        ConversationBuffer buffer = buffer(6);
+        for (int i = 1; i <= 4; i++) {
+            buffer.append(Turn.user("q" + i), Turn.assistant("a" + i));
+        }
+        List<Turn> snapshot = buffer.snapshot();
+        assertEquals(4, buffer.removeOldest(snapshot.subList(0, 4)));
+        assertEquals(List.of("q4", "a4"), contents(buffer.snapshot()));
+
+        buffer.append(Turn.user("q5"), Turn.assistant("a5"));
+        assertEquals(List.of("q4", "a4", "q5", "a5"), contents(buffer.snapshot()));
+        assertEquals(buffer.weight(), reported.get());
+    }
+
+    @Test
+    void removeOldestIgnoresTurnsThatWereAlreadyEvicted() {
+        ConversationBuffer buffer = buffer(4);
+        buffer.append(Turn.user("q1"), Turn.assistant("a1"));
+        buffer.append(Turn.user("q2"), Turn.assistant("a2"));
+        List<Turn> stale = buffer.snapshot().subList(0, 2);
+
+        buffer.append(Turn.user("q3"), Turn.assistant("a3"));
+        assertEquals(0, buffer.removeOldest(stale));
+        assertEquals(List.of("q2", "a2", "q3", "a3"), contents(buffer.snapshot()));
+    }
+
+    @Test
+    void removeOldestComparesByIdentity() {
+        ConversationBuffer buffer = buffer(4);
+        buffer.append(Turn.user("q1"), Turn.assistant("a1"));
+        assertEquals(0, buffer.removeOldest(List.of(Turn.user("q1"), Turn.assistant("a1"))));
+        assertEquals(2, buffer.size());
+    }
+
+    @Test
+    void prependAllPutsLoadedTurnsBeforeExistingOnes() {
+        ConversationBuffer buffer = buffer(6);
+        buffer.append(Turn.user("q3"), Turn.assistant("a3"));
+        buffer.prependAll(List.of(Turn.user("q1"), Turn.assistant("a1"), Turn.user("q2"), Turn.assistant("a2")), null);
+        assertEquals(List.of("q1", "a1", "q2", "a2", "q3", "a3"), contents(buffer.snapshot()));
+        assertEquals(buffer.weight(), reported.get());
+    }
+
+    @Test
+    void prependAllDropsOldestLoadedTurnsWhenFull() {
+        ConversationBuffer buffer = buffer(4);
+        buffer.append(Turn.user("q3"), Turn.assistant("a3"));
+        buffer.prependAll(List.of(Turn.user("q1"), Turn.assistant("a1"), Turn.user("q2"), Turn.assistant("a2")), null);
+        assertEquals(List.of("q2", "a2", "q3", "a3"), contents(buffer.snapshot()));
+    }
+
+    @Test
+    void prependAllKeepsNewerSummary() {
+        ConversationBuffer buffer = buffer(4);
+        buffer.append(Turn.user("q1"), Turn.assistant("a1"));
+        buffer.summarize("新摘要", buffer.snapshot());
+        buffer.prependAll(List.of(), "旧摘要");
+        assertEquals("新摘要", buffer.summary());
+
+        ConversationBuffer loaded = buffer(4);
+        loaded.prependAll(List.of(Turn.user("q1")), "旧摘要");
+        assertEquals("旧摘要", loaded.summary());
+    }
+
+    @Test
+    void detachedBufferStopsReporting() {
+        ConversationBuffer buffer = buffer(4);
+        buffer.append(Turn.user("q1"), Turn.assistant("a1"));
+        long weight = buffer.detach();
+        assertEquals(weight, reported.get());
+
+        buffer.append(Turn.user("q2"), Turn.assistant("a2"));
+        assertEquals(weight, reported.get());
+    }
+
+    @Test
+    void snapshotOfEmptyBuffer() {
+        ConversationBuffer buffer = buffer(4);
+        assertEquals(List.of(), buffer.snapshot());
+        assertNull(buffer.summary());
+    }
+
+    @Test
+    void snapshotsStayConsistentUnderConcurrentAppends() throws InterruptedException {
+        ConversationBuffer buffer = buffer(8);
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 20000; i++) {
+                buffer.append(Turn.user("q" + i), Turn.assistant("a" + i));
+            }
+        });
+        writer.start();
+        List<String> failures = new ArrayList<>();
+        while (writer.isAlive()) {
+            List<Turn> snapshot = buffer.snapshot();
+            // 快照必须以完整的问答对组成
+            for (int i = 0; i + 1 < snapshot.size(); i += 2) {
+                Turn question = snapshot.get(i);
+                Turn answer = snapshot.get(i + 1);
+                if (question.role() != Turn.Role.USER
+                    || !answer.content().equals("a" + question.content().substring(1))) {
+                    failures.add(contents(snapshot).toString());
+                }
+            }
+        }
+        writer.join();
+        assertEquals(List.of(), failures);
+    }
+}
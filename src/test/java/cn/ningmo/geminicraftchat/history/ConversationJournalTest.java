@@ -0,0 +1,163 @@
+package cn.ningmo.geminicraftchat.history;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConversationJournalTest {
+
+    @TempDir
+    File directory;
+
+    private ConversationJournal open(long segmentBytes, int maxSegments) {
+        return new ConversationJournal(directory, Logger.getLogger("ConversationJournalTest"), message -> {
+        }, new ConversationJournal.Settings(true, "history", 10, segmentBytes, maxSegments, false, false));
+    }
+
+    private static ConversationJournal.History load(ConversationJournal journal, String playerId, int capacity) throws Exception {
+        return journal.load(playerId, capacity).get(5, TimeUnit.SECONDS);
+    }
+
+    private static List<String> contents(ConversationJournal.History history) {
+        return history.turns().stream().map(Turn::content).toList();
+    }
+
+    private static List<Turn> exchange(String question, String answer) {
+        return List.of(Turn.user(question), Turn.assistant(answer));
+    }
+
+    @Test
+    void replaysAppendedTurns() throws Exception {
+        ConversationJournal journal = open(64 * 1024, 8);
+        journal.append("a", exchange("q1", "a1"));
+        journal.append("b", exchange("其他", "玩家"));
+        journal.append("a", exchange("q2", "a2"));
+
+        assertEquals(List.of("q1", "a1", "q2", "a2"), contents(load(journal, "a", 10)));
+        assertTrue(load(journal, "c", 10).isEmpty());
+        journal.close();
+    }
+
+    @Test
+    void loadKeepsOnlyTheStoreCapacity() throws Exception {
+        ConversationJournal journal = open(64 * 1024, 8);
+        for (int i = 0; i < 5; i++) {
+            journal.append("a", exchange("q" + i, "a" + i));
+        }
+
+        assertEquals(List.of("q3", "a3", "q4", "a4"), contents(load(journal, "a", 4)));
+        journal.close();
+    }
+
+    @Test
+    void clearAndSummarizeAreReplayed() throws Exception {
+        ConversationJournal journal = open(64 * 1024, 8);
+        journal.append("a", exchange("q1", "a1"));
+        journal.clear("a");
+        journal.append("a", exchange("q2", "a2"));
+        journal.append("a", exchange("q3", "a3"));
+        journal.summarize("a", "摘要", 2);
+
+        ConversationJournal.History history = load(journal, "a", 10);
+        assertEquals(List.of("q3", "a3"), contents(history));
+        assertEquals("摘要", history.summary());
+
+        journal.clearAll();
+        assertTrue(load(journal, "a", 10).isEmpty());
+        journal.close();
+    }
+
+    @Test
+    void reopenReplaysFromDisk() throws Exception {
+        ConversationJournal journal = open(64 * 1024, 8);
+        journal.append("a", exchange("q1", "a1"));
+        journal.summarize("a", "摘要", 0);
+        journal.append("a", exchange("q2", "a2"));
+        journal.close();
+
+        ConversationJournal reopened = open(64 * 1024, 8);
+        ConversationJournal.History history = load(reopened, "a", 10);
+        assertEquals(List.of("q1", "a1", "q2", "a2"), contents(history));
+        assertEquals("摘要", history.summary());
+        reopened.close();
+    }
+
+    @Test
+    void truncatedTailRecordIsDropped() throws Exception {
+        ConversationJournal journal = open(64 * 1024, 8);
+        journal.append("a", exchange("q1", "a1"));
+        load(journal, "a", 10);
+        journal.append("a", exchange("q2", "a2"));
+        journal.close();
+
+        File segment = lastSegment();
+        long length = segment.length();
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(length - 3);
+        }
+
+        ConversationJournal reopened = open(64 * 1024, 8);
+        assertEquals(List.of("q1", "a1"), contents(load(reopened, "a", 10)));
+        reopened.append("a", exchange("q3", "a3"));
+        reopened.close();
+
+        ConversationJournal again = open(64 * 1024, 8);
+        assertEquals(List.of("q1", "a1", "q3", "a3"), contents(load(again, "a", 10)));
+        again.close();
+    }
+
+    @Test
+    void compactionKeepsHistoryAcrossSegments() throws Exception {
+        ConversationJournal journal = open(1024, 2);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String player = "p" + (i % 40);
+            journal.append(player, exchange(player + "-q" + i, player + "-a" + i));
+            if (player.equals("p7")) {
+                expected.add(player + "-q" + i);
+                expected.add(player + "-a" + i);
+            }
+            if (i % 10 == 9) {
+                // 每次加载都会写出队列，使日志滚动到新的分段并触发压缩
+                load(journal, "p7", 100);
+            }
+        }
+        journal.clear("p3");
+
+        assertEquals(expected, contents(load(journal, "p7", 100)));
+        assertTrue(load(journal, "p3", 100).isEmpty());
+        journal.close();
+
+        File[] segments = directory.listFiles((dir, name) -> name.endsWith(".log"));
+        assertTrue(segments != null && segments.length < 20, "分段应被压缩合并: " + Arrays.toString(segments));
+        assertEquals(0, directory.listFiles((dir, name) -> name.endsWith(".tmp")).length);
+
+        ConversationJournal reopened = open(1024, 2);
+        assertEquals(expected, contents(load(reopened, "p7", 100)));
+        assertTrue(load(reopened, "p3", 100).isEmpty());
+        assertNull(load(reopened, "p7", 100).summary());
+        reopened.close();
+    }
+
+    private File lastSegment() {
+        File[] segments = directory.listFiles((dir, name) -> name.endsWith(".log"));
+        Arrays.sort(segments);
+        for (int i = segments.length - 1; i >= 0; i--) {
+            if (segments[i].length() > 4) {
+                return segments[i];
+            }
+        }
+        throw new AssertionError("没有写入记录的分段");
+    }
+}
@@ -0,0 +1,134 @@
+package cn.ningmo.geminicraftchat.history;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConversationStoreTest {
+
+    @TempDir
+    File directory;
+
+    @Test
+    void summaryReplacesCompactedTurnsAndIsWeighed() {
+        ConversationStore store = new ConversationStore(10, 0, 0, null);
+        store.append("a", "q1", "a1");
+        store.append("a", "q2", "a2");
+        List<Turn> oldest = store.snapshot("a").subList(0, 2);
+        long before = store.getWeight();
+
+        assertTrue(store.summarize("a", "摘要", oldest));
+        assertEquals("摘要", store.getSummary("a"));
+        assertEquals(List.of("q2", "a2"), store.snapshot("a").stream().map(Turn::content).toList());
+        long turnsWeight = oldest.get(0).weight() + oldest.get(1).weight();
+        assertEquals(before - turnsWeight + "摘要".length() * 2L + 64, store.getWeight());
+    }
+
+    @Test
+    void staleSummaryIsDroppedAfterClear() {
+        ConversationStore store = new ConversationStore(10, 0, 0, null);
+        store.append("a", "q1", "a1");
+        store.append("a", "q2", "a2");
+        List<Turn> oldest = store.snapshot("a").subList(0, 2);
+
+        store.clear("a");
+        store.append("a", "q1", "a1");
+        assertFalse(store.summarize("a", "摘要", oldest));
+        assertNull(store.getSummary("a"));
+        assertEquals(2, store.snapshot("a").size());
+    }
+
+    @Test
+    void summaryIsReleasedWithTheBuffer() {
+        ConversationStore store = new ConversationStore(10, 0, 0, null);
+        store.append("a", "q1", "a1");
+        store.append("a", "q2", "a2");
+        store.summarize("a", "摘要", store.snapshot("a").subList(0, 2));
+
+        store.clear("a");
+        assertNull(store.getSummary("a"));
+        assertEquals(0, store.getWeight());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedPlayersFirstWhenOverBudget() throws InterruptedException {
+        String answer = "x".repeat(2000);
+        ConversationStore store = new ConversationStore(10, 5000, 0, null);
+        store.append("old", "q", answer);
+        Thread.sleep(2);
+        store.append("mid", "q", answer);
+        Thread.sleep(2);
+        store.append("new", "q", answer);
+
+        assertTrue(store.getWeight() <= 5000);
+        assertTrue(store.isEmpty("old"));
+        assertFalse(store.isEmpty("new"));
+        assertTrue(store.getEvictions() > 0);
+    }
+
+    @Test
+    void departedPlayersAreEvictedBeforeActiveOnes() throws InterruptedException {
+        String answer = "x".repeat(2000);
+        ConversationStore store = new ConversationStore(10, 5000, 0, null);
+        store.append("active", "q", answer);
+        Thread.sleep(2);
+        store.append("gone", "q", answer);
+        store.markDeparted("gone");
+        store.append("third", "q", answer);
+
+        assertTrue(store.isEmpty("gone"));
+        assertFalse(store.isEmpty("active"));
+        assertEquals(1, store.getDepartedEvictions());
+    }
+
+    @Test
+    void weightMatchesBuffersAfterClearAll() {
+        ConversationStore store = new ConversationStore(2, 0, 0, null);
+        for (int i = 0; i < 5; i++) {
+            store.append("a", "q" + i, "a" + i);
+            store.append("b", "q" + i, "a" + i);
+        }
+        long expected = store.snapshot("a").stream().mapToLong(Turn::weight).sum()
+            + store.snapshot("b").stream().mapToLong(Turn::weight).sum();
+        assertEquals(expected, store.getWeight());
+        store.clearAll();
+        assertEquals(0, store.getWeight());
+        assertEquals(0, store.getPlayerCount());
+    }
+
+    @Test
+    void appendAfterEvictionIsNotDuplicatedOnReload() throws Exception {
+        ConversationJournal journal = new ConversationJournal(directory, Logger.getLogger("ConversationStoreTest"),
+            message -> {
+            }, new ConversationJournal.Settings(true, "history", 10, 64 * 1024, 8, false, false));
+        String answer = "x".repeat(2000);
+        ConversationStore store = new ConversationStore(10, 5000, 0, journal);
+        store.ensureLoaded("a").get(5, TimeUnit.SECONDS);
+        store.append("a", "q1", "a1");
+        Thread.sleep(2);
+        store.ensureLoaded("b").get(5, TimeUnit.SECONDS);
+        store.append("b", "q", answer);
+        store.append("b", "q", answer);
+        store.append("b", "q", answer);
+        assertTrue(store.isEmpty("a"));
+
+        // 请求进行期间玩家被淘汰：追加会重新开始加载，加载完成前回复只写入日志，完成后写入内存，两种情况都不能重复
+        int size = store.append("a", "q2", "a2");
+        assertTrue(size == 0 || size == 4, "追加后的消息数: " + size);
+        store.ensureLoaded("a").get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("q1", "a1", "q2", "a2"), store.snapshot("a").stream().map(Turn::content).toList());
+
+        store.append("a", "q3", "a3");
+        assertEquals(6, store.snapshot("a").size());
+        journal.close();
+    }
+}
@@ -0,0 +1,72 @@
+package cn.ningmo.geminicraftchat.history;
+
+import okio.Buffer;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TurnTest {
+
+    @Test
+    void escapedContentRoundTrips() {
+        String content = "他说：\"你好\"\n第二行\t制表符 \\ 反斜杠 </script> 😀";
+        Turn turn = Turn.assistant(content);
+        assertEquals(content, turn.content());
+        assertArrayEquals(Turn.encode("assistant", content), turn.json());
+    }
+
+    @Test
+    void writeToMatchesJson() throws Exception {
+        Turn turn = Turn.user("铁矿在哪里？");
+        Buffer sink = new Buffer();
+        turn.writeTo(sink);
+        assertEquals("{\"role\":\"user\",\"content\":\"铁矿在哪里？\"}", sink.readUtf8());
+    }
+
+    @Test
+    void weightCountsCjkAsTwoBytesPerChar() {
+        assertEquals(6 + 64, Turn.user("你好吗").weight());
+        assertEquals(5 + 64, Turn.user("hello").weight());
+    }
+
+    @Test
+    void compactRoundTripsLongContent() throws Exception {
+        String content = "Iron ore usually shows up in the stone layers underground. ".repeat(20);
+        Turn turn = Turn.assistant(content).compact(256);
+        assertTrue(turn.isCompressed());
+        assertTrue(turn.weight() < content.length());
+        assertEquals(content, turn.content());
+
+        Buffer sink = new Buffer();
+        turn.writeTo(sink);
+        assertEquals(new String(Turn.encode("assistant", content), StandardCharsets.UTF_8), sink.readUtf8());
+    }
+
+    @Test
+    void shortContentIsNotCompressed() {
+        assertFalse(Turn.assistant("short").compact(256).isCompressed());
+        assertFalse(Turn.assistant("x".repeat(1000)).compact(0).isCompressed());
+    }
+
+    @Test
+    void tokenCountIsCachedPerEstimator() {
+        Turn turn = Turn.user("hello");
+        AtomicInteger calls = new AtomicInteger();
+        ToIntFunction<String> length = text -> {
+            calls.incrementAndGet();
+            return text.length();
+        };
+        assertEquals(5, turn.tokens("a", length));
+        assertEquals(5, turn.tokens("a", length));
+        assertEquals(1, calls.get());
+        assertEquals(5, turn.tokens("b", length));
+        assertEquals(2, calls.get());
+    }
+}